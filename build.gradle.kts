@@ -57,7 +57,14 @@ subprojects {
       jvmArgs("--enable-native-access=ALL-UNNAMED")
     }
     test {
-      useJUnitPlatform()
+      // Benchmarks need a large heap and a while to run, enable them with -Pbenchmarks
+      val benchmarks = project.hasProperty("benchmarks")
+      useJUnitPlatform {
+        if (!benchmarks)
+          excludeTags("benchmark")
+      }
+      if (benchmarks)
+        maxHeapSize = "4g"
       testLogging {
         events("passed", "skipped", "failed")
       }
@@ -0,0 +1,45 @@
+package org.goodgallery.gallery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 of a photo's file content as a hex string, used to recognise the same image stored under another name.
+ * SHA-256 is always available and hardware accelerated on common CPUs, so hashing keeps up with reading the file.
+ */
+final class ContentHash {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private ContentHash() {
+  }
+
+  static String of(Path file) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) != -1)
+        digest.update(buffer, 0, read);
+    }
+    return format(digest);
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IllegalStateException("SHA-256 is not available", exception);
+    }
+  }
+
+  static String format(MessageDigest digest) {
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+}
@@ -0,0 +1,88 @@
+package org.goodgallery.gallery;
+
+import org.goodgallery.gallery.data.GalleryData;
+import org.goodgallery.gallery.data.PropertyUpdate;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Hashes the files of photos added before content hashes were stored. Photos are read in batches, files are hashed on
+ * virtual threads, at most {@code parallelism} at a time, and each batch is persisted as one update.
+ */
+final class ContentHashBackfill {
+
+  private static final int BATCH_SIZE = 256;
+
+  private final GalleryData galleryData;
+  private final Semaphore permits;
+  private int hashed;
+  private int failed;
+
+  ContentHashBackfill(GalleryData galleryData, int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("Hashing parallelism must be at least 1");
+    this.galleryData = galleryData;
+    this.permits = new Semaphore(parallelism);
+  }
+
+  int run() throws InterruptedException {
+    try (ExecutorService hashExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+      Map<Photo, Path> batch = new LinkedHashMap<>();
+      for (Photo photo : galleryData.getPhotos()) {
+        if (Thread.currentThread().isInterrupted())
+          throw new InterruptedException();
+        if (photo.getPropertyValueOrNull(Properties.CONTENT_HASH_KEY) != null)
+          continue;
+        photo.getPath().ifPresent(path -> batch.put(photo, path));
+        if (batch.size() == BATCH_SIZE) {
+          hash(hashExecutor, batch);
+          batch.clear();
+        }
+      }
+      hash(hashExecutor, batch);
+    } finally {
+      if (failed > 0)
+        System.out.println("Failed to hash %d photos".formatted(failed));
+    }
+    return hashed;
+  }
+
+  private void hash(ExecutorService hashExecutor, Map<Photo, Path> batch) throws InterruptedException {
+    if (batch.isEmpty())
+      return;
+    Map<Photo, Future<String>> hashes = new LinkedHashMap<>();
+    batch.forEach((photo, path) -> hashes.put(photo, hashExecutor.submit(() -> {
+      permits.acquire();
+      try {
+        return ContentHash.of(path);
+      } finally {
+        permits.release();
+      }
+    })));
+
+    List<PropertyUpdate> updates = new ArrayList<>(hashes.size());
+    for (Map.Entry<Photo, Future<String>> hash : hashes.entrySet()) {
+      try {
+        String contentHash = hash.getValue().get();
+        updates.add(new PropertyUpdate(hash.getKey(), ((PropertiesImpl) hash.getKey().getProperties()).get(Properties.CONTENT_HASH_KEY).value(contentHash)));
+        hashed++;
+      } catch (ExecutionException _) {
+        // Usually a photo whose file is gone, there is nothing to hash
+        failed++;
+      }
+    }
+    galleryData.updateProperties(updates);
+  }
+
+}
@@ -0,0 +1,166 @@
+package org.goodgallery.gallery;
+
+import org.goodgallery.gallery.data.BatchResult;
+import org.goodgallery.gallery.data.GalleryData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Imports every file below a directory. The tree is walked on the calling thread while files are checked and copied
+ * on virtual threads, at most {@code parallelism} at a time, and copied photos are added to the gallery in batches.
+ */
+final class DirectoryImport {
+
+  private static final int BATCH_SIZE = 256;
+  private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(1);
+
+  private final Gallery gallery;
+  private final GalleryData galleryData;
+  private final int parallelism;
+  private final Consumer<ImportProgress> progressListener;
+
+  private final AtomicInteger found = new AtomicInteger();
+  private final AtomicInteger copied = new AtomicInteger();
+  private final AtomicInteger skipped = new AtomicInteger();
+  private final Map<Path, Exception> failures = new ConcurrentHashMap<>();
+  // Photos of this import are only indexed once their batch is committed, so duplicates among them are caught here
+  private final Map<String, Path> contentHashes = new ConcurrentHashMap<>();
+  private final List<Photo> imported = new ArrayList<>();
+  private final AtomicLong lastProgress = new AtomicLong();
+  private Map<Photo, Path> pendingPhotos = new LinkedHashMap<>();
+  private long startTime;
+
+  DirectoryImport(Gallery gallery, GalleryData galleryData, int parallelism, Consumer<ImportProgress> progressListener) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("Import parallelism must be at least 1");
+    this.gallery = gallery;
+    this.galleryData = galleryData;
+    this.parallelism = parallelism;
+    this.progressListener = progressListener;
+  }
+
+  ImportReport run(Path directory) throws IOException, InterruptedException {
+    startTime = System.nanoTime();
+    lastProgress.set(startTime);
+    Semaphore permits = new Semaphore(parallelism);
+    try {
+      try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor(); Stream<Path> files = Files.walk(directory)) {
+        Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+        while (iterator.hasNext()) {
+          Path file = iterator.next();
+          found.incrementAndGet();
+          permits.acquire();
+          executor.execute(() -> {
+            try {
+              importFile(file);
+            } finally {
+              permits.release();
+            }
+          });
+        }
+      } catch (UncheckedIOException exception) {
+        throw exception.getCause();
+      }
+    } finally {
+      // Whatever was copied before the walk stopped is still added, so no copied file is left without a photo
+      commit(takePendingPhotos(0));
+    }
+    progressListener.accept(progress());
+    synchronized (imported) {
+      return new ImportReport(imported, skipped.get(), new LinkedHashMap<>(failures), elapsed());
+    }
+  }
+
+  private void importFile(Path file) {
+    try {
+      Optional<ImageFormat> format = ImageFormat.sniff(file);
+      if (format.isEmpty()) {
+        skipped.incrementAndGet();
+      } else {
+        Photo photo = gallery.transferIntoGallery(file, format.get(), false).photo();
+        Path original = contentHashes.putIfAbsent(photo.getContentHash().orElseThrow(), file);
+        if (original != null) {
+          Files.deleteIfExists(photo.getPath().orElseThrow());
+          skipped.incrementAndGet();
+        } else {
+          copied.incrementAndGet();
+          commit(pend(photo, file));
+        }
+      }
+    } catch (FileAlreadyExistsException _) {
+      skipped.incrementAndGet();
+    } catch (IOException | RuntimeException exception) {
+      failures.put(file, exception);
+    }
+    reportProgress();
+  }
+
+  private synchronized Map<Photo, Path> pend(Photo photo, Path file) {
+    pendingPhotos.put(photo, file);
+    return takePendingPhotos(BATCH_SIZE);
+  }
+
+  // The pending photos once at least minimumSize are pending, otherwise an empty map
+  private synchronized Map<Photo, Path> takePendingPhotos(int minimumSize) {
+    if (pendingPhotos.isEmpty() || pendingPhotos.size() < minimumSize)
+      return Map.of();
+    Map<Photo, Path> batch = pendingPhotos;
+    pendingPhotos = new LinkedHashMap<>();
+    return batch;
+  }
+
+  private void commit(Map<Photo, Path> batch) {
+    if (batch.isEmpty())
+      return;
+    BatchResult<Photo> result = galleryData.addAll(batch.keySet());
+    synchronized (imported) {
+      imported.addAll(result.succeeded());
+    }
+    result.failures().forEach((photo, cause) -> {
+      failures.put(batch.get(photo), cause);
+      // Removed again so importing the file once more is not skipped as a duplicate
+      photo.getContentHash().ifPresent(contentHash -> contentHashes.remove(contentHash, batch.get(photo)));
+      try {
+        Files.deleteIfExists(photo.getPath().orElseThrow());
+      } catch (IOException exception) {
+        System.out.println("Failed to remove copy of \"%s\"".formatted(batch.get(photo)));
+        exception.printStackTrace(System.out);
+      }
+    });
+  }
+
+  private void reportProgress() {
+    long now = System.nanoTime();
+    long last = lastProgress.get();
+    if (now - last >= PROGRESS_INTERVAL.toNanos() && lastProgress.compareAndSet(last, now))
+      progressListener.accept(progress());
+  }
+
+  private ImportProgress progress() {
+    return new ImportProgress(found.get(), copied.get(), skipped.get(), failures.size(), elapsed());
+  }
+
+  private Duration elapsed() {
+    return Duration.ofNanos(System.nanoTime() - startTime);
+  }
+
+}
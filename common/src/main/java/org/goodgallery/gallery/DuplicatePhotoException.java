@@ -0,0 +1,21 @@
+package org.goodgallery.gallery;
+
+import lombok.Getter;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+
+/**
+ * Thrown when a file is copied into the gallery although a photo with the same content is already stored.
+ */
+@Getter
+public final class DuplicatePhotoException extends FileAlreadyExistsException {
+
+  private final transient Photo duplicate;
+
+  public DuplicatePhotoException(Path file, Photo duplicate) {
+    super(file.toString(), null, "Same content as photo \"%s\"".formatted(duplicate.getName().orElse(duplicate.toString())));
+    this.duplicate = duplicate;
+  }
+
+}
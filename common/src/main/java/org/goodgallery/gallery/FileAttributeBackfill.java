@@ -0,0 +1,121 @@
+package org.goodgallery.gallery;
+
+import org.goodgallery.gallery.data.GalleryData;
+import org.goodgallery.gallery.data.PropertyUpdate;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.goodgallery.gallery.properties.PropertyInstance;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Captures the file attributes and image format of photos added before they were stored as properties. Photos are read
+ * in batches, every file in a batch is read concurrently on virtual threads, and each batch is persisted as one update.
+ */
+final class FileAttributeBackfill {
+
+  private static final int BATCH_SIZE = 256;
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+  private final GalleryData galleryData;
+  private Thread thread;
+  private int captured;
+  private int failed;
+
+  FileAttributeBackfill(GalleryData galleryData) {
+    this.galleryData = galleryData;
+  }
+
+  void start() {
+    thread = Thread.ofPlatform().name("GoodGallery-Backfill").daemon().start(this::run);
+  }
+
+  void close() {
+    if (thread == null)
+      return;
+    thread.interrupt();
+    try {
+      if (!thread.join(CLOSE_TIMEOUT))
+        System.out.println("File attribute backfill did not stop within " + CLOSE_TIMEOUT.toSeconds() + " seconds");
+    } catch (InterruptedException _) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    try (ExecutorService statExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+      Map<Photo, Missing> batch = new LinkedHashMap<>();
+      for (Photo photo : galleryData.getPhotos()) {
+        if (Thread.currentThread().isInterrupted())
+          return;
+        // The file size and format have no default, so a missing value means it was never captured
+        boolean attributes = photo.getPropertyValueOrNull(Properties.FILE_SIZE_KEY) == null
+          || !((PropertiesImpl) photo.getProperties()).get(Properties.CREATION_TIMESTAMP_KEY).isSet();
+        boolean format = photo.getPropertyValueOrNull(Properties.IMAGE_FORMAT_KEY) == null;
+        if (!attributes && !format)
+          continue;
+        photo.getPath().ifPresent(path -> batch.put(photo, new Missing(path, attributes, format)));
+        if (batch.size() == BATCH_SIZE) {
+          capture(statExecutor, batch);
+          batch.clear();
+        }
+      }
+      capture(statExecutor, batch);
+    } catch (InterruptedException _) {
+      // Closing, the remaining photos are captured on the next start
+    } catch (RuntimeException exception) {
+      System.out.println("File attribute backfill failed");
+      exception.printStackTrace(System.out);
+    } finally {
+      if (captured > 0 || failed > 0)
+        System.out.println("Captured file attributes of %d photos, %d could not be read".formatted(captured, failed));
+    }
+  }
+
+  private void capture(ExecutorService statExecutor, Map<Photo, Missing> batch) throws InterruptedException {
+    if (batch.isEmpty())
+      return;
+    Map<Photo, Future<Captured>> stats = new LinkedHashMap<>();
+    batch.forEach((photo, missing) -> stats.put(photo, statExecutor.submit(missing::read)));
+
+    List<PropertyUpdate> updates = new ArrayList<>(stats.size() * 4);
+    for (Map.Entry<Photo, Future<Captured>> stat : stats.entrySet()) {
+      try {
+        Captured capture = stat.getValue().get();
+        if (capture.attributes() != null)
+          for (PropertyInstance<?> property : capture.attributes().applyTo(stat.getKey()))
+            updates.add(new PropertyUpdate(stat.getKey(), property));
+        // Files that are not a known image stay without a format
+        if (capture.format() != null)
+          updates.add(new PropertyUpdate(stat.getKey(), ((PropertiesImpl) stat.getKey().getProperties()).get(Properties.IMAGE_FORMAT_KEY).value(capture.format())));
+        captured++;
+      } catch (ExecutionException _) {
+        // Usually a photo whose file is gone, there is nothing to capture
+        failed++;
+      }
+    }
+    galleryData.updateProperties(updates);
+  }
+
+  private record Missing(Path path, boolean attributes, boolean format) {
+
+    Captured read() throws IOException {
+      return new Captured(attributes ? FileAttributes.read(path) : null, format ? ImageFormat.sniff(path).orElse(null) : null);
+    }
+
+  }
+
+  private record Captured(FileAttributes attributes, ImageFormat format) {
+  }
+
+}
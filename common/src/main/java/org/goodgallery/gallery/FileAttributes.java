@@ -0,0 +1,40 @@
+package org.goodgallery.gallery;
+
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.goodgallery.gallery.properties.PropertyInstance;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The attributes of a photo's file that are stored as properties, so they are read from the filesystem once instead
+ * of whenever they are needed.
+ */
+public record FileAttributes(long size, long creationTimestamp, long modifiedTimestamp) {
+
+  public static FileAttributes read(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    return new FileAttributes(attributes.size(), attributes.creationTime().toMillis(), attributes.lastModifiedTime().toMillis());
+  }
+
+  /**
+   * Sets the attributes on the photo and returns the properties that changed, for the caller to persist. A stored
+   * creation timestamp is kept, it may predate the file, such as one carried over from an earlier copy.
+   */
+  public List<PropertyInstance<?>> applyTo(Photo photo) {
+    PropertiesImpl properties = (PropertiesImpl) photo.getProperties();
+    List<PropertyInstance<?>> changed = new ArrayList<>(3);
+    changed.add(properties.get(Properties.FILE_SIZE_KEY).value(size));
+    PropertyInstance<Long> creationTimestampProperty = properties.get(Properties.CREATION_TIMESTAMP_KEY);
+    if (!creationTimestampProperty.isSet())
+      changed.add(creationTimestampProperty.value(creationTimestamp));
+    changed.add(properties.get(Properties.MODIFIED_TIMESTAMP_KEY).value(modifiedTimestamp));
+    return changed;
+  }
+
+}
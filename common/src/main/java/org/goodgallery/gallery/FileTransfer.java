@@ -0,0 +1,113 @@
+package org.goodgallery.gallery;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves and copies files into the gallery while computing their {@link ContentHash}. A move on the same filesystem is
+ * an atomic rename followed by one read to hash the file. A copy hashes each chunk through a memory mapping and then
+ * lets the kernel transfer the chunk, which is in the page cache by then, so the file is read from disk once and never
+ * copied through the heap, and filesystems that support it can clone the data instead of copying it.
+ */
+final class FileTransfer {
+
+  private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+  private final boolean sync;
+  private final LongAdder moves = new LongAdder();
+  private final LongAdder movedBytes = new LongAdder();
+  private final LongAdder moveNanos = new LongAdder();
+  private final LongAdder copies = new LongAdder();
+  private final LongAdder copiedBytes = new LongAdder();
+  private final LongAdder copyNanos = new LongAdder();
+
+  /**
+   * @param sync whether copies are forced to disk before they count as done
+   */
+  FileTransfer(boolean sync) {
+    this.sync = sync;
+  }
+
+  /**
+   * Renames {@code source} to {@code target} and returns the content hash, or returns {@code null} without touching
+   * either file when they are not on the same filesystem.
+   */
+  String move(Path source, Path target) throws IOException {
+    long start = System.nanoTime();
+    // Renaming may silently replace an existing target, copying refuses to
+    if (Files.exists(target))
+      throw new FileAlreadyExistsException(target.toString());
+    if (!Files.getFileStore(source).equals(Files.getFileStore(target.getParent())))
+      return null;
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException _) {
+      return null;
+    }
+    String contentHash = ContentHash.of(target);
+    moves.increment();
+    movedBytes.add(Files.size(target));
+    moveNanos.add(System.nanoTime() - start);
+    return contentHash;
+  }
+
+  /**
+   * Copies {@code source} to {@code target}, which must not exist yet, and returns the content hash. The file times are
+   * copied along, a partially written target is removed again.
+   */
+  String copy(Path source, Path target) throws IOException {
+    long start = System.nanoTime();
+    BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+    MessageDigest digest = ContentHash.newDigest();
+    long size;
+    // The target is created first, so a failure past this point always concerns a file this copy created
+    try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+         FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+      size = in.size();
+      for (long position = 0; position < size; position += CHUNK_SIZE) {
+        long length = Math.min(CHUNK_SIZE, size - position);
+        try (Arena arena = Arena.ofConfined()) {
+          MemorySegment chunk = in.map(FileChannel.MapMode.READ_ONLY, position, length, arena);
+          digest.update(chunk.asByteBuffer());
+        }
+        for (long transferred = 0; transferred < length; ) {
+          long count = in.transferTo(position + transferred, length - transferred, out);
+          if (count <= 0)
+            throw new IOException("File at \"%s\" changed while it was copied".formatted(source));
+          transferred += count;
+        }
+      }
+      if (sync)
+        out.force(true);
+    } catch (IOException exception) {
+      if (!(exception instanceof FileAlreadyExistsException))
+        Files.deleteIfExists(target);
+      throw exception;
+    }
+    Files.getFileAttributeView(target, BasicFileAttributeView.class)
+      .setTimes(attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+    copies.increment();
+    copiedBytes.add(size);
+    copyNanos.add(System.nanoTime() - start);
+    return ContentHash.format(digest);
+  }
+
+  TransferStats stats() {
+    return new TransferStats(moves.sum(), movedBytes.sum(), Duration.ofNanos(moveNanos.sum()),
+      copies.sum(), copiedBytes.sum(), Duration.ofNanos(copyNanos.sum()));
+  }
+
+}
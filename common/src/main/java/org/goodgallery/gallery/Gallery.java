@@ -2,7 +2,14 @@ package org.goodgallery.gallery;
 
 import lombok.Getter;
 import org.goodgallery.gallery.data.AbstractGalleryData;
+import org.goodgallery.gallery.data.BatchResult;
+import org.goodgallery.gallery.data.CacheStats;
+import org.goodgallery.gallery.data.EventStats;
 import org.goodgallery.gallery.data.GalleryData;
+import org.goodgallery.gallery.data.GalleryListener;
+import org.goodgallery.gallery.data.GallerySnapshot;
+import org.goodgallery.gallery.data.LoadReport;
+import org.goodgallery.gallery.data.TimelinePosition;
 import org.goodgallery.gallery.properties.Properties;
 import org.goodgallery.gallery.properties.PropertiesImpl;
 import org.goodgallery.gallery.properties.PropertyInstance;
@@ -16,6 +23,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Consumer;
@@ -23,19 +31,87 @@ import java.util.function.Consumer;
 @SuppressWarnings({"unused", "UnusedReturnValue"})
 public final class Gallery {
 
+  private static final int DEFAULT_IMPORT_PARALLELISM = 16;
+
   @Getter
   private final Path path;
   private final GalleryData galleryData;
+  private final FileAttributeBackfill fileAttributeBackfill;
+  private final FileTransfer fileTransfer;
+  private final ThumbnailService thumbnailService;
 
   Gallery(GallerySettings properties) throws Exception {
     path = properties.galleryPath().toAbsolutePath().normalize();
     if (!Files.isDirectory(path))
       Files.createDirectories(path);
     this.galleryData = properties.storage(path);
+    this.fileAttributeBackfill = properties.isBackfillFileAttributes() ? new FileAttributeBackfill(galleryData) : null;
+    this.fileTransfer = new FileTransfer(properties.isSyncTransfers());
+    this.thumbnailService = properties.isThumbnails() ? new ThumbnailService(path, properties.thumbnailCacheCapacity()) : null;
   }
 
   void load() {
     ((AbstractGalleryData) galleryData).load();
+    if (fileAttributeBackfill != null)
+      fileAttributeBackfill.start();
+    if (thumbnailService != null) {
+      thumbnailService.start();
+      ((AbstractGalleryData) galleryData).addListener(thumbnailService);
+    }
+  }
+
+  void close() {
+    if (fileAttributeBackfill != null)
+      fileAttributeBackfill.close();
+    if (thumbnailService != null) {
+      ((AbstractGalleryData) galleryData).removeListener(thumbnailService);
+      thumbnailService.close();
+    }
+    galleryData.close();
+  }
+
+  public void flush() {
+    galleryData.flush();
+  }
+
+  public LoadReport getLoadReport() {
+    return ((AbstractGalleryData) galleryData).getLoadReport();
+  }
+
+  public Optional<CacheStats> getCacheStats() {
+    return ((AbstractGalleryData) galleryData).getCacheStats();
+  }
+
+  public TransferStats getTransferStats() {
+    return fileTransfer.stats();
+  }
+
+  public Optional<ThumbnailStats> getThumbnailStats() {
+    return Optional.ofNullable(thumbnailService).map(ThumbnailService::stats);
+  }
+
+  /**
+   * Notify {@code listener} of items added and removed, and of property and membership changes, from now on. Events
+   * are delivered on an event thread in batches coalesced per item, a slow listener never holds up changes.
+   */
+  public void addListener(GalleryListener listener) {
+    ((AbstractGalleryData) galleryData).addListener(listener);
+  }
+
+  public void removeListener(GalleryListener listener) {
+    ((AbstractGalleryData) galleryData).removeListener(listener);
+  }
+
+  public EventStats getEventStats() {
+    return ((AbstractGalleryData) galleryData).getEventStats();
+  }
+
+  /**
+   * The items and their membership at one version of the gallery, for listings that must not see an import or removal
+   * halfway. Other property values are read live from the items. Not available while items are loaded lazily.
+   */
+  public GallerySnapshot snapshot() {
+    return galleryData.snapshot();
   }
 
   public Collection<Group> getGroups() {
@@ -50,6 +126,10 @@ public final class Gallery {
     return galleryData.getGroup(name);
   }
 
+  public List<String> completeGroupNames(String prefix, int limit) {
+    return galleryData.completeGroupNames(prefix, limit);
+  }
+
   public boolean hasGroup(UUID uniqueId) {
     return galleryData.hasGroup(uniqueId);
   }
@@ -60,7 +140,9 @@ public final class Gallery {
 
   public Group createGroup(String name) {
     Group group = new Group();
-    ((PropertiesImpl) group.getProperties()).get(Properties.NAME_KEY).value(name);
+    PropertiesImpl properties = (PropertiesImpl) group.getProperties();
+    properties.get(Properties.NAME_KEY).value(name);
+    properties.get(Properties.CREATION_TIMESTAMP_KEY).value(System.currentTimeMillis());
     galleryData.add(group);
     return group;
   }
@@ -69,12 +151,16 @@ public final class Gallery {
     galleryData.remove(group);
   }
 
+  public Collection<Group> getGroupsContaining(Album album) {
+    return galleryData.getGroupsContaining(album);
+  }
+
   public void addAlbumToGroup(Album album, Group group) {
     if (!galleryData.hasAlbum(album))
       throw new IllegalStateException("Album \"%s\" does not exist".formatted(album.getName().orElse(album.toString())));
     if (!galleryData.hasGroup(group))
       throw new IllegalStateException("Group \"%s\" does not exist".formatted(group.getName().orElse(group.toString())));
-    mutateProperty(group, Properties.ALBUMS_KEY, albums -> albums.add(album));
+    galleryData.addMember(group, Properties.ALBUMS_KEY, album);
   }
 
   public void removeAlbumFromGroup(Album album, Group group) {
@@ -82,7 +168,7 @@ public final class Gallery {
       throw new IllegalStateException("Album \"%s\" does not exist".formatted(album.getName().orElse(album.toString())));
     if (!galleryData.hasGroup(group))
       throw new IllegalStateException("Group \"%s\" does not exist".formatted(group.getName().orElse(group.toString())));
-    mutateProperty(group, Properties.ALBUMS_KEY, albums -> albums.remove(album));
+    galleryData.removeMember(group, Properties.ALBUMS_KEY, album);
   }
 
   public Collection<Album> getAlbums() {
@@ -97,6 +183,10 @@ public final class Gallery {
     return galleryData.getAlbum(name);
   }
 
+  public List<String> completeAlbumNames(String prefix, int limit) {
+    return galleryData.completeAlbumNames(prefix, limit);
+  }
+
   public boolean hasAlbum(UUID uniqueId) {
     return galleryData.hasAlbum(uniqueId);
   }
@@ -107,7 +197,9 @@ public final class Gallery {
 
   public Album createAlbum(String name) {
     Album album = new Album();
-    ((PropertiesImpl) album.getProperties()).get(Properties.NAME_KEY).value(name);
+    PropertiesImpl properties = (PropertiesImpl) album.getProperties();
+    properties.get(Properties.NAME_KEY).value(name);
+    properties.get(Properties.CREATION_TIMESTAMP_KEY).value(System.currentTimeMillis());
     galleryData.add(album);
     return album;
   }
@@ -116,12 +208,16 @@ public final class Gallery {
     galleryData.remove(album);
   }
 
+  public Collection<Album> getAlbumsContaining(Photo photo) {
+    return galleryData.getAlbumsContaining(photo);
+  }
+
   public void addPhotoToAlbum(Photo photo, Album album) {
     if (!galleryData.hasPhoto(photo))
       throw new IllegalStateException("Photo \"%s\" does not exist".formatted(photo.getName().orElse(photo.toString())));
     if (!galleryData.hasAlbum(album))
       throw new IllegalStateException("Album \"%s\" does not exist".formatted(album.getName().orElse(album.toString())));
-    mutateProperty(album, Properties.PHOTOS_KEY, photos -> photos.add(photo));
+    galleryData.addMember(album, Properties.PHOTOS_KEY, photo);
   }
 
   public void removePhotoFromAlbum(Photo photo, Album album) {
@@ -129,7 +225,7 @@ public final class Gallery {
       throw new IllegalStateException("Photo \"%s\" does not exist".formatted(photo.getName().orElse(photo.toString())));
     if (!galleryData.hasAlbum(album))
       throw new IllegalStateException("Album \"%s\" does not exist".formatted(album.getName().orElse(album.toString())));
-    mutateProperty(album, Properties.PHOTOS_KEY, photos -> photos.remove(photo));
+    galleryData.removeMember(album, Properties.PHOTOS_KEY, photo);
   }
 
   public Collection<Photo> getPhotos() {
@@ -148,6 +244,40 @@ public final class Gallery {
     return galleryData.getPhoto(name);
   }
 
+  public Optional<Photo> getPhotoByContentHash(String contentHash) {
+    return galleryData.getPhotoByContentHash(contentHash);
+  }
+
+  public List<String> completePhotoNames(String prefix, int limit) {
+    return galleryData.completePhotoNames(prefix, limit);
+  }
+
+  public List<Photo> getPhotosCreatedBetween(long from, long to) {
+    return galleryData.getPhotosCreatedBetween(from, to);
+  }
+
+  public List<Photo> getPhotosCreatedBefore(TimelinePosition before, int limit) {
+    if (limit < 0)
+      throw new IllegalArgumentException("Limit must not be negative");
+    return galleryData.getPhotosCreatedBefore(before, limit);
+  }
+
+  public List<Photo> getLatestPhotos(int limit) {
+    return getPhotosCreatedBefore(null, limit);
+  }
+
+  /**
+   * The cached thumbnail of a photo, generated on the calling thread when it is missing. Empty when the photo has no
+   * file or its format cannot be decoded.
+   *
+   * @throws IllegalStateException if thumbnails are disabled
+   */
+  public Optional<Path> getThumbnail(Photo photo, ThumbnailSize size) {
+    if (thumbnailService == null)
+      throw new IllegalStateException("Thumbnails are disabled");
+    return thumbnailService.get(photo, size);
+  }
+
   public boolean hasPhoto(UUID uniqueId) {
     return galleryData.hasPhoto(uniqueId);
   }
@@ -161,31 +291,123 @@ public final class Gallery {
   }
 
   public Photo copyPhoto(Path originalPath) throws Exception {
+    ImageFormat format = requireImage(originalPath);
+
+    Photo photo = transferIntoGallery(originalPath, format, false).photo();
+    addTransferred(photo, originalPath, false);
+
+    return photo;
+  }
+
+  /**
+   * Import every image below a directory, see {@link #importDirectory(Path, int, Consumer)}.
+   */
+  public ImportReport importDirectory(Path directory) throws IOException, InterruptedException {
+    return importDirectory(directory, DEFAULT_IMPORT_PARALLELISM, _ -> {
+    });
+  }
+
+  /**
+   * Import every image below a directory, recursively. Files are copied on up to {@code parallelism} virtual threads
+   * and added in batches, files that are not images or whose name is already taken in the gallery are skipped.
+   *
+   * @param directory        the directory to import
+   * @param parallelism      the number of files copied at the same time
+   * @param progressListener called about once a second while importing and once when done, from any thread
+   * @return the imported photos and, per file, the cause of any failure
+   */
+  public ImportReport importDirectory(Path directory, int parallelism, Consumer<ImportProgress> progressListener) throws IOException, InterruptedException {
+    if (!Files.isDirectory(directory))
+      throw new FileNotFoundException("Directory at \"%s\" does not exist".formatted(directory));
+    return new DirectoryImport(this, galleryData, parallelism, progressListener).run(directory);
+  }
+
+  private static ImageFormat requireImage(Path originalPath) throws IOException {
     if (!Files.exists(originalPath))
       throw new FileNotFoundException("File at \"%s\" does not exist".formatted(originalPath));
+    return ImageFormat.sniff(originalPath)
+      .orElseThrow(() -> new RuntimeException("File at \"%s\" is not a valid image".formatted(originalPath)));
+  }
 
-    String mimeType = Files.probeContentType(originalPath);
-    if (mimeType == null || !mimeType.startsWith("image/"))
-      throw new RuntimeException("File at \"%s\" is not a valid image".formatted(originalPath));
+  /**
+   * A photo created from a file transferred into the gallery directory, and whether the file was renamed there rather
+   * than copied.
+   */
+  record Transfer(Photo photo, boolean moved) {
+  }
 
+  /**
+   * Copies a file into the gallery directory, or renames it there when {@code move} is set and both are on the same
+   * filesystem, and creates its photo without adding it. A file whose content is already stored is put back. After a
+   * move that fell back to copying, the original is left for the caller to delete once the photo was added.
+   *
+   * @throws DuplicatePhotoException if a photo with the same content already exists
+   */
+  Transfer transferIntoGallery(Path originalPath, ImageFormat format, boolean move) throws IOException {
     Path newPath = path.resolve(originalPath.getFileName());
 
     if (Files.exists(newPath))
       throw new FileAlreadyExistsException("Photo at \"%s\" already exists".formatted(newPath));
 
-    Files.copy(originalPath, newPath, StandardCopyOption.COPY_ATTRIBUTES);
+    String contentHash = move ? fileTransfer.move(originalPath, newPath) : null;
+    boolean moved = contentHash != null;
+    if (!moved)
+      contentHash = fileTransfer.copy(originalPath, newPath);
+    Optional<Photo> duplicate = galleryData.getPhotoByContentHash(contentHash);
+    if (duplicate.isPresent()) {
+      if (moved)
+        Files.move(newPath, originalPath, StandardCopyOption.ATOMIC_MOVE);
+      else
+        Files.deleteIfExists(newPath);
+      throw new DuplicatePhotoException(originalPath, duplicate.get());
+    }
 
     Photo photo = new Photo();
-    ((PropertiesImpl) photo.getProperties()).get(Properties.PATH_KEY).value(newPath);
-    galleryData.add(photo);
+    PropertiesImpl properties = (PropertiesImpl) photo.getProperties();
+    properties.get(Properties.PATH_KEY).value(newPath);
+    properties.get(Properties.NAME_KEY).value(newPath.getFileName().toString());
+    properties.get(Properties.CONTENT_HASH_KEY).value(contentHash);
+    properties.get(Properties.IMAGE_FORMAT_KEY).value(format);
+    FileAttributes.read(newPath).applyTo(photo);
+    return new Transfer(photo, moved);
+  }
 
-    return photo;
+  /**
+   * Hash the files of photos added before content hashes were stored, on up to {@code parallelism} virtual threads.
+   *
+   * @return the number of photos hashed
+   */
+  public int backfillContentHashes(int parallelism) throws InterruptedException {
+    return new ContentHashBackfill(galleryData, parallelism).run();
   }
 
   public Photo cutPhoto(Path originalPath) throws Exception {
-    Photo photo = copyPhoto(originalPath);
-    Files.deleteIfExists(originalPath);
-    return photo;
+    ImageFormat format = requireImage(originalPath);
+
+    Transfer transfer = transferIntoGallery(originalPath, format, true);
+    addTransferred(transfer.photo(), originalPath, transfer.moved());
+    if (!transfer.moved())
+      Files.deleteIfExists(originalPath);
+
+    return transfer.photo();
+  }
+
+  // Puts a moved file back, or deletes the copy, when the photo cannot be added
+  private void addTransferred(Photo photo, Path originalPath, boolean moved) {
+    try {
+      galleryData.add(photo);
+    } catch (RuntimeException exception) {
+      Path newPath = photo.getPath().orElseThrow();
+      try {
+        if (moved)
+          Files.move(newPath, originalPath, StandardCopyOption.ATOMIC_MOVE);
+        else
+          Files.deleteIfExists(newPath);
+      } catch (IOException restoreException) {
+        exception.addSuppressed(restoreException);
+      }
+      throw exception;
+    }
   }
 
   public void deletePhoto(Photo photo) throws IOException {
@@ -196,12 +418,39 @@ public final class Gallery {
       Files.deleteIfExists(path.get());
   }
 
+  /**
+   * Add a batch of items in a single storage operation.
+   *
+   * @param galleryItems the items to add
+   * @return the items that were added and, per item, the cause of any failure
+   */
+  public <T extends GalleryItem> BatchResult<T> addAll(Collection<T> galleryItems) {
+    return galleryData.addAll(galleryItems);
+  }
+
+  /**
+   * Remove a batch of items in a single storage operation. Unlike {@link #deletePhoto(Photo)}, the files of removed
+   * photos are left on disk.
+   *
+   * @param galleryItems the items to remove
+   * @return the items that were removed and, per item, the cause of any failure
+   */
+  public <T extends GalleryItem> BatchResult<T> removeAll(Collection<T> galleryItems) {
+    return galleryData.removeAll(galleryItems);
+  }
+
   public <T> void updateProperty(GalleryItem galleryItem, PropertyKey<T> key, T value) {
     PropertyInstance<T> property = ((PropertiesImpl) galleryItem.getProperties()).get(key).value(value);
     galleryData.updateProperty(galleryItem, property);
   }
 
+  /**
+   * Mutate the current value in place. Membership sets are immutable and rejected with an
+   * {@link IllegalArgumentException}, change them through the add and remove methods for albums and groups instead.
+   */
   public <T> void mutateProperty(GalleryItem galleryItem, PropertyKey<T> key, Consumer<T> mutator) {
+    if (key == Properties.PHOTOS_KEY || key == Properties.ALBUMS_KEY)
+      throw new IllegalArgumentException("Membership of \"%s\" cannot be mutated in place, use the add and remove methods".formatted(key));
     PropertyInstance<T> property = ((PropertiesImpl) galleryItem.getProperties()).get(key);
     property.value().ifPresent(mutator);
     galleryData.updateProperty(galleryItem, property);
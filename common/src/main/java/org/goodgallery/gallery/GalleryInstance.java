@@ -2,7 +2,8 @@ package org.goodgallery.gallery;
 
 public final class GalleryInstance {
 
-  private static Gallery GALLERY = null;
+  // Volatile so get() can skip the lock, items resolve their members through it from whichever thread reads them first
+  private static volatile Gallery GALLERY = null;
 
   public static synchronized Gallery init(GallerySettings settings) {
     if (GALLERY != null)
@@ -10,16 +11,25 @@ public final class GalleryInstance {
     try {
       GALLERY = new Gallery(settings);
       GALLERY.load();
+      Runtime.getRuntime().addShutdownHook(new Thread(GalleryInstance::shutdown, "GoodGallery-Shutdown"));
       return GALLERY;
     } catch (Exception exception) {
       throw new RuntimeException("Failed to initialize Gallery", exception);
     }
   }
 
-  public static synchronized Gallery get() {
-    if (GALLERY == null)
+  public static Gallery get() {
+    Gallery gallery = GALLERY;
+    if (gallery == null)
       throw new IllegalStateException("Gallery has not been initialized. Call init() first.");
-    return GALLERY;
+    return gallery;
+  }
+
+  public static synchronized void shutdown() {
+    if (GALLERY == null)
+      return;
+    GALLERY.close();
+    GALLERY = null;
   }
 
 }
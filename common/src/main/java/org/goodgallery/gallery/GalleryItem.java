@@ -32,10 +32,34 @@ public abstract sealed class GalleryItem permits Album, Group, Photo {
     return getProperties().getValueOrKeyDefault(key);
   }
 
+  /**
+   * Like {@link #getPropertyValue(PropertyKey)}, but returns {@code null} instead of wrapping the value, so reading a
+   * set property does not allocate.
+   */
+  public <T> T getPropertyValueOrNull(PropertyKey<T> key) {
+    T value = properties.getOrNull(key);
+    return value != null ? value : key.getDefaultValue(properties).orElse(null);
+  }
+
   public Optional<String> getName() {
     return getPropertyValue(Properties.NAME_KEY);
   }
 
+  public Optional<Long> getCreationTimestamp() {
+    return getPropertyValue(Properties.CREATION_TIMESTAMP_KEY);
+  }
+
+  // Items are identified by their UUID, lazily loaded galleries may hand out more than one instance of an item
+  @Override
+  public boolean equals(Object object) {
+    return object instanceof GalleryItem other && uniqueId.equals(other.uniqueId);
+  }
+
+  @Override
+  public int hashCode() {
+    return uniqueId.hashCode();
+  }
+
   @Override
   public String toString() {
     return uniqueId.toString();
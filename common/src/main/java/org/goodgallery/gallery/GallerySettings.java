@@ -1,16 +1,26 @@
 package org.goodgallery.gallery;
 
+import org.goodgallery.gallery.data.AbstractGalleryData;
+import org.goodgallery.gallery.data.BinaryGalleryData;
 import org.goodgallery.gallery.data.GalleryData;
 import org.goodgallery.gallery.data.H2GalleryData;
 import org.goodgallery.gallery.data.JsonGalleryData;
 import org.goodgallery.gallery.data.SQLiteGalleryData;
 
 import java.nio.file.Path;
+import java.time.Duration;
 
 public class GallerySettings {
 
   private StorageType storage = StorageType.SQLITE;
   private Path galleryPath = Path.of("gallery");
+  private int writeBehindBatchSize = 0;
+  private Duration writeBehindDelay = Duration.ZERO;
+  private int loadWorkers = 1;
+  private int lazyCacheCapacity = 0;
+  private boolean backfillFileAttributes = true;
+  private boolean syncTransfers = false;
+  private long thumbnailCacheCapacity = 256L * 1024 * 1024;
 
   public GallerySettings storage(StorageType storage) {
     this.storage = storage;
@@ -18,11 +28,123 @@ public class GallerySettings {
   }
 
   public GalleryData storage(Path path) throws Exception {
-    return switch (storage) {
+    AbstractGalleryData galleryData = switch (storage) {
       case SQLITE -> new SQLiteGalleryData(path);
       case H2 -> new H2GalleryData(path);
       case JSON -> new JsonGalleryData(path);
+      case BINARY -> new BinaryGalleryData(path);
     };
+    if (isWriteBehind())
+      galleryData.enableWriteBehind(writeBehindBatchSize, writeBehindDelay);
+    galleryData.loadWorkers(loadWorkers);
+    if (isLazy())
+      galleryData.enableLazyLoading(lazyCacheCapacity);
+    return galleryData;
+  }
+
+  /**
+   * Queue property updates and write them in batches instead of one at a time. Updates to the same property of the
+   * same item are coalesced, and a batch is written once {@code batchSize} updates are pending or {@code maxDelay}
+   * has passed since the first one. Call {@link Gallery#flush()} to force pending updates to storage.
+   *
+   * @param batchSize the number of pending updates that triggers a flush
+   * @param maxDelay  the longest time an update may stay pending
+   * @return this settings instance
+   */
+  public GallerySettings writeBehind(int batchSize, Duration maxDelay) {
+    this.writeBehindBatchSize = batchSize;
+    this.writeBehindDelay = maxDelay;
+    return this;
+  }
+
+  public boolean isWriteBehind() {
+    return writeBehindBatchSize > 0;
+  }
+
+  /**
+   * Load the gallery on {@code workers} threads. The SQL backends read a range of the UUID space per worker and
+   * construct items off the reading threads, the JSON backend always loads on a single thread.
+   *
+   * @param workers the number of threads to load with
+   * @return this settings instance
+   */
+  public GallerySettings loadWorkers(int workers) {
+    if (workers < 1)
+      throw new IllegalArgumentException("Load workers must be at least 1");
+    this.loadWorkers = workers;
+    return this;
+  }
+
+  /**
+   * Fetch items from storage on first access instead of loading all of them at startup, keeping at most
+   * {@code cacheCapacity} items in memory. Listing all items pages through storage. The SQL backends support lazy
+   * loading, and the binary backend always loads lazily.
+   *
+   * @param cacheCapacity the number of items to keep cached
+   * @return this settings instance
+   */
+  public GallerySettings lazy(int cacheCapacity) {
+    this.lazyCacheCapacity = cacheCapacity;
+    return this;
+  }
+
+  public boolean isLazy() {
+    return lazyCacheCapacity > 0;
+  }
+
+  /**
+   * Capture the size, creation and modification time and the image format of photos added before these were stored,
+   * on a background thread after loading. Enabled by default.
+   *
+   * @param backfill whether to capture missing file attributes
+   * @return this settings instance
+   */
+  public GallerySettings backfillFileAttributes(boolean backfill) {
+    this.backfillFileAttributes = backfill;
+    return this;
+  }
+
+  public boolean isBackfillFileAttributes() {
+    return backfillFileAttributes;
+  }
+
+  /**
+   * Force every file copied into the gallery to disk before its photo is added, so a crash cannot leave a photo whose
+   * file is incomplete. Off by default, as it makes imports considerably slower. Renames are not affected.
+   *
+   * @param sync whether to force copies to disk
+   * @return this settings instance
+   */
+  public GallerySettings syncTransfers(boolean sync) {
+    this.syncTransfers = sync;
+    return this;
+  }
+
+  public boolean isSyncTransfers() {
+    return syncTransfers;
+  }
+
+  /**
+   * Generate thumbnails of added photos in the background and keep them in a cache directory inside the gallery,
+   * deleting the least recently used ones once the cache exceeds {@code capacity} bytes. Pass 0 to disable
+   * thumbnails. Defaults to 256 MiB.
+   *
+   * @param capacity the size of the thumbnail cache in bytes
+   * @return this settings instance
+   */
+  public GallerySettings thumbnailCache(long capacity) {
+    if (capacity < 0)
+      throw new IllegalArgumentException("Thumbnail cache capacity must not be negative");
+    this.thumbnailCacheCapacity = capacity;
+    return this;
+  }
+
+  public boolean isThumbnails() {
+    return thumbnailCacheCapacity > 0;
+  }
+
+  public long thumbnailCacheCapacity() {
+    return thumbnailCacheCapacity;
   }
 
   public GallerySettings galleryPath(Path path) {
@@ -37,7 +159,8 @@ public class GallerySettings {
   public enum StorageType {
     SQLITE,
     H2,
-    JSON
+    JSON,
+    BINARY
   }
 
 }
@@ -0,0 +1,127 @@
+package org.goodgallery.gallery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The container format of an image file, recognised from the signature in its first bytes instead of the platform's
+ * file type detectors. Camera raw formats built on TIFF share its signature, those without one of their own are told
+ * apart by file extension.
+ */
+public enum ImageFormat {
+
+  JPEG("image/jpeg", false),
+  PNG("image/png", false),
+  GIF("image/gif", false),
+  WEBP("image/webp", false),
+  HEIC("image/heic", false),
+  AVIF("image/avif", false),
+  TIFF("image/tiff", false),
+  BMP("image/bmp", false),
+  CR2("image/x-canon-cr2", true),
+  CR3("image/x-canon-cr3", true),
+  NEF("image/x-nikon-nef", true),
+  ARW("image/x-sony-arw", true),
+  DNG("image/x-adobe-dng", true),
+  ORF("image/x-olympus-orf", true),
+  RW2("image/x-panasonic-rw2", true),
+  RAF("image/x-fuji-raf", true);
+
+  private static final int HEADER_SIZE = 32;
+
+  private final String mimeType;
+  private final boolean raw;
+
+  ImageFormat(String mimeType, boolean raw) {
+    this.mimeType = mimeType;
+    this.raw = raw;
+  }
+
+  public String mimeType() {
+    return mimeType;
+  }
+
+  public boolean isRaw() {
+    return raw;
+  }
+
+  /**
+   * Reads the first bytes of the file and returns its format, or an empty optional when it is not a known image.
+   */
+  public static Optional<ImageFormat> sniff(Path file) throws IOException {
+    byte[] header;
+    try (InputStream in = Files.newInputStream(file)) {
+      header = in.readNBytes(HEADER_SIZE);
+    }
+    Path fileName = file.getFileName();
+    return Optional.ofNullable(detect(header, fileName == null ? "" : fileName.toString()));
+  }
+
+  static ImageFormat detect(byte[] header, String fileName) {
+    if (startsWith(header, 0, 0xFF, 0xD8, 0xFF))
+      return JPEG;
+    if (startsWith(header, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A))
+      return PNG;
+    if (startsWith(header, 0, "GIF87a") || startsWith(header, 0, "GIF89a"))
+      return GIF;
+    if (startsWith(header, 0, "RIFF") && startsWith(header, 8, "WEBP"))
+      return WEBP;
+    // The four reserved bytes after the file size are always zero
+    if (startsWith(header, 0, "BM") && startsWith(header, 6, 0, 0, 0, 0))
+      return BMP;
+    if (startsWith(header, 0, "FUJIFILMCCD-RAW"))
+      return RAF;
+    if (startsWith(header, 4, "ftyp"))
+      return isoBrand(new String(header, 8, Math.min(4, header.length - 8), StandardCharsets.US_ASCII));
+    if (startsWith(header, 0, "IIRO") || startsWith(header, 0, "IIRS") || startsWith(header, 0, "MMOR"))
+      return ORF;
+    if (startsWith(header, 0, 'I', 'I', 'U', 0))
+      return RW2;
+    if (startsWith(header, 0, 'I', 'I', '*', 0) || startsWith(header, 0, 'M', 'M', 0, '*')) {
+      if (startsWith(header, 8, 'C', 'R', 0x02))
+        return CR2;
+      return tiffRaw(fileName);
+    }
+    return null;
+  }
+
+  private static ImageFormat isoBrand(String brand) {
+    return switch (brand) {
+      case "heic", "heix", "hevc", "hevx", "heim", "heis", "mif1", "msf1" -> HEIC;
+      case "avif", "avis" -> AVIF;
+      case "crx " -> CR3;
+      default -> null;
+    };
+  }
+
+  private static ImageFormat tiffRaw(String fileName) {
+    int extensionStart = fileName.lastIndexOf('.');
+    String extension = extensionStart < 0 ? "" : fileName.substring(extensionStart + 1).toLowerCase(Locale.ROOT);
+    return switch (extension) {
+      case "nef", "nrw" -> NEF;
+      case "arw", "sr2", "srf" -> ARW;
+      case "dng" -> DNG;
+      default -> TIFF;
+    };
+  }
+
+  private static boolean startsWith(byte[] header, int offset, String signature) {
+    return startsWith(header, offset, signature.chars().toArray());
+  }
+
+  private static boolean startsWith(byte[] header, int offset, int... signature) {
+    if (header.length < offset + signature.length)
+      return false;
+    byte[] expected = new byte[signature.length];
+    for (int i = 0; i < signature.length; i++)
+      expected[i] = (byte) signature[i];
+    return Arrays.equals(header, offset, offset + signature.length, expected, 0, expected.length);
+  }
+
+}
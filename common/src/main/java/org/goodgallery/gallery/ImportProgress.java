@@ -0,0 +1,28 @@
+package org.goodgallery.gallery;
+
+import java.time.Duration;
+
+/**
+ * How far a directory import has come. Files are counted once they were copied, skipped or failed, copied photos are
+ * only added to the gallery once their batch is committed.
+ */
+public record ImportProgress(int found, int copied, int skipped, int failed, Duration elapsed) {
+
+  public int processed() {
+    return copied + skipped + failed;
+  }
+
+  /**
+   * Files processed per second so far.
+   */
+  public double throughput() {
+    long millis = elapsed.toMillis();
+    return millis == 0 ? 0 : processed() * 1000.0 / millis;
+  }
+
+  public String describe() {
+    return "%d/%d files processed (%d copied, %d skipped, %d failed), %.1f files/s"
+      .formatted(processed(), found, copied, skipped, failed, throughput());
+  }
+
+}
@@ -0,0 +1,31 @@
+package org.goodgallery.gallery;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a directory import. Files that are not images, whose name is already taken in the gallery or whose
+ * content is already stored are skipped, files that could not be copied or added are reported in {@link #failures()}
+ * together with the cause.
+ */
+public record ImportReport(List<Photo> imported, int skipped, Map<Path, Exception> failures, Duration elapsed) {
+
+  public ImportReport(List<Photo> imported, int skipped, Map<Path, Exception> failures, Duration elapsed) {
+    this.imported = Collections.unmodifiableList(imported);
+    this.skipped = skipped;
+    this.failures = Collections.unmodifiableMap(failures);
+    this.elapsed = elapsed;
+  }
+
+  public List<String> describe() {
+    List<String> lines = new ArrayList<>(failures.size() + 1);
+    lines.add("Imported %d photos in %d ms, %d skipped, %d failed".formatted(imported.size(), elapsed.toMillis(), skipped, failures.size()));
+    failures.forEach((path, cause) -> lines.add(" %s: %s".formatted(path, cause.getMessage())));
+    return lines;
+  }
+
+}
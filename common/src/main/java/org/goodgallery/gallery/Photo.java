@@ -13,7 +13,8 @@ import java.util.UUID;
 public final class Photo extends GalleryItem {
 
   private static final PropertyKey<?>[] DEFAULT_KEYS = {
-    Properties.PATH_KEY, Properties.NAME_KEY, Properties.CREATION_TIMESTAMP_KEY
+    Properties.PATH_KEY, Properties.NAME_KEY, Properties.CREATION_TIMESTAMP_KEY, Properties.MODIFIED_TIMESTAMP_KEY,
+    Properties.FILE_SIZE_KEY, Properties.CONTENT_HASH_KEY, Properties.IMAGE_FORMAT_KEY
   };
 
   public Photo(UUID uniqueId, SerializedProperties serializedProperties) {
@@ -32,4 +33,20 @@ public final class Photo extends GalleryItem {
     return getPath().map(Path::getFileName).map(Path::toString);
   }
 
+  public Optional<Long> getFileSize() {
+    return getPropertyValue(Properties.FILE_SIZE_KEY);
+  }
+
+  public Optional<Long> getModifiedTimestamp() {
+    return getPropertyValue(Properties.MODIFIED_TIMESTAMP_KEY);
+  }
+
+  public Optional<String> getContentHash() {
+    return getPropertyValue(Properties.CONTENT_HASH_KEY);
+  }
+
+  public Optional<ImageFormat> getImageFormat() {
+    return getPropertyValue(Properties.IMAGE_FORMAT_KEY);
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,334 @@
+package org.goodgallery.gallery;
+
+import org.goodgallery.gallery.data.GalleryEvent;
+import org.goodgallery.gallery.data.GalleryListener;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * A cache of photo thumbnails inside the gallery, generated in the background and evicted least recently used first.
+ */
+final class ThumbnailService implements GalleryListener, AutoCloseable {
+
+  private static final String DIRECTORY_NAME = ".thumbnails";
+  private static final String EXTENSION = ".jpg";
+  // Eviction frees a little more than needed, so it does not run again for every new thumbnail
+  private static final double EVICTION_TARGET = 0.9;
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+  private static final int LARGEST_EDGE = Arrays.stream(ThumbnailSize.values()).mapToInt(ThumbnailSize::maxEdge).max().orElseThrow();
+  // Decoded at no less than twice the largest edge, so the halving steps of scale() still smooth what subsampling skipped
+  private static final int DECODE_EDGE = LARGEST_EDGE * 2;
+
+  private final Path directory;
+  private final long capacity;
+  private final ExecutorService workers;
+  private final Map<UUID, CompletableFuture<Boolean>> generations = new ConcurrentHashMap<>();
+  // Whether ImageIO has a reader for a format, so photos that cannot be decoded are not read again on every request
+  private final Map<ImageFormat, Boolean> decodableFormats = new ConcurrentHashMap<>();
+  // Approximate between evictions, every eviction replaces it with the measured size
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder generated = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder generationNanos = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  ThumbnailService(Path galleryPath, long capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("Thumbnail cache capacity must be at least 1 byte");
+    this.directory = galleryPath.resolve(DIRECTORY_NAME);
+    this.capacity = capacity;
+    // Decoding and scaling are CPU bound, half the cores leaves room for everything else
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    this.workers = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("GoodGallery-Thumbnails-", 0).daemon().factory());
+  }
+
+  void start() {
+    workers.execute(() -> {
+      try {
+        size.addAndGet(entries().stream().mapToLong(Entry::size).sum());
+        evictIfFull();
+      } catch (IOException | UncheckedIOException exception) {
+        System.out.println("Failed to measure thumbnail cache at \"%s\"".formatted(directory));
+        exception.printStackTrace(System.out);
+      }
+    });
+  }
+
+  @Override
+  public void close() {
+    workers.shutdownNow();
+    try {
+      if (!workers.awaitTermination(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+        System.out.println("Thumbnail workers did not stop within " + CLOSE_TIMEOUT.toSeconds() + " seconds");
+    } catch (InterruptedException _) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The thumbnail of a photo, generated first when it is not cached. Empty when the photo has no file or its format
+   * cannot be decoded, such as HEIC and camera raw files.
+   */
+  Optional<Path> get(Photo photo, ThumbnailSize thumbnailSize) {
+    if (!isDecodable(photo))
+      return Optional.empty();
+    Path thumbnail = path(photo.getUniqueId(), thumbnailSize);
+    if (Files.exists(thumbnail)) {
+      hits.increment();
+      try {
+        Files.setLastModifiedTime(thumbnail, FileTime.from(Instant.now()));
+      } catch (IOException _) {
+        // Evicted meanwhile, or not writable, either way the thumbnail is still worth returning
+      }
+      return Optional.of(thumbnail);
+    }
+    misses.increment();
+    return generate(photo, true).join() && Files.exists(thumbnail) ? Optional.of(thumbnail) : Optional.empty();
+  }
+
+  ThumbnailStats stats() {
+    return new ThumbnailStats(hits.sum(), misses.sum(), generated.sum(), failed.sum(), Duration.ofNanos(generationNanos.sum()),
+      evictions.sum(), size.get(), capacity);
+  }
+
+  @Override
+  public void onEvents(List<GalleryEvent> events) {
+    for (GalleryEvent event : events) {
+      if (!(event.galleryItem() instanceof Photo photo))
+        continue;
+      switch (event.type()) {
+        case ADDED -> generate(photo, false);
+        case REMOVED -> delete(photo.getUniqueId());
+        case CHANGED -> {
+        }
+      }
+    }
+  }
+
+  // Joins a generation of the photo that is already running or queued
+  private CompletableFuture<Boolean> generate(Photo photo, boolean inline) {
+    CompletableFuture<Boolean> generation = new CompletableFuture<>();
+    CompletableFuture<Boolean> running = generations.putIfAbsent(photo.getUniqueId(), generation);
+    if (running != null)
+      return running;
+    Runnable task = () -> {
+      try {
+        generation.complete(write(photo));
+      } catch (RuntimeException exception) {
+        // Such as an image too large to decode, callers waiting on the generation must still be released
+        failed.increment();
+        System.out.println("Failed to generate thumbnails for photo " + photo);
+        exception.printStackTrace(System.out);
+        generation.complete(false);
+      } finally {
+        generations.remove(photo.getUniqueId(), generation);
+      }
+    };
+    if (inline) {
+      task.run();
+    } else {
+      try {
+        workers.execute(task);
+      } catch (RejectedExecutionException _) {
+        // Closing, the thumbnails are generated when first asked for
+        generations.remove(photo.getUniqueId(), generation);
+        generation.complete(false);
+      }
+    }
+    return generation;
+  }
+
+  // Photos added before their format was detected are tried, their format is filled in by FileAttributeBackfill
+  private boolean isDecodable(Photo photo) {
+    return photo.getImageFormat()
+      .map(format -> decodableFormats.computeIfAbsent(format, _ -> !format.isRaw() && ImageIO.getImageReadersByMIMEType(format.mimeType()).hasNext()))
+      .orElse(true);
+  }
+
+  private boolean write(Photo photo) {
+    Optional<Path> original = photo.getPath();
+    if (original.isEmpty() || !isDecodable(photo))
+      return false;
+    long start = System.nanoTime();
+    try {
+      BufferedImage image = read(original.get());
+      if (image == null) {
+        failed.increment();
+        return false;
+      }
+      // Largest first, every size is scaled down from the one before
+      ThumbnailSize[] sizes = ThumbnailSize.values();
+      for (int i = sizes.length - 1; i >= 0; i--) {
+        image = scale(image, sizes[i].maxEdge());
+        Path thumbnail = path(photo.getUniqueId(), sizes[i]);
+        Files.createDirectories(thumbnail.getParent());
+        // Written aside and renamed, so a reader never sees a partial thumbnail
+        Path temporary = thumbnail.resolveSibling(thumbnail.getFileName() + ".tmp");
+        long previousSize = Files.exists(thumbnail) ? Files.size(thumbnail) : 0;
+        try {
+          if (!ImageIO.write(image, "jpg", temporary.toFile()))
+            throw new IOException("No JPEG writer available");
+          Files.move(temporary, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException exception) {
+          Files.deleteIfExists(temporary);
+          throw exception;
+        }
+        size.addAndGet(Files.size(thumbnail) - previousSize);
+      }
+      generated.increment();
+      generationNanos.add(System.nanoTime() - start);
+    } catch (IOException exception) {
+      failed.increment();
+      System.out.println("Failed to generate thumbnails for \"%s\"".formatted(original.get()));
+      exception.printStackTrace(System.out);
+      return false;
+    }
+    evictIfFull();
+    return true;
+  }
+
+  // Subsampled while decoding, so a large original is never held in memory at full resolution
+  private static BufferedImage read(Path original) throws IOException {
+    try (ImageInputStream input = ImageIO.createImageInputStream(original.toFile())) {
+      Iterator<ImageReader> readers = input == null ? Collections.emptyIterator() : ImageIO.getImageReaders(input);
+      if (!readers.hasNext())
+        return null;
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        int subsampling = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / DECODE_EDGE);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  private void delete(UUID uniqueId) {
+    for (ThumbnailSize thumbnailSize : ThumbnailSize.values()) {
+      Path thumbnail = path(uniqueId, thumbnailSize);
+      try {
+        long thumbnailBytes = Files.exists(thumbnail) ? Files.size(thumbnail) : 0;
+        if (Files.deleteIfExists(thumbnail))
+          size.addAndGet(-thumbnailBytes);
+      } catch (IOException exception) {
+        System.out.println("Failed to delete thumbnail \"%s\"".formatted(thumbnail));
+        exception.printStackTrace(System.out);
+      }
+    }
+  }
+
+  private void evictIfFull() {
+    if (size.get() <= capacity || !evicting.compareAndSet(false, true))
+      return;
+    try {
+      List<Entry> entries = entries();
+      entries.sort(Comparator.comparing(Entry::lastModified));
+      long total = entries.stream().mapToLong(Entry::size).sum();
+      long target = (long) (capacity * EVICTION_TARGET);
+      for (Entry entry : entries) {
+        if (total <= target)
+          break;
+        if (Files.deleteIfExists(entry.path())) {
+          total -= entry.size();
+          evictions.increment();
+        }
+      }
+      size.set(total);
+    } catch (IOException | UncheckedIOException exception) {
+      System.out.println("Failed to evict thumbnails from \"%s\"".formatted(directory));
+      exception.printStackTrace(System.out);
+    } finally {
+      evicting.set(false);
+    }
+  }
+
+  private List<Entry> entries() throws IOException {
+    if (!Files.isDirectory(directory))
+      return new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (!file.getFileName().toString().endsWith(EXTENSION))
+          continue;
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.isRegularFile())
+          entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime()));
+      }
+    }
+    return entries;
+  }
+
+  private Path path(UUID uniqueId, ThumbnailSize thumbnailSize) {
+    String name = uniqueId.toString();
+    return directory.resolve(thumbnailSize.directoryName()).resolve(name.substring(0, 2)).resolve(name + EXTENSION);
+  }
+
+  // Halves step by step, a single large bilinear step would alias away detail
+  private static BufferedImage scale(BufferedImage image, int maxEdge) {
+    double factor = Math.min(1.0, (double) maxEdge / Math.max(image.getWidth(), image.getHeight()));
+    int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+    int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+    BufferedImage current = image;
+    do {
+      int stepWidth = Math.max(width, current.getWidth() / 2);
+      int stepHeight = Math.max(height, current.getHeight() / 2);
+      BufferedImage step = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = step.createGraphics();
+      try {
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(current, 0, 0, stepWidth, stepHeight, Color.WHITE, null);
+      } finally {
+        graphics.dispose();
+      }
+      current = step;
+    } while (current.getWidth() != width || current.getHeight() != height);
+    return current;
+  }
+
+  private record Entry(Path path, long size, FileTime lastModified) {
+  }
+
+}
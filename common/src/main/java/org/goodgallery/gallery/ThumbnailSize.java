@@ -0,0 +1,29 @@
+package org.goodgallery.gallery;
+
+import java.util.Locale;
+
+/**
+ * The standard thumbnail sizes, by the length of the longer edge in pixels. Thumbnails are never larger than the
+ * original.
+ */
+public enum ThumbnailSize {
+
+  SMALL(128),
+  MEDIUM(512),
+  LARGE(1024);
+
+  private final int maxEdge;
+
+  ThumbnailSize(int maxEdge) {
+    this.maxEdge = maxEdge;
+  }
+
+  public int maxEdge() {
+    return maxEdge;
+  }
+
+  String directoryName() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+
+}
@@ -0,0 +1,31 @@
+package org.goodgallery.gallery;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Counters of the thumbnail cache. A photo counts as generated once all its sizes were written, generation time
+ * covers decoding the original and writing every size.
+ */
+public record ThumbnailStats(long hits, long misses, long generated, long failed, Duration generationTime,
+                             long evictions, long size, long capacity) {
+
+  public double hitRate() {
+    long requests = hits + misses;
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  public Duration averageGenerationTime() {
+    return generated == 0 ? Duration.ZERO : generationTime.dividedBy(generated);
+  }
+
+  public List<String> describe() {
+    return List.of(
+      "Thumbnail cache: %.1f/%.1f MB".formatted(size / 1e6, capacity / 1e6),
+      " hits: %d, misses: %d (%.1f%% hit rate)".formatted(hits, misses, hitRate() * 100),
+      " generated: %d (%d ms average), failed: %d".formatted(generated, averageGenerationTime().toMillis(), failed),
+      " evictions: %d".formatted(evictions)
+    );
+  }
+
+}
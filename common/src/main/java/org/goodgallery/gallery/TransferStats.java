@@ -0,0 +1,38 @@
+package org.goodgallery.gallery;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Counters of the files moved and copied into the gallery. Times include hashing the content.
+ */
+public record TransferStats(long moves, long movedBytes, Duration moveTime, long copies, long copiedBytes, Duration copyTime) {
+
+  /**
+   * Bytes moved per second, moves on the same filesystem only rename the file and hash its content.
+   */
+  public double moveThroughput() {
+    return throughput(movedBytes, moveTime);
+  }
+
+  /**
+   * Bytes copied per second.
+   */
+  public double copyThroughput() {
+    return throughput(copiedBytes, copyTime);
+  }
+
+  private static double throughput(long bytes, Duration time) {
+    long nanos = time.toNanos();
+    return nanos == 0 ? 0 : bytes * 1_000_000_000.0 / nanos;
+  }
+
+  public List<String> describe() {
+    return List.of(
+      "File transfers:",
+      " moved: %d files, %.1f MB in %d ms (%.1f MB/s)".formatted(moves, movedBytes / 1e6, moveTime.toMillis(), moveThroughput() / 1e6),
+      " copied: %d files, %.1f MB in %d ms (%.1f MB/s)".formatted(copies, copiedBytes / 1e6, copyTime.toMillis(), copyThroughput() / 1e6)
+    );
+  }
+
+}
@@ -4,27 +4,75 @@ import org.goodgallery.gallery.Album;
 import org.goodgallery.gallery.GalleryItem;
 import org.goodgallery.gallery.Group;
 import org.goodgallery.gallery.Photo;
+import org.goodgallery.gallery.properties.PersistentSet;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.goodgallery.gallery.properties.PropertyInstance;
+import org.goodgallery.gallery.properties.PropertyKey;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public abstract class AbstractGalleryData implements GalleryData {
 
+  private static final int SPINNING_SNAPSHOT_ATTEMPTS = 4;
+  private static final long MAX_SNAPSHOT_BACKOFF_NANOS = 1_000_000;
+  private static final int MAX_PENDING_EVENTS = 65_536;
+  private static final int MEMBERSHIP_LOCK_STRIPES = 64;
+
   protected final Path path;
 
   protected final Map<UUID, Photo> photosByUUID;
   protected final Map<UUID, Album> albumsByUUID;
   protected final Map<UUID, Group> groupsByUUID;
 
+  private final PropertyIndex<String> photoNames = new PropertyIndex<>();
+  private final PropertyIndex<Path> photoPaths = new PropertyIndex<>(path -> path.toAbsolutePath().normalize());
+  private final PropertyIndex<String> photoHashes = new PropertyIndex<>();
+  private final PropertyIndex<String> albumNames = new PropertyIndex<>();
+  private final PropertyIndex<String> groupNames = new PropertyIndex<>();
+  private final MembershipIndex albumsByPhoto = new MembershipIndex();
+  private final MembershipIndex groupsByAlbum = new MembershipIndex();
+  private final TimelineIndex photoTimeline = new TimelineIndex();
+  private final Object[] membershipLocks = new Object[MEMBERSHIP_LOCK_STRIPES];
+  private final NameTrie photoNameTrie = new NameTrie();
+  private final NameTrie albumNameTrie = new NameTrie();
+  private final NameTrie groupNameTrie = new NameTrie();
+
+  // Bumped when a change to the items or their membership completes, snapshots are only rebuilt once it moved
+  private final AtomicLong version = new AtomicLong();
+  private final AtomicInteger activeWrites = new AtomicInteger();
+  private volatile GallerySnapshot snapshot;
+
+  private final EventBus eventBus = new EventBus(MAX_PENDING_EVENTS);
+  private WriteBehindQueue writeBehindQueue;
+  private ItemCache itemCache;
+  // This backend itself, set together with itemCache
+  private LazyItemSource lazyItemSource;
+  protected int loadWorkers = 1;
+  protected volatile LoadReport loadReport = LoadReport.EMPTY;
+
   protected AbstractGalleryData(Path path) {
     this.path = path;
-    this.photosByUUID = new ConcurrentHashMap<>();
-    this.albumsByUUID = new ConcurrentHashMap<>();
-    this.groupsByUUID = new ConcurrentHashMap<>();
+    this.photosByUUID = new UUIDMap<>();
+    this.albumsByUUID = new UUIDMap<>();
+    this.groupsByUUID = new UUIDMap<>();
+    for (int stripe = 0; stripe < membershipLocks.length; stripe++)
+      membershipLocks[stripe] = new Object();
   }
 
   public abstract void load();
@@ -33,9 +81,532 @@ public abstract class AbstractGalleryData implements GalleryData {
 
   protected abstract void delete(GalleryItem galleryItem);
 
+  protected abstract <T extends GalleryItem> BatchResult<T> insertAll(Collection<T> galleryItems);
+
+  protected abstract <T extends GalleryItem> BatchResult<T> deleteAll(Collection<T> galleryItems);
+
+  protected abstract void persistProperty(GalleryItem galleryItem, PropertyInstance<?> property);
+
+  /**
+   * Fetches the photos created in a range of the timeline when items are loaded lazily and not indexed. By default
+   * every photo is scanned, backends that can query creation timestamps directly override this.
+   */
+  protected List<Photo> fetchPhotosCreatedBetween(long from, long to) {
+    List<Photo> photos = new ArrayList<>();
+    for (Photo photo : getPhotos()) {
+      TimelinePosition position = TimelinePosition.of(photo);
+      if (position != null && position.timestamp() >= from && position.timestamp() < to)
+        photos.add(photo);
+    }
+    photos.sort(Comparator.comparing(TimelinePosition::of));
+    return photos;
+  }
+
+  /**
+   * Fetches a page of the timeline, newest first, when items are loaded lazily and not indexed. By default every photo
+   * is scanned, backends that can query creation timestamps directly override this.
+   */
+  protected List<Photo> fetchPhotosCreatedBefore(TimelinePosition before, int limit) {
+    List<Photo> photos = new ArrayList<>();
+    for (Photo photo : getPhotos()) {
+      TimelinePosition position = TimelinePosition.of(photo);
+      if (position != null && (before == null || position.compareTo(before) < 0))
+        photos.add(photo);
+    }
+    photos.sort(Comparator.comparing(TimelinePosition::of, Comparator.reverseOrder()));
+    return new ArrayList<>(photos.subList(0, Math.min(limit, photos.size())));
+  }
+
+  protected void persistProperties(List<PropertyUpdate> updates) {
+    for (PropertyUpdate update : updates)
+      persistProperty(update.galleryItem(), update.property());
+  }
+
+  /**
+   * Stop keeping every item in memory. Items are fetched from storage when first looked up and kept in a cache of at
+   * most {@code cacheCapacity} items, and listing all items pages through storage. Must be called before
+   * {@link #load()}.
+   */
+  public void enableLazyLoading(int cacheCapacity) {
+    if (!(this instanceof LazyItemSource source))
+      throw new UnsupportedOperationException("%s does not support lazy loading".formatted(getClass().getSimpleName()));
+    if (itemCache != null)
+      throw new IllegalStateException("Lazy loading has already been enabled");
+    itemCache = new ItemCache(cacheCapacity);
+    lazyItemSource = source;
+  }
+
+  protected boolean isLazy() {
+    return itemCache != null;
+  }
+
+  public Optional<CacheStats> getCacheStats() {
+    return Optional.ofNullable(itemCache).map(ItemCache::stats);
+  }
+
+  public void enableWriteBehind(int maxPendingWrites, Duration maxDelay) {
+    if (writeBehindQueue != null)
+      throw new IllegalStateException("Write-behind has already been enabled");
+    writeBehindQueue = new WriteBehindQueue(maxPendingWrites, maxDelay, this::persistProperties);
+  }
+
+  /**
+   * Spread {@link #load()} across {@code workers} threads on backends that support it.
+   */
+  public void loadWorkers(int workers) {
+    if (workers < 1)
+      throw new IllegalArgumentException("Load workers must be at least 1");
+    this.loadWorkers = workers;
+  }
+
+  public LoadReport getLoadReport() {
+    return loadReport;
+  }
+
+  /**
+   * Notify {@code listener} of items added, removed and changed from now on. Events are delivered asynchronously in
+   * coalesced batches, see {@link GalleryListener}.
+   */
+  public void addListener(GalleryListener listener) {
+    eventBus.subscribe(listener);
+  }
+
+  public void removeListener(GalleryListener listener) {
+    eventBus.unsubscribe(listener);
+  }
+
+  public EventStats getEventStats() {
+    return eventBus.stats();
+  }
+
+  @Override
+  public void updateProperty(GalleryItem galleryItem, PropertyInstance<?> property) {
+    if (itemCache == null && isIndexed(property.key())) {
+      beginWrite();
+      try {
+        index(galleryItem);
+      } finally {
+        endWrite();
+      }
+    }
+    if (writeBehindQueue != null)
+      writeBehindQueue.enqueue(galleryItem, property);
+    else
+      persistProperty(galleryItem, property);
+    eventBus.publish(GalleryEvent.changed(galleryItem, property.key()));
+  }
+
+  @Override
+  public void updateProperties(List<PropertyUpdate> updates) {
+    if (itemCache == null) {
+      beginWrite();
+      try {
+        for (PropertyUpdate update : updates)
+          if (isIndexed(update.property().key()))
+            index(update.galleryItem());
+      } finally {
+        endWrite();
+      }
+    }
+    if (writeBehindQueue != null)
+      for (PropertyUpdate update : updates)
+        writeBehindQueue.enqueue(update.galleryItem(), update.property());
+    else if (!updates.isEmpty())
+      persistProperties(updates);
+    for (PropertyUpdate update : updates)
+      eventBus.publish(GalleryEvent.changed(update.galleryItem(), update.property().key()));
+  }
+
+  private static boolean isIndexed(PropertyKey<?> key) {
+    return key == Properties.NAME_KEY || key == Properties.PATH_KEY || key == Properties.PHOTOS_KEY
+      || key == Properties.ALBUMS_KEY || key == Properties.CREATION_TIMESTAMP_KEY || key == Properties.CONTENT_HASH_KEY;
+  }
+
+  @Override
+  public <T extends GalleryItem> void addMember(GalleryItem owner, PropertyKey<Set<T>> key, T member) {
+    updateMembership(owner, key, member, true);
+  }
+
+  @Override
+  public <T extends GalleryItem> void removeMember(GalleryItem owner, PropertyKey<Set<T>> key, T member) {
+    updateMembership(owner, key, member, false);
+  }
+
+  // The set, the index and storage change under the owner's lock, so concurrent changes to one owner never lose each other
+  private <T extends GalleryItem> void updateMembership(GalleryItem owner, PropertyKey<Set<T>> key, T member, boolean add) {
+    synchronized (membershipLocks[Math.floorMod(owner.getUniqueId().hashCode(), membershipLocks.length)]) {
+      PropertyInstance<Set<T>> property = ((PropertiesImpl) owner.getProperties()).get(key);
+      PersistentSet<T> members = PersistentSet.copyOf(property.value().orElse(Set.of()));
+      PersistentSet<T> updated = add ? members.with(member) : members.without(member);
+      if (updated == members)
+        return;
+      MembershipIndex membershipIndex = getMembershipIndex(owner);
+      // The set is replaced as part of the write, so a snapshot never pairs it with a version from before the change
+      beginWrite();
+      try {
+        property.value(updated);
+        if (membershipIndex != null) {
+          if (add)
+            membershipIndex.add(owner.getUniqueId(), member.getUniqueId());
+          else
+            membershipIndex.remove(owner.getUniqueId(), member.getUniqueId());
+        }
+      } finally {
+        endWrite();
+      }
+      persistMember(owner, key, member, add);
+    }
+    eventBus.publish(GalleryEvent.changed(owner, key));
+  }
+
+  private MembershipIndex getMembershipIndex(GalleryItem owner) {
+    if (itemCache != null)
+      return null;
+    return switch (owner) {
+      case Album _ -> albumsByPhoto;
+      case Group _ -> groupsByAlbum;
+      case Photo _ -> null;
+    };
+  }
+
+  @Override
+  public Collection<Album> getAlbumsContaining(Photo photo) {
+    List<UUID> owners = itemCache == null ? albumsByPhoto.owners(photo.getUniqueId()) : findCurrentOwners(Album.class, photo.getUniqueId());
+    return owners.stream().map(this::getAlbum).flatMap(Optional::stream).toList();
+  }
+
+  @Override
+  public Collection<Group> getGroupsContaining(Album album) {
+    List<UUID> owners = itemCache == null ? groupsByAlbum.owners(album.getUniqueId()) : findCurrentOwners(Group.class, album.getUniqueId());
+    return owners.stream().map(this::getGroup).flatMap(Optional::stream).toList();
+  }
+
+  private List<UUID> findCurrentOwners(Class<? extends GalleryItem> ownerType, UUID member) {
+    flushPendingUpdates();
+    return findOwners(ownerType, member);
+  }
+
+  /**
+   * Finds the albums or groups that contain {@code member} when items are loaded lazily and not indexed. By default
+   * every owner is scanned, backends that can query membership directly override this.
+   */
+  protected List<UUID> findOwners(Class<? extends GalleryItem> ownerType, UUID member) {
+    Collection<? extends GalleryItem> owners = ownerType == Album.class ? getAlbums() : getGroups();
+    List<UUID> matches = new ArrayList<>();
+    for (GalleryItem owner : owners)
+      if (getMemberIds(owner).contains(member))
+        matches.add(owner.getUniqueId());
+    return matches;
+  }
+
+  private Set<UUID> getMemberIds(GalleryItem owner) {
+    Collection<? extends GalleryItem> members = switch (owner) {
+      case Album album -> album.getPhotos();
+      case Group group -> group.getAlbums();
+      case Photo _ -> List.of();
+    };
+    Set<UUID> memberIds = new HashSet<>(members.size() * 2);
+    for (GalleryItem member : members)
+      memberIds.add(member.getUniqueId());
+    return memberIds;
+  }
+
+  /**
+   * Removes a photo from the albums that contain it, or an album from its groups, before it is deleted.
+   */
+  private void detach(GalleryItem galleryItem) {
+    switch (galleryItem) {
+      case Photo photo -> {
+        for (Album album : getAlbumsContaining(photo))
+          removeMember(album, Properties.PHOTOS_KEY, photo);
+      }
+      case Album album -> {
+        for (Group group : getGroupsContaining(album))
+          removeMember(group, Properties.ALBUMS_KEY, album);
+      }
+      case Group _ -> {
+      }
+    }
+  }
+
+  /**
+   * Persists a single membership change. By default the whole membership property is rewritten, backends that store
+   * membership relationally override this to touch only the affected row.
+   */
+  protected <T extends GalleryItem> void persistMember(GalleryItem owner, PropertyKey<Set<T>> key, T member, boolean added) {
+    updateProperty(owner, ((PropertiesImpl) owner.getProperties()).get(key));
+  }
+
+  @Override
+  public void flush() {
+    if (writeBehindQueue != null)
+      writeBehindQueue.flush();
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (writeBehindQueue != null)
+        writeBehindQueue.close();
+    } finally {
+      eventBus.close();
+    }
+  }
+
+  private void discardPendingUpdates(GalleryItem galleryItem) {
+    if (writeBehindQueue != null)
+      writeBehindQueue.discard(galleryItem.getUniqueId());
+  }
+
+  private void store(GalleryItem galleryItem) {
+    if (itemCache != null) {
+      itemCache.put(galleryItem);
+      eventBus.publish(GalleryEvent.added(galleryItem));
+      return;
+    }
+    beginWrite();
+    try {
+      switch (galleryItem) {
+        case Photo photo -> photosByUUID.put(photo.getUniqueId(), photo);
+        case Album album -> albumsByUUID.put(album.getUniqueId(), album);
+        case Group group -> groupsByUUID.put(group.getUniqueId(), group);
+      }
+      index(galleryItem);
+    } finally {
+      endWrite();
+    }
+    eventBus.publish(GalleryEvent.added(galleryItem));
+  }
+
+  private void evict(GalleryItem galleryItem) {
+    if (itemCache != null) {
+      itemCache.remove(galleryItem.getUniqueId());
+      eventBus.publish(GalleryEvent.removed(galleryItem));
+      return;
+    }
+    beginWrite();
+    try {
+      switch (galleryItem) {
+        case Photo photo -> photosByUUID.remove(photo.getUniqueId());
+        case Album album -> albumsByUUID.remove(album.getUniqueId());
+        case Group group -> groupsByUUID.remove(group.getUniqueId());
+      }
+      unindex(galleryItem);
+    } finally {
+      endWrite();
+    }
+    eventBus.publish(GalleryEvent.removed(galleryItem));
+  }
+
+  private void beginWrite() {
+    activeWrites.incrementAndGet();
+  }
+
+  // The version moves before the write stops counting as active, so a snapshot that saw no active writes also sees it
+  private void endWrite() {
+    version.incrementAndGet();
+    activeWrites.decrementAndGet();
+  }
+
+  @Override
+  public GallerySnapshot snapshot() {
+    if (itemCache != null)
+      throw new UnsupportedOperationException("Snapshots are not available while items are loaded lazily");
+    GallerySnapshot current = snapshot;
+    if (current != null && current.version() == version.get())
+      return current;
+
+    // Copy without locking and keep the copy only if no write was running or completed meanwhile. Writers are never held
+    // up, a snapshot that keeps racing with them backs off and tries again instead
+    long backoffNanos = 1_000;
+    for (int attempt = 0; ; attempt++) {
+      long startVersion = version.get();
+      if (activeWrites.get() == 0) {
+        GallerySnapshot copy = copySnapshot(startVersion);
+        if (activeWrites.get() == 0 && version.get() == startVersion)
+          return snapshot = copy;
+      }
+      if (attempt < SPINNING_SNAPSHOT_ATTEMPTS) {
+        Thread.onSpinWait();
+      } else {
+        LockSupport.parkNanos(backoffNanos);
+        backoffNanos = Math.min(backoffNanos * 2, MAX_SNAPSHOT_BACKOFF_NANOS);
+      }
+    }
+  }
+
+  private GallerySnapshot copySnapshot(long version) {
+    List<Photo> photos = List.copyOf(photosByUUID.values());
+    List<Album> albums = List.copyOf(albumsByUUID.values());
+    List<Group> groups = List.copyOf(groupsByUUID.values());
+    Map<UUID, Set<Photo>> photosByAlbum = new HashMap<>(albums.size() * 2);
+    for (Album album : albums)
+      photosByAlbum.put(album.getUniqueId(), members(album, Properties.PHOTOS_KEY));
+    Map<UUID, Set<Album>> albumsByGroup = new HashMap<>(groups.size() * 2);
+    for (Group group : groups)
+      albumsByGroup.put(group.getUniqueId(), members(group, Properties.ALBUMS_KEY));
+    return new GallerySnapshot(version, photos, albums, groups, Collections.unmodifiableMap(photosByAlbum), Collections.unmodifiableMap(albumsByGroup));
+  }
+
+  // Membership sets are never modified once set, so the snapshot can keep the current instance
+  private static <T extends GalleryItem> Set<T> members(GalleryItem owner, PropertyKey<Set<T>> key) {
+    Set<T> members = ((PropertiesImpl) owner.getProperties()).getOrNull(key);
+    return members == null ? Set.of() : Collections.unmodifiableSet(members);
+  }
+
+  private void index(GalleryItem galleryItem) {
+    UUID uniqueId = galleryItem.getUniqueId();
+    switch (galleryItem) {
+      case Photo photo -> {
+        photoNames.put(uniqueId, photo.getName());
+        photoNameTrie.put(uniqueId, photo.getName());
+        photoPaths.put(uniqueId, photo.getPath());
+        photoHashes.put(uniqueId, photo.getContentHash());
+        // Only a stored timestamp, deriving one reads the file, the backfill stores it and the photo is indexed then
+        PropertyInstance<Long> creationTimestamp = ((PropertiesImpl) photo.getProperties()).get(Properties.CREATION_TIMESTAMP_KEY);
+        if (creationTimestamp.isSet())
+          photoTimeline.put(uniqueId, creationTimestamp.value());
+        else
+          photoTimeline.remove(uniqueId);
+      }
+      case Album album -> {
+        albumNames.put(uniqueId, album.getName());
+        albumNameTrie.put(uniqueId, album.getName());
+        albumsByPhoto.putOwner(uniqueId, getMemberIds(album));
+      }
+      case Group group -> {
+        groupNames.put(uniqueId, group.getName());
+        groupNameTrie.put(uniqueId, group.getName());
+        groupsByAlbum.putOwner(uniqueId, getMemberIds(group));
+      }
+    }
+  }
+
+  private void unindex(GalleryItem galleryItem) {
+    UUID uniqueId = galleryItem.getUniqueId();
+    switch (galleryItem) {
+      case Photo _ -> {
+        photoNames.remove(uniqueId);
+        photoNameTrie.remove(uniqueId);
+        photoPaths.remove(uniqueId);
+        photoHashes.remove(uniqueId);
+        photoTimeline.remove(uniqueId);
+        albumsByPhoto.removeMember(uniqueId);
+      }
+      case Album _ -> {
+        albumNames.remove(uniqueId);
+        albumNameTrie.remove(uniqueId);
+        albumsByPhoto.removeOwner(uniqueId);
+        groupsByAlbum.removeMember(uniqueId);
+      }
+      case Group _ -> {
+        groupNames.remove(uniqueId);
+        groupNameTrie.remove(uniqueId);
+        groupsByAlbum.removeOwner(uniqueId);
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the name, path, content hash, membership, timeline and completion indexes from the item maps, for backends that fill the maps directly
+   * while loading.
+   */
+  protected void rebuildIndexes() {
+    beginWrite();
+    try {
+      for (PropertyIndex<?> index : List.of(photoNames, photoPaths, photoHashes, albumNames, groupNames))
+        index.clear();
+      albumsByPhoto.clear();
+      groupsByAlbum.clear();
+      photoTimeline.clear();
+      for (NameTrie nameTrie : List.of(photoNameTrie, albumNameTrie, groupNameTrie))
+        nameTrie.clear();
+      for (Map<UUID, ? extends GalleryItem> items : List.of(photosByUUID, albumsByUUID, groupsByUUID))
+        items.values().forEach(this::index);
+    } finally {
+      endWrite();
+    }
+  }
+
+  private <T extends GalleryItem> Optional<T> lookup(Class<T> type, Map<UUID, T> items, UUID uniqueId) {
+    if (itemCache == null)
+      return Optional.ofNullable(items.get(uniqueId));
+    return itemCache.get(uniqueId, this::fetchCurrent).filter(type::isInstance).map(type::cast);
+  }
+
+  // Storage only reflects queued property updates once they are written
+  private Optional<GalleryItem> fetchCurrent(UUID uniqueId) {
+    flushPendingUpdates();
+    return lazyItemSource.fetch(uniqueId);
+  }
+
+  private void flushPendingUpdates() {
+    if (writeBehindQueue != null && writeBehindQueue.pending() > 0)
+      writeBehindQueue.flush();
+  }
+
+  private <T extends GalleryItem, V> Optional<T> lookup(Class<T> type, Map<UUID, T> items, PropertyIndex<V> index, PropertyKey<V> key, V value) {
+    if (itemCache == null)
+      return index.first(value).map(items::get);
+    flushPendingUpdates();
+    return lazyItemSource.findUniqueId(type, key, key.serialize(index.normalize(value))).flatMap(uniqueId -> lookup(type, items, uniqueId));
+  }
+
+  private <T extends GalleryItem> Collection<T> all(Class<T> type, Map<UUID, T> items) {
+    if (itemCache == null)
+      return items.values();
+    return new CursorCollection<>((after, limit) -> {
+      flushPendingUpdates();
+      return cached(type, lazyItemSource.fetchPage(type, after, limit));
+    }, () -> lazyItemSource.count(type));
+  }
+
+  private List<String> complete(NameTrie nameTrie, Class<? extends GalleryItem> type, String prefix, int limit) {
+    if (itemCache == null)
+      return nameTrie.complete(prefix, limit);
+    flushPendingUpdates();
+    return lazyItemSource.completeNames(type, prefix, limit);
+  }
+
+  private <T extends GalleryItem> List<T> resolve(List<UUID> uniqueIds, Map<UUID, T> items) {
+    List<T> resolved = new ArrayList<>(uniqueIds.size());
+    for (UUID uniqueId : uniqueIds) {
+      T galleryItem = items.get(uniqueId);
+      if (galleryItem != null)
+        resolved.add(galleryItem);
+    }
+    return resolved;
+  }
+
+  // Prefer instances that are already cached so every caller sees the same object for an item
+  private <T extends GalleryItem> List<T> cached(Class<T> type, List<T> fetched) {
+    fetched.replaceAll(item -> type.cast(itemCache.putIfAbsent(item)));
+    return fetched;
+  }
+
+  @Override
+  public <T extends GalleryItem> BatchResult<T> addAll(Collection<T> galleryItems) {
+    BatchResult<T> result = insertAll(galleryItems);
+    for (T galleryItem : result.succeeded())
+      store(galleryItem);
+    return result;
+  }
+
+  @Override
+  public <T extends GalleryItem> BatchResult<T> removeAll(Collection<T> galleryItems) {
+    for (T galleryItem : galleryItems) {
+      discardPendingUpdates(galleryItem);
+      detach(galleryItem);
+    }
+    BatchResult<T> result = deleteAll(galleryItems);
+    for (T galleryItem : result.succeeded())
+      evict(galleryItem);
+    return result;
+  }
+
   public void add(Photo photo) {
     insert(photo);
-    photosByUUID.put(photo.getUniqueId(), photo);
+    store(photo);
   }
 
   public boolean hasPhoto(Photo photo) {
@@ -43,7 +614,7 @@ public abstract class AbstractGalleryData implements GalleryData {
   }
 
   public boolean hasPhoto(UUID uniqueId) {
-    return photosByUUID.containsKey(uniqueId);
+    return getPhoto(uniqueId).isPresent();
   }
 
   public boolean hasPhoto(Path path) {
@@ -55,29 +626,53 @@ public abstract class AbstractGalleryData implements GalleryData {
   }
 
   public Collection<Photo> getPhotos() {
-    return photosByUUID.values();
+    return all(Photo.class, photosByUUID);
   }
 
   public Optional<Photo> getPhoto(UUID uniqueId) {
-    return Optional.ofNullable(photosByUUID.get(uniqueId));
+    return lookup(Photo.class, photosByUUID, uniqueId);
   }
 
   public Optional<Photo> getPhoto(Path path) {
-    return photosByUUID.values().stream().filter(photo -> photo.getPath().map(path::equals).orElse(false)).findFirst();
+    return lookup(Photo.class, photosByUUID, photoPaths, Properties.PATH_KEY, path);
   }
 
   public Optional<Photo> getPhoto(String name) {
-    return photosByUUID.values().stream().filter(photo -> photo.getName().map(name::equals).orElse(false)).findFirst();
+    return lookup(Photo.class, photosByUUID, photoNames, Properties.NAME_KEY, name);
+  }
+
+  public Optional<Photo> getPhotoByContentHash(String contentHash) {
+    return lookup(Photo.class, photosByUUID, photoHashes, Properties.CONTENT_HASH_KEY, contentHash);
+  }
+
+  public List<String> completePhotoNames(String prefix, int limit) {
+    return complete(photoNameTrie, Photo.class, prefix, limit);
+  }
+
+  public List<Photo> getPhotosCreatedBetween(long from, long to) {
+    if (itemCache == null)
+      return resolve(photoTimeline.between(from, to), photosByUUID);
+    flushPendingUpdates();
+    return cached(Photo.class, fetchPhotosCreatedBetween(from, to));
+  }
+
+  public List<Photo> getPhotosCreatedBefore(TimelinePosition before, int limit) {
+    if (itemCache == null)
+      return resolve(photoTimeline.before(before, limit), photosByUUID);
+    flushPendingUpdates();
+    return cached(Photo.class, fetchPhotosCreatedBefore(before, limit));
   }
 
   public void remove(Photo photo) {
+    discardPendingUpdates(photo);
+    detach(photo);
     delete(photo);
-    photosByUUID.remove(photo.getUniqueId());
+    evict(photo);
   }
 
   public void add(Album album) {
     insert(album);
-    albumsByUUID.put(album.getUniqueId(), album);
+    store(album);
   }
 
   public boolean hasAlbum(Album album) {
@@ -85,7 +680,7 @@ public abstract class AbstractGalleryData implements GalleryData {
   }
 
   public boolean hasAlbum(UUID uniqueId) {
-    return albumsByUUID.containsKey(uniqueId);
+    return getAlbum(uniqueId).isPresent();
   }
 
   public boolean hasAlbum(String name) {
@@ -93,25 +688,31 @@ public abstract class AbstractGalleryData implements GalleryData {
   }
 
   public Collection<Album> getAlbums() {
-    return albumsByUUID.values();
+    return all(Album.class, albumsByUUID);
   }
 
   public Optional<Album> getAlbum(UUID uniqueId) {
-    return Optional.ofNullable(albumsByUUID.get(uniqueId));
+    return lookup(Album.class, albumsByUUID, uniqueId);
   }
 
   public Optional<Album> getAlbum(String name) {
-    return albumsByUUID.values().stream().filter(album -> album.getName().map(name::equals).orElse(false)).findFirst();
+    return lookup(Album.class, albumsByUUID, albumNames, Properties.NAME_KEY, name);
+  }
+
+  public List<String> completeAlbumNames(String prefix, int limit) {
+    return complete(albumNameTrie, Album.class, prefix, limit);
   }
 
   public void remove(Album album) {
+    discardPendingUpdates(album);
+    detach(album);
     delete(album);
-    albumsByUUID.remove(album.getUniqueId());
+    evict(album);
   }
 
   public void add(Group group) {
     insert(group);
-    groupsByUUID.put(group.getUniqueId(), group);
+    store(group);
   }
 
   public boolean hasGroup(Group group) {
@@ -119,7 +720,7 @@ public abstract class AbstractGalleryData implements GalleryData {
   }
 
   public boolean hasGroup(UUID uniqueId) {
-    return groupsByUUID.containsKey(uniqueId);
+    return getGroup(uniqueId).isPresent();
   }
 
   public boolean hasGroup(String name) {
@@ -127,20 +728,26 @@ public abstract class AbstractGalleryData implements GalleryData {
   }
 
   public Collection<Group> getGroups() {
-    return groupsByUUID.values();
+    return all(Group.class, groupsByUUID);
   }
 
   public Optional<Group> getGroup(UUID uniqueId) {
-    return Optional.ofNullable(groupsByUUID.get(uniqueId));
+    return lookup(Group.class, groupsByUUID, uniqueId);
   }
 
   public Optional<Group> getGroup(String name) {
-    return groupsByUUID.values().stream().filter(group -> group.getName().map(name::equals).orElse(false)).findFirst();
+    return lookup(Group.class, groupsByUUID, groupNames, Properties.NAME_KEY, name);
+  }
+
+  public List<String> completeGroupNames(String prefix, int limit) {
+    return complete(groupNameTrie, Group.class, prefix, limit);
   }
 
   public void remove(Group group) {
+    discardPendingUpdates(group);
+    detach(group);
     delete(group);
-    groupsByUUID.remove(group.getUniqueId());
+    evict(group);
   }
 
 }
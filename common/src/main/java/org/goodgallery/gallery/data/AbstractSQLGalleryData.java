@@ -4,20 +4,121 @@ import org.goodgallery.gallery.Album;
 import org.goodgallery.gallery.GalleryItem;
 import org.goodgallery.gallery.Group;
 import org.goodgallery.gallery.Photo;
+import org.goodgallery.gallery.data.SQLConnectionPool.PooledConnection;
 import org.goodgallery.gallery.properties.PropertiesImpl;
 import org.goodgallery.gallery.properties.PropertyInstance;
+import org.goodgallery.gallery.properties.PropertyKey;
 import org.goodgallery.gallery.properties.SerializedProperties;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
-abstract class AbstractSQLGalleryData extends AbstractGalleryData {
+abstract class AbstractSQLGalleryData extends AbstractGalleryData implements LazyItemSource {
+
+  private static final int CONNECTION_POOL_SIZE = 4;
+  private static final String DELETE_ITEM_STATEMENT = "DELETE FROM gallery_items WHERE unique_id = ?";
+
+  private static final String[] LOAD_PHASES = {"photo", "album", "group"};
+  private static final int LOAD_CHUNK_SIZE = 256;
+  private static final String LOAD_PARTITION_STATEMENT = """
+    SELECT g.unique_id, p."key", p."data" FROM gallery_items g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id
+    WHERE g.item_type = ? AND g.unique_id >= ? AND g.unique_id < ? ORDER BY g.unique_id;
+    """;
+  private static final String LOAD_LAST_PARTITION_STATEMENT = """
+    SELECT g.unique_id, p."key", p."data" FROM gallery_items g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id
+    WHERE g.item_type = ? AND g.unique_id >= ? ORDER BY g.unique_id;
+    """;
+
+  private static final String FETCH_ITEM_STATEMENT = """
+    SELECT g.item_type, p."key", p."data" FROM gallery_items g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id WHERE g.unique_id = ?;
+    """;
+  private static final String FETCH_FIRST_PAGE_STATEMENT = """
+    SELECT g.unique_id, p."key", p."data"
+    FROM (SELECT unique_id FROM gallery_items WHERE item_type = ? ORDER BY unique_id LIMIT ?) g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id ORDER BY g.unique_id;
+    """;
+  private static final String FETCH_PAGE_STATEMENT = """
+    SELECT g.unique_id, p."key", p."data"
+    FROM (SELECT unique_id FROM gallery_items WHERE item_type = ? AND unique_id > ? ORDER BY unique_id LIMIT ?) g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id ORDER BY g.unique_id;
+    """;
+  private static final String FETCH_CREATED_BETWEEN_STATEMENT = """
+    SELECT g.unique_id, p."key", p."data"
+    FROM (SELECT unique_id, created_at FROM gallery_items WHERE item_type = 'photo' AND created_at >= ? AND created_at < ?) g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id ORDER BY g.created_at, g.unique_id;
+    """;
+  private static final String FETCH_LATEST_STATEMENT = """
+    SELECT g.unique_id, p."key", p."data"
+    FROM (SELECT unique_id, created_at FROM gallery_items WHERE item_type = 'photo' AND created_at IS NOT NULL
+    ORDER BY created_at DESC, unique_id DESC LIMIT ?) g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id ORDER BY g.created_at DESC, g.unique_id DESC;
+    """;
+  private static final String FETCH_CREATED_BEFORE_STATEMENT = """
+    SELECT g.unique_id, p."key", p."data"
+    FROM (SELECT unique_id, created_at FROM gallery_items WHERE item_type = 'photo'
+    AND (created_at < ? OR (created_at = ? AND unique_id < ?)) ORDER BY created_at DESC, unique_id DESC LIMIT ?) g
+    LEFT JOIN properties p ON g.unique_id = p.unique_id ORDER BY g.created_at DESC, g.unique_id DESC;
+    """;
+  private static final String UPDATE_CREATED_AT_STATEMENT = "UPDATE gallery_items SET created_at = ? WHERE unique_id = ?;";
+  private static final String CREATION_TIMESTAMP = org.goodgallery.gallery.properties.Properties.CREATION_TIMESTAMP_KEY.toString();
+  // The name as completed, and its normalized form that completion ranges over, a photo without a name of its own
+  // goes by its file name
+  private static final String UPDATE_NAME_STATEMENT = "UPDATE gallery_items SET name = ?, name_key = ? WHERE unique_id = ?;";
+  private static final String NAME = org.goodgallery.gallery.properties.Properties.NAME_KEY.toString();
+  private static final String PATH = org.goodgallery.gallery.properties.Properties.PATH_KEY.toString();
+  private static final String COMPLETE_NAMES_STATEMENT = """
+    SELECT DISTINCT name, name_key FROM gallery_items WHERE item_type = ? AND name_key >= ? AND name_key < ?
+    ORDER BY name_key, name LIMIT ?;
+    """;
+  private static final String COMPLETE_ALL_NAMES_STATEMENT = """
+    SELECT DISTINCT name, name_key FROM gallery_items WHERE item_type = ? AND name_key >= ?
+    ORDER BY name_key, name LIMIT ?;
+    """;
+  private static final String COUNT_ITEMS_STATEMENT = "SELECT COUNT(*) FROM gallery_items WHERE item_type = ?;";
+  private static final String FIND_ITEM_STATEMENT = """
+    SELECT p.unique_id FROM properties p JOIN gallery_items g ON g.unique_id = p.unique_id
+    WHERE p."key" = ? AND p."data" = ? AND g.item_type = ? LIMIT 1;
+    """;
+
+  private static final String INITIALIZE_CHANGE_COUNTER_STATEMENT =
+    "INSERT INTO gallery_meta(name, \"value\") VALUES('change_counter', 0) ON CONFLICT DO NOTHING;";
+  private static final String INCREMENT_CHANGE_COUNTER_STATEMENT =
+    "UPDATE gallery_meta SET \"value\" = \"value\" + 1 WHERE name = 'change_counter';";
+  private static final String SELECT_CHANGE_COUNTER_STATEMENT =
+    "SELECT \"value\" FROM gallery_meta WHERE name = 'change_counter';";
+
+  private volatile SQLConnectionPool connectionPool;
+  private long changeCounter;
+  private volatile boolean changeRecorded = false;
+  private volatile boolean snapshotSafe = true;
+  private boolean loadedFromSnapshot = false;
 
   public AbstractSQLGalleryData(Path path) {
     super(path);
@@ -40,12 +141,21 @@ abstract class AbstractSQLGalleryData extends AbstractGalleryData {
     return new UUID(byteBuffer.getLong(), byteBuffer.getLong());
   }
 
-  private void deserializeAndStoreItem(UUID uniqueId, String itemType, Map<String, byte[]> rawProperties) {
+  private GalleryItem createItem(UUID uniqueId, String itemType, Map<String, byte[]> rawProperties) {
     SerializedProperties serializedProperties = new SerializedProperties(rawProperties);
-    switch (itemType) {
-      case "photo" -> photosByUUID.put(uniqueId, new Photo(uniqueId, serializedProperties));
-      case "album" -> albumsByUUID.put(uniqueId, new Album(uniqueId, serializedProperties));
-      case "group" -> groupsByUUID.put(uniqueId, new Group(uniqueId, serializedProperties));
+    return switch (itemType) {
+      case "photo" -> new Photo(uniqueId, serializedProperties);
+      case "album" -> new Album(uniqueId, serializedProperties);
+      case "group" -> new Group(uniqueId, serializedProperties);
+      default -> throw new IllegalStateException("Unknown item type \"%s\" of \"%s\"".formatted(itemType, uniqueId));
+    };
+  }
+
+  private void deserializeAndStoreItem(UUID uniqueId, String itemType, Map<String, byte[]> rawProperties) {
+    switch (createItem(uniqueId, itemType, rawProperties)) {
+      case Photo photo -> photosByUUID.put(uniqueId, photo);
+      case Album album -> albumsByUUID.put(uniqueId, album);
+      case Group group -> groupsByUUID.put(uniqueId, group);
     }
   }
 
@@ -53,65 +163,170 @@ abstract class AbstractSQLGalleryData extends AbstractGalleryData {
     return DriverManager.getConnection(getConnectionUrl(), getConnectionProperties());
   }
 
-  private void createConnectionWithPreparedStatement(String rawPreparedStatement, SQLConsumer<Connection, PreparedStatement> consumer, String failMessage) {
-    try (Connection connection = createConnection();
-         PreparedStatement preparedStatement = connection.prepareStatement(rawPreparedStatement)) {
-      consumer.accept(connection, preparedStatement);
+  private SQLConnectionPool pool() {
+    SQLConnectionPool pool = connectionPool;
+    if (pool == null)
+      throw new IllegalStateException("Gallery data has not been loaded");
+    return pool;
+  }
+
+  private void withPreparedStatement(String rawPreparedStatement, SQLConsumer<PooledConnection, PreparedStatement> consumer, String failMessage) {
+    recordChange();
+    try {
+      pool().accept(connection -> consumer.accept(connection, connection.prepare(rawPreparedStatement)));
     } catch (SQLException exception) {
+      snapshotSafe = false;
       throw new RuntimeException(failMessage, exception);
     }
   }
 
-  private void createConnectionWithStatement(SQLConsumer<Connection, Statement> consumer, String failMessage) {
-    try (Connection connection = createConnection();
-         Statement statement = connection.createStatement()) {
-      consumer.accept(connection, statement);
+  private void inTransaction(SQLConnectionPool.SQLAction<PooledConnection> action, String failMessage) {
+    recordChange();
+    try {
+      pool().accept(connection -> {
+        connection.connection().setAutoCommit(false);
+        action.accept(connection);
+        connection.connection().commit();
+        connection.connection().setAutoCommit(true);
+      });
     } catch (SQLException exception) {
+      snapshotSafe = false;
       throw new RuntimeException(failMessage, exception);
     }
   }
 
-  @Override
-  public synchronized void load() {
-    createConnectionWithStatement((_, statement) -> {
+  /**
+   * Bumps the change counter before the first write of this session, which invalidates any warm-start snapshot taken
+   * before it, including the one this session may have started from.
+   */
+  private synchronized void recordChange() {
+    if (changeRecorded)
+      return;
+    try {
+      changeCounter = pool().apply(connection -> {
+        try (Statement statement = connection.createStatement()) {
+          statement.executeUpdate(INCREMENT_CHANGE_COUNTER_STATEMENT);
+          return readChangeCounter(statement);
+        }
+      });
+    } catch (SQLException exception) {
+      throw new RuntimeException("Failed to record change to gallery data", exception);
+    }
+    changeRecorded = true;
+  }
+
+  private long readChangeCounter(Statement statement) throws SQLException {
+    try (ResultSet resultSet = statement.executeQuery(SELECT_CHANGE_COUNTER_STATEMENT)) {
+      if (!resultSet.next())
+        throw new SQLException("Change counter is missing from gallery_meta");
+      return resultSet.getLong(1);
+    }
+  }
+
+  private Path getSnapshotPath() {
+    return path.resolveSibling("gallery.snapshot");
+  }
+
+  private int loadSnapshot() {
+    Optional<List<WarmStartSnapshot.Entry>> entries = WarmStartSnapshot.read(getSnapshotPath(), changeCounter);
+    if (entries.isEmpty())
+      return -1;
+    // Entries are written photos first, then albums and groups, the order members must be resolved in
+    for (WarmStartSnapshot.Entry entry : entries.get())
+      deserializeAndStoreItem(entry.uniqueId(), entry.itemType(), entry.properties());
+    return entries.get().size();
+  }
+
+  private void writeSnapshot() {
+    try {
+      long currentCounter;
       try {
-        statement.execute("CREATE TABLE IF NOT EXISTS gallery_items(unique_id BINARY(16) PRIMARY KEY, item_type VARCHAR(8));");
-        statement.execute("""
-            CREATE TABLE IF NOT EXISTS properties(
-                unique_id BINARY(16), "key" VARCHAR(32), "data" BINARY(1024),
-                FOREIGN KEY(unique_id) references gallery_items(unique_id) ON DELETE CASCADE,
-                UNIQUE(unique_id, "key")
-            );
-        """);
+        currentCounter = pool().apply(connection -> {
+          try (Statement statement = connection.createStatement()) {
+            return readChangeCounter(statement);
+          }
+        });
       } catch (SQLException exception) {
-        throw new RuntimeException("Failed to create tables for database", exception);
+        throw new IOException("Failed to read change counter", exception);
+      }
+      // Another process wrote to the database since, so this session's state is not the database's state
+      if (currentCounter != changeCounter) {
+        WarmStartSnapshot.delete(getSnapshotPath());
+        return;
       }
 
-      try (ResultSet resultSet = statement.executeQuery("""
-        SELECT g.unique_id, g.item_type, p."key", p."data" FROM gallery_items g
-        LEFT JOIN properties p ON g.unique_id = p.unique_id ORDER BY g.unique_id;
-        """)) {
-        UUID lastUniqueId = null;
-        String lastItemType = null;
-        Map<String, byte[]> lastItemProperties = new HashMap<>();
+      List<WarmStartSnapshot.Entry> entries = new ArrayList<>(photosByUUID.size() + albumsByUUID.size() + groupsByUUID.size());
+      for (Map<UUID, ? extends GalleryItem> items : List.of(photosByUUID, albumsByUUID, groupsByUUID))
+        for (GalleryItem galleryItem : items.values())
+          entries.add(new WarmStartSnapshot.Entry(getItemType(galleryItem), galleryItem.getUniqueId(), serializeProperties(galleryItem)));
+      WarmStartSnapshot.write(getSnapshotPath(), changeCounter, entries);
+    } catch (IOException exception) {
+      System.out.println("Failed to write snapshot \"" + getSnapshotPath() + "\"");
+      exception.printStackTrace(System.out);
+      WarmStartSnapshot.delete(getSnapshotPath());
+    }
+  }
 
-        while (resultSet.next()) {
-          UUID currentUniqueId = convertToUUID(resultSet.getBytes("unique_id"));
+  private void withStatement(SQLConsumer<PooledConnection, Statement> consumer, String failMessage) {
+    try {
+      pool().accept(connection -> {
+        try (Statement statement = connection.createStatement()) {
+          consumer.accept(connection, statement);
+        }
+      });
+    } catch (SQLException exception) {
+      throw new RuntimeException(failMessage, exception);
+    }
+  }
 
-          if (!currentUniqueId.equals(lastUniqueId)) {
-            if (lastUniqueId != null)
-              deserializeAndStoreItem(lastUniqueId, lastItemType, lastItemProperties);
-            lastUniqueId = currentUniqueId;
-            lastItemType = resultSet.getString("item_type");
-            lastItemProperties = new HashMap<>();
-          }
+  @Override
+  public synchronized void load() {
+    if (connectionPool == null) {
+      try {
+        // load() holds one connection while every worker reads its partition on another
+        connectionPool = new SQLConnectionPool(this::createConnection, Math.max(CONNECTION_POOL_SIZE, loadWorkers + 1));
+      } catch (SQLException exception) {
+        throw new RuntimeException("Failed to open connection pool for database", exception);
+      }
+    }
 
-          String key = resultSet.getString("key");
-          byte[] data = resultSet.getBytes("data");
-          lastItemProperties.put(key, data);
-        }
-        if (lastUniqueId != null)
-          deserializeAndStoreItem(lastUniqueId, lastItemType, lastItemProperties);
+    LoadReport.Builder report = new LoadReport.Builder(loadWorkers);
+    withStatement((connection, statement) -> {
+      createTables(statement);
+      migrateMembershipBlobs(connection, statement);
+      migrateCreationTimestamps(connection, statement);
+      migrateNames(connection, statement);
+      statement.execute("CREATE INDEX IF NOT EXISTS gallery_items_timeline ON gallery_items(item_type, created_at, unique_id);");
+      statement.execute("CREATE INDEX IF NOT EXISTS gallery_items_names ON gallery_items(item_type, name_key);");
+      statement.execute(INITIALIZE_CHANGE_COUNTER_STATEMENT);
+      changeCounter = readChangeCounter(statement);
+      report.phase("schema", 0);
+      if (isLazy()) {
+        // Items are fetched on first access instead
+        statement.execute("CREATE INDEX IF NOT EXISTS properties_lookup ON properties(\"key\", \"data\");");
+        report.phase("lookup index", 0);
+        return;
+      }
+      int snapshotItems = loadSnapshot();
+      if (snapshotItems >= 0) {
+        loadedFromSnapshot = true;
+        report.phase("snapshot", snapshotItems);
+        return;
+      }
+      Map<UUID, ByteArrayOutputStream> members = readMembership(statement);
+      report.phase("membership", 0);
+
+      ExecutorService readers = loadWorkers > 1 ? Executors.newFixedThreadPool(loadWorkers, Thread.ofPlatform().name("GoodGallery-Load-Reader-", 1).daemon().factory()) : null;
+      ExecutorService decoders = loadWorkers > 1 ? Executors.newFixedThreadPool(loadWorkers, Thread.ofPlatform().name("GoodGallery-Load-Decoder-", 1).daemon().factory()) : null;
+      try {
+        // One phase per type, so the report shows where load time goes
+        for (String itemType : LOAD_PHASES)
+          report.phase(itemType + "s", loadItems(itemType, members, readers, decoders));
+      } finally {
+        if (readers != null)
+          readers.shutdownNow();
+        if (decoders != null)
+          decoders.shutdownNow();
       }
 
       // Previous implementation for reference:
@@ -136,44 +351,395 @@ abstract class AbstractSQLGalleryData extends AbstractGalleryData {
 //        }
 //      }
     }, "Failed to load gallery data");
+    if (!isLazy()) {
+      rebuildIndexes();
+      report.phase("indexes", 0);
+    }
+    loadReport = report.build();
   }
 
-  @Override
-  protected synchronized void insert(GalleryItem galleryItem) {
-    createConnectionWithPreparedStatement(getInsertItemStatement(),
-      (connection, insertItemStatement) -> {
-        connection.setAutoCommit(false);
-
-        insertItemStatement.setBytes(1, convertFromUUID(galleryItem.getUniqueId()));
-        insertItemStatement.setString(2,
-          switch (galleryItem) {
-            case Photo _ -> "photo";
-            case Album _ -> "album";
-            case Group _ -> "group";
-          }
-        );
-        insertItemStatement.executeUpdate();
-        try (PreparedStatement insertPropertyStatement = connection.prepareStatement(getUpsertPropertyStatement())) {
-          for (PropertyInstance<?> property : ((PropertiesImpl) galleryItem.getProperties()).all()) {
-            if (property.value().isEmpty())
-              continue;
-            insertPropertyStatement.setBytes(1, convertFromUUID(galleryItem.getUniqueId()));
-            insertPropertyStatement.setString(2, property.key().toString());
-            insertPropertyStatement.setBytes(3, property.serialize());
-            insertPropertyStatement.addBatch();
-          }
-          insertPropertyStatement.executeBatch();
+  /**
+   * Loads every item of one type. The UUID space is split into one range per worker by its first byte, each range is
+   * read on its own pooled connection, and the rows are handed to the decoders in chunks so that constructing the
+   * items does not hold up the readers.
+   */
+  private int loadItems(String itemType, Map<UUID, ByteArrayOutputStream> members, ExecutorService readers, ExecutorService decoders) {
+    Executor readExecutor = readers != null ? readers : Runnable::run;
+    Executor decodeExecutor = decoders != null ? decoders : Runnable::run;
+    Queue<CompletableFuture<Void>> decodes = new ConcurrentLinkedQueue<>();
+
+    List<CompletableFuture<Integer>> reads = new ArrayList<>(loadWorkers);
+    for (int i = 0; i < loadWorkers; i++) {
+      int lowerByte = i * 256 / loadWorkers;
+      int upperByte = (i + 1) * 256 / loadWorkers;
+      reads.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return readPartition(itemType, lowerByte, upperByte, chunk ->
+            decodes.add(CompletableFuture.runAsync(() -> decodeChunk(itemType, chunk, members), decodeExecutor)));
         } catch (SQLException exception) {
-          throw new RuntimeException("Failed to insert properties for \"%s\"".formatted(galleryItem), exception);
+          throw new CompletionException(exception);
+        }
+      }, readExecutor));
+    }
+
+    try {
+      int items = 0;
+      for (CompletableFuture<Integer> read : reads)
+        items += read.join();
+      CompletableFuture.allOf(decodes.toArray(CompletableFuture[]::new)).join();
+      return items;
+    } catch (CompletionException exception) {
+      throw new RuntimeException("Failed to load %ss".formatted(itemType), exception.getCause());
+    }
+  }
+
+  private int readPartition(String itemType, int lowerByte, int upperByte, Consumer<List<RawItem>> chunkConsumer) throws SQLException {
+    boolean lastPartition = upperByte >= 256;
+    return pool().apply(connection -> {
+      PreparedStatement preparedStatement = connection.prepare(lastPartition ? LOAD_LAST_PARTITION_STATEMENT : LOAD_PARTITION_STATEMENT);
+      preparedStatement.setString(1, itemType);
+      preparedStatement.setBytes(2, partitionBound(lowerByte));
+      if (!lastPartition)
+        preparedStatement.setBytes(3, partitionBound(upperByte));
+
+      int items = 0;
+      List<RawItem> chunk = new ArrayList<>(LOAD_CHUNK_SIZE);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        UUID lastUniqueId = null;
+        Map<String, byte[]> lastItemProperties = null;
+
+        while (resultSet.next()) {
+          UUID currentUniqueId = convertToUUID(resultSet.getBytes(1));
+
+          if (!currentUniqueId.equals(lastUniqueId)) {
+            if (lastUniqueId != null) {
+              chunk.add(new RawItem(lastUniqueId, lastItemProperties));
+              items++;
+              if (chunk.size() == LOAD_CHUNK_SIZE) {
+                chunkConsumer.accept(chunk);
+                chunk = new ArrayList<>(LOAD_CHUNK_SIZE);
+              }
+            }
+            lastUniqueId = currentUniqueId;
+            lastItemProperties = new HashMap<>();
+          }
+
+          String key = resultSet.getString(2);
+          if (key != null)
+            lastItemProperties.put(key, resultSet.getBytes(3));
+        }
+        if (lastUniqueId != null) {
+          chunk.add(new RawItem(lastUniqueId, lastItemProperties));
+          items++;
+        }
+      }
+      if (!chunk.isEmpty())
+        chunkConsumer.accept(chunk);
+      return items;
+    });
+  }
+
+  private void decodeChunk(String itemType, List<RawItem> chunk, Map<UUID, ByteArrayOutputStream> members) {
+    for (RawItem rawItem : chunk)
+      deserializeAndStoreItem(rawItem.uniqueId(), itemType, withMembers(rawItem.uniqueId(), itemType, rawItem.properties(), members));
+  }
+
+  private byte[] partitionBound(int firstByte) {
+    byte[] bound = new byte[Long.BYTES * 2];
+    bound[0] = (byte) firstByte;
+    return bound;
+  }
+
+  private void createTables(Statement statement) {
+    try {
+      statement.execute("""
+          CREATE TABLE IF NOT EXISTS gallery_items(
+              unique_id BINARY(16) PRIMARY KEY, item_type VARCHAR(8), created_at BIGINT, name VARCHAR(1024), name_key VARCHAR(1024)
+          );
+      """);
+      statement.execute("""
+          CREATE TABLE IF NOT EXISTS properties(
+              unique_id BINARY(16), "key" VARCHAR(32), "data" BINARY(1024),
+              FOREIGN KEY(unique_id) references gallery_items(unique_id) ON DELETE CASCADE,
+              UNIQUE(unique_id, "key")
+          );
+      """);
+      statement.execute("CREATE TABLE IF NOT EXISTS gallery_meta(name VARCHAR(32) PRIMARY KEY, \"value\" BIGINT NOT NULL);");
+      for (MembershipTable table : MembershipTable.values()) {
+        statement.execute("""
+            CREATE TABLE IF NOT EXISTS %1$s(
+                %2$s BINARY(16), %3$s BINARY(16),
+                PRIMARY KEY(%2$s, %3$s),
+                FOREIGN KEY(%2$s) references gallery_items(unique_id) ON DELETE CASCADE,
+                FOREIGN KEY(%3$s) references gallery_items(unique_id) ON DELETE CASCADE
+            );
+        """.formatted(table.table, table.ownerColumn, table.memberColumn));
+        statement.execute("CREATE INDEX IF NOT EXISTS %1$s_%2$s ON %1$s(%2$s);".formatted(table.table, table.memberColumn));
+      }
+    } catch (SQLException exception) {
+      throw new RuntimeException("Failed to create tables for database", exception);
+    }
+  }
+
+  /**
+   * Moves membership stored as serialized UUID blobs in the properties table, as written by earlier versions, into
+   * the membership tables. References to items that no longer exist are dropped.
+   */
+  private void migrateMembershipBlobs(PooledConnection connection, Statement statement) throws SQLException {
+    Map<MembershipTable, Map<UUID, byte[]>> blobs = new HashMap<>();
+    try (ResultSet resultSet = statement.executeQuery("""
+      SELECT unique_id, "key", "data" FROM properties WHERE "key" IN ('%s', '%s');
+      """.formatted(MembershipTable.ALBUM_PHOTOS.key, MembershipTable.GROUP_ALBUMS.key))) {
+      while (resultSet.next())
+        blobs.computeIfAbsent(MembershipTable.of(resultSet.getString("key")), _ -> new HashMap<>())
+          .put(convertToUUID(resultSet.getBytes("unique_id")), resultSet.getBytes("data"));
+    }
+    if (blobs.isEmpty())
+      return;
+
+    Set<UUID> existingItems = new HashSet<>();
+    try (ResultSet resultSet = statement.executeQuery("SELECT unique_id FROM gallery_items;")) {
+      while (resultSet.next())
+        existingItems.add(convertToUUID(resultSet.getBytes("unique_id")));
+    }
+
+    connection.connection().setAutoCommit(false);
+    for (Map.Entry<MembershipTable, Map<UUID, byte[]>> tableBlobs : blobs.entrySet()) {
+      PreparedStatement insertMemberStatement = connection.prepare(tableBlobs.getKey().insertStatement());
+      for (Map.Entry<UUID, byte[]> blob : tableBlobs.getValue().entrySet()) {
+        if (!existingItems.contains(blob.getKey()))
+          continue;
+        for (UUID member : splitUniqueIds(blob.getValue())) {
+          if (!existingItems.contains(member))
+            continue;
+          insertMemberStatement.setBytes(1, convertFromUUID(blob.getKey()));
+          insertMemberStatement.setBytes(2, convertFromUUID(member));
+          insertMemberStatement.addBatch();
         }
-        connection.commit();
-        connection.setAutoCommit(true);
-      }, "Failed to insert gallery item \"%s\"".formatted(galleryItem.getUniqueId()));
+      }
+      insertMemberStatement.executeBatch();
+    }
+    statement.executeUpdate("""
+      DELETE FROM properties WHERE "key" IN ('%s', '%s');
+      """.formatted(MembershipTable.ALBUM_PHOTOS.key, MembershipTable.GROUP_ALBUMS.key));
+    connection.connection().commit();
+    connection.connection().setAutoCommit(true);
+  }
+
+  /**
+   * Adds the creation timestamp column to item tables written by earlier versions, filled from the creation timestamp
+   * property, so the timeline can be queried from its index.
+   */
+  private void migrateCreationTimestamps(PooledConnection connection, Statement statement) throws SQLException {
+    try {
+      statement.executeQuery("SELECT created_at FROM gallery_items LIMIT 1;").close();
+      return;
+    } catch (SQLException _) {
+      // The column is missing
+    }
+    statement.execute("ALTER TABLE gallery_items ADD COLUMN created_at BIGINT;");
+
+    connection.connection().setAutoCommit(false);
+    try (ResultSet resultSet = statement.executeQuery("""
+      SELECT unique_id, "data" FROM properties WHERE "key" = '%s';
+      """.formatted(CREATION_TIMESTAMP))) {
+      while (resultSet.next())
+        addCreatedAtBatch(connection, resultSet.getBytes("unique_id"), resultSet.getBytes("data"));
+    }
+    connection.prepare(UPDATE_CREATED_AT_STATEMENT).executeBatch();
+    connection.connection().commit();
+    connection.connection().setAutoCommit(true);
+  }
+
+  /**
+   * Adds the name columns to item tables written by earlier versions, filled from the name and path properties, so
+   * names can be completed from their index.
+   */
+  private void migrateNames(PooledConnection connection, Statement statement) throws SQLException {
+    try {
+      statement.executeQuery("SELECT name_key FROM gallery_items LIMIT 1;").close();
+      return;
+    } catch (SQLException _) {
+      // The columns are missing
+    }
+    statement.execute("ALTER TABLE gallery_items ADD COLUMN name VARCHAR(1024);");
+    statement.execute("ALTER TABLE gallery_items ADD COLUMN name_key VARCHAR(1024);");
+
+    connection.connection().setAutoCommit(false);
+    // File names first, so a name of the item's own overwrites them
+    try (ResultSet resultSet = statement.executeQuery("""
+      SELECT p.unique_id, p."data" FROM properties p JOIN gallery_items g ON g.unique_id = p.unique_id
+      WHERE p."key" = '%s' AND g.item_type = 'photo';
+      """.formatted(PATH))) {
+      while (resultSet.next()) {
+        Path fileName = org.goodgallery.gallery.properties.Properties.PATH_KEY.deserialize(resultSet.getBytes("data")).getFileName();
+        if (fileName != null)
+          addNameBatch(connection, resultSet.getBytes("unique_id"), fileName.toString());
+      }
+    }
+    connection.prepare(UPDATE_NAME_STATEMENT).executeBatch();
+    try (ResultSet resultSet = statement.executeQuery("""
+      SELECT unique_id, "data" FROM properties WHERE "key" = '%s';
+      """.formatted(NAME))) {
+      while (resultSet.next())
+        addNameBatch(connection, resultSet.getBytes("unique_id"), org.goodgallery.gallery.properties.Properties.NAME_KEY.deserialize(resultSet.getBytes("data")));
+    }
+    connection.prepare(UPDATE_NAME_STATEMENT).executeBatch();
+    connection.connection().commit();
+    connection.connection().setAutoCommit(true);
+  }
+
+  private void addNameBatch(PooledConnection connection, byte[] uniqueId, String name) throws SQLException {
+    PreparedStatement updateNameStatement = connection.prepare(UPDATE_NAME_STATEMENT);
+    updateNameStatement.setString(1, name);
+    updateNameStatement.setString(2, name == null ? null : NameTrie.normalize(name));
+    updateNameStatement.setBytes(3, uniqueId);
+    updateNameStatement.addBatch();
+  }
+
+  private void addCreatedAtBatch(PooledConnection connection, byte[] uniqueId, byte[] serializedTimestamp) throws SQLException {
+    PreparedStatement updateCreatedAtStatement = connection.prepare(UPDATE_CREATED_AT_STATEMENT);
+    if (serializedTimestamp != null && serializedTimestamp.length == Long.BYTES)
+      updateCreatedAtStatement.setLong(1, ByteBuffer.wrap(serializedTimestamp).getLong());
+    else
+      updateCreatedAtStatement.setNull(1, Types.BIGINT);
+    updateCreatedAtStatement.setBytes(2, uniqueId);
+    updateCreatedAtStatement.addBatch();
+  }
+
+  /**
+   * Reads the membership tables into the serialized form of their membership property, keyed by owner.
+   */
+  private Map<UUID, ByteArrayOutputStream> readMembership(Statement statement) throws SQLException {
+    Map<UUID, ByteArrayOutputStream> members = new HashMap<>();
+    for (MembershipTable table : MembershipTable.values()) {
+      try (ResultSet resultSet = statement.executeQuery("SELECT %s, %s FROM %s;".formatted(table.ownerColumn, table.memberColumn, table.table))) {
+        while (resultSet.next())
+          members.computeIfAbsent(convertToUUID(resultSet.getBytes(1)), _ -> new ByteArrayOutputStream())
+            .writeBytes(resultSet.getBytes(2));
+      }
+    }
+    return members;
+  }
+
+  private Map<String, byte[]> withMembers(UUID uniqueId, String itemType, Map<String, byte[]> rawProperties, Map<UUID, ByteArrayOutputStream> members) {
+    MembershipTable table = MembershipTable.ofOwnerType(itemType);
+    if (table != null) {
+      ByteArrayOutputStream ownerMembers = members.get(uniqueId);
+      rawProperties.put(table.key, ownerMembers != null ? ownerMembers.toByteArray() : new byte[0]);
+    }
+    return rawProperties;
+  }
+
+  private List<UUID> splitUniqueIds(byte[] data) {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+    List<UUID> uniqueIds = new ArrayList<>(data.length / (Long.BYTES * 2));
+    while (byteBuffer.remaining() >= Long.BYTES * 2)
+      uniqueIds.add(new UUID(byteBuffer.getLong(), byteBuffer.getLong()));
+    return uniqueIds;
+  }
+
+  private void addReplaceMembersBatch(PooledConnection connection, MembershipTable table, UUID owner, byte[] serializedMembers) throws SQLException {
+    PreparedStatement clearMembersStatement = connection.prepare(table.clearStatement());
+    clearMembersStatement.setBytes(1, convertFromUUID(owner));
+    clearMembersStatement.executeUpdate();
+
+    PreparedStatement insertMemberStatement = connection.prepare(table.insertStatement());
+    for (UUID member : splitUniqueIds(serializedMembers)) {
+      insertMemberStatement.setBytes(1, convertFromUUID(owner));
+      insertMemberStatement.setBytes(2, convertFromUUID(member));
+      insertMemberStatement.addBatch();
+    }
+  }
+
+  private String getItemType(GalleryItem galleryItem) {
+    return switch (galleryItem) {
+      case Photo _ -> "photo";
+      case Album _ -> "album";
+      case Group _ -> "group";
+    };
+  }
+
+  private String getItemType(Class<? extends GalleryItem> type) {
+    if (type == Photo.class)
+      return "photo";
+    if (type == Album.class)
+      return "album";
+    if (type == Group.class)
+      return "group";
+    throw new IllegalArgumentException("Unknown item type \"%s\"".formatted(type.getSimpleName()));
+  }
+
+  private Map<String, byte[]> serializeProperties(GalleryItem galleryItem) {
+    Map<String, byte[]> serializedProperties = new HashMap<>();
+    for (PropertyInstance<?> property : ((PropertiesImpl) galleryItem.getProperties()).all())
+      if (property.isSet())
+        serializedProperties.put(property.key().toString(), property.serialize());
+    return serializedProperties;
+  }
+
+  private void addInsertBatch(PooledConnection connection, GalleryItem galleryItem, Map<String, byte[]> serializedProperties) throws SQLException {
+    byte[] uniqueId = convertFromUUID(galleryItem.getUniqueId());
+
+    PreparedStatement insertItemStatement = connection.prepare(getInsertItemStatement());
+    insertItemStatement.setBytes(1, uniqueId);
+    insertItemStatement.setString(2, getItemType(galleryItem));
+    insertItemStatement.addBatch();
+
+    PreparedStatement insertPropertyStatement = connection.prepare(getUpsertPropertyStatement());
+    for (Map.Entry<String, byte[]> property : serializedProperties.entrySet()) {
+      MembershipTable table = MembershipTable.of(property.getKey());
+      if (table != null) {
+        PreparedStatement insertMemberStatement = connection.prepare(table.insertStatement());
+        for (UUID member : splitUniqueIds(property.getValue())) {
+          insertMemberStatement.setBytes(1, uniqueId);
+          insertMemberStatement.setBytes(2, convertFromUUID(member));
+          insertMemberStatement.addBatch();
+        }
+        continue;
+      }
+      if (property.getKey().equals(CREATION_TIMESTAMP))
+        addCreatedAtBatch(connection, uniqueId, property.getValue());
+      insertPropertyStatement.setBytes(1, uniqueId);
+      insertPropertyStatement.setString(2, property.getKey());
+      insertPropertyStatement.setBytes(3, property.getValue());
+      insertPropertyStatement.addBatch();
+    }
+    addNameBatch(connection, uniqueId, galleryItem.getName().orElse(null));
+  }
+
+  private void executeInsertBatch(PooledConnection connection) throws SQLException {
+    // Items first, the property and membership rows reference them
+    connection.prepare(getInsertItemStatement()).executeBatch();
+    connection.prepare(getUpsertPropertyStatement()).executeBatch();
+    connection.prepare(UPDATE_CREATED_AT_STATEMENT).executeBatch();
+    connection.prepare(UPDATE_NAME_STATEMENT).executeBatch();
+    for (MembershipTable table : MembershipTable.values())
+      connection.prepare(table.insertStatement()).executeBatch();
+  }
+
+  private void addDeleteBatch(PooledConnection connection, GalleryItem galleryItem) throws SQLException {
+    PreparedStatement deleteItemStatement = connection.prepare(DELETE_ITEM_STATEMENT);
+    deleteItemStatement.setBytes(1, convertFromUUID(galleryItem.getUniqueId()));
+    deleteItemStatement.addBatch();
+  }
+
+  private void executeDeleteBatch(PooledConnection connection) throws SQLException {
+    connection.prepare(DELETE_ITEM_STATEMENT).executeBatch();
+  }
+
+  @Override
+  protected synchronized void insert(GalleryItem galleryItem) {
+    Map<String, byte[]> serializedProperties = serializeProperties(galleryItem);
+    inTransaction(connection -> {
+      addInsertBatch(connection, galleryItem, serializedProperties);
+      executeInsertBatch(connection);
+    }, "Failed to insert gallery item \"%s\"".formatted(galleryItem.getUniqueId()));
   }
 
   @Override
   protected synchronized void delete(GalleryItem galleryItem) {
-    createConnectionWithPreparedStatement("DELETE FROM gallery_items WHERE unique_id = ?",
+    withPreparedStatement(DELETE_ITEM_STATEMENT,
       (_, preparedStatement) -> {
         preparedStatement.setBytes(1, convertFromUUID(galleryItem.getUniqueId()));
         preparedStatement.executeUpdate();
@@ -181,17 +747,438 @@ abstract class AbstractSQLGalleryData extends AbstractGalleryData {
   }
 
   @Override
-  public synchronized void updateProperty(GalleryItem galleryItem, PropertyInstance<?> property) {
-    createConnectionWithPreparedStatement(getUpsertPropertyStatement(),
+  protected synchronized <T extends GalleryItem> BatchResult<T> insertAll(Collection<T> galleryItems) {
+    BatchResult.Builder<T> result = BatchResult.builder();
+    Map<T, Map<String, byte[]>> serializedItems = new LinkedHashMap<>();
+    for (T galleryItem : galleryItems) {
+      try {
+        serializedItems.put(galleryItem, serializeProperties(galleryItem));
+      } catch (RuntimeException exception) {
+        result.failed(galleryItem, exception);
+      }
+    }
+
+    return runBatch(serializedItems.keySet(), result,
+      (connection, galleryItem) -> addInsertBatch(connection, galleryItem, serializedItems.get(galleryItem)),
+      this::executeInsertBatch,
+      "Failed to insert %d gallery items".formatted(galleryItems.size())
+    );
+  }
+
+  @Override
+  protected synchronized <T extends GalleryItem> BatchResult<T> deleteAll(Collection<T> galleryItems) {
+    return runBatch(galleryItems, BatchResult.builder(),
+      this::addDeleteBatch,
+      this::executeDeleteBatch,
+      "Failed to delete %d gallery items".formatted(galleryItems.size())
+    );
+  }
+
+  /**
+   * Runs the whole batch in one transaction. If the batch is rejected, the transaction is rolled back and the items
+   * are replayed one by one inside a new transaction, each guarded by a savepoint, so a failing item is reported
+   * without discarding the others.
+   */
+  private <T extends GalleryItem> BatchResult<T> runBatch(Collection<T> galleryItems, BatchResult.Builder<T> result,
+                                                          SQLConsumer<PooledConnection, T> batcher,
+                                                          SQLConnectionPool.SQLAction<PooledConnection> executor,
+                                                          String failMessage) {
+    if (galleryItems.isEmpty())
+      return result.build();
+    recordChange();
+    try {
+      return pool().apply(connection -> {
+        Connection rawConnection = connection.connection();
+        rawConnection.setAutoCommit(false);
+        try {
+          for (T galleryItem : galleryItems)
+            batcher.accept(connection, galleryItem);
+          executor.accept(connection);
+          rawConnection.commit();
+          rawConnection.setAutoCommit(true);
+          return result.succeeded(galleryItems).build();
+        } catch (SQLException _) {
+          rawConnection.rollback();
+          connection.clearBatches();
+        }
+
+        for (T galleryItem : galleryItems) {
+          Savepoint savepoint = rawConnection.setSavepoint();
+          try {
+            batcher.accept(connection, galleryItem);
+            executor.accept(connection);
+            rawConnection.releaseSavepoint(savepoint);
+            result.succeeded(galleryItem);
+          } catch (SQLException exception) {
+            rawConnection.rollback(savepoint);
+            connection.clearBatches();
+            result.failed(galleryItem, exception);
+          }
+        }
+        rawConnection.commit();
+        rawConnection.setAutoCommit(true);
+        return result.build();
+      });
+    } catch (SQLException exception) {
+      snapshotSafe = false;
+      throw new RuntimeException(failMessage, exception);
+    }
+  }
+
+  /*
+   * The lazy fetches read the rows first and construct items only after the connection is back in the pool, since
+   * constructing an album or group fetches its members in turn.
+   */
+
+  @Override
+  public Optional<GalleryItem> fetch(UUID uniqueId) {
+    RawItem rawItem;
+    String itemType;
+    try {
+      Map.Entry<String, RawItem> row = pool().apply(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(FETCH_ITEM_STATEMENT);
+        preparedStatement.setBytes(1, convertFromUUID(uniqueId));
+        String type = null;
+        Map<String, byte[]> rawProperties = new HashMap<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          while (resultSet.next()) {
+            type = resultSet.getString(1);
+            String key = resultSet.getString(2);
+            if (key != null)
+              rawProperties.put(key, resultSet.getBytes(3));
+          }
+        }
+        if (type == null)
+          return null;
+        readMembers(connection, uniqueId, type, rawProperties);
+        return Map.entry(type, new RawItem(uniqueId, rawProperties));
+      });
+      if (row == null)
+        return Optional.empty();
+      itemType = row.getKey();
+      rawItem = row.getValue();
+    } catch (SQLException exception) {
+      throw new RuntimeException("Failed to fetch \"%s\"".formatted(uniqueId), exception);
+    }
+    return Optional.of(createItem(uniqueId, itemType, rawItem.properties()));
+  }
+
+  @Override
+  public <T extends GalleryItem> List<T> fetchPage(Class<T> type, UUID after, int limit) {
+    String itemType = getItemType(type);
+    return fetchItems(type, after == null ? FETCH_FIRST_PAGE_STATEMENT : FETCH_PAGE_STATEMENT, preparedStatement -> {
+      preparedStatement.setString(1, itemType);
+      int parameter = 2;
+      if (after != null)
+        preparedStatement.setBytes(parameter++, convertFromUUID(after));
+      preparedStatement.setInt(parameter, limit);
+    }, "Failed to fetch %ss after \"%s\"".formatted(itemType, after));
+  }
+
+  @Override
+  protected List<Photo> fetchPhotosCreatedBetween(long from, long to) {
+    return fetchItems(Photo.class, FETCH_CREATED_BETWEEN_STATEMENT, preparedStatement -> {
+      preparedStatement.setLong(1, from);
+      preparedStatement.setLong(2, to);
+    }, "Failed to fetch photos created between %d and %d".formatted(from, to));
+  }
+
+  @Override
+  protected List<Photo> fetchPhotosCreatedBefore(TimelinePosition before, int limit) {
+    return fetchItems(Photo.class, before == null ? FETCH_LATEST_STATEMENT : FETCH_CREATED_BEFORE_STATEMENT, preparedStatement -> {
+      int parameter = 1;
+      if (before != null) {
+        preparedStatement.setLong(parameter++, before.timestamp());
+        preparedStatement.setLong(parameter++, before.timestamp());
+        preparedStatement.setBytes(parameter++, convertFromUUID(before.uniqueId()));
+      }
+      preparedStatement.setInt(parameter, limit);
+    }, "Failed to fetch photos created before %s".formatted(before));
+  }
+
+  /**
+   * Runs a query returning item rows joined with their properties, grouped by item in the order the items should be
+   * returned, and constructs the items.
+   */
+  private <T extends GalleryItem> List<T> fetchItems(Class<T> type, String statement, SQLConnectionPool.SQLAction<PreparedStatement> binder, String failMessage) {
+    String itemType = getItemType(type);
+    List<RawItem> rawItems = new ArrayList<>();
+    try {
+      pool().accept(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(statement);
+        binder.accept(preparedStatement);
+
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          UUID lastUniqueId = null;
+          Map<String, byte[]> lastItemProperties = null;
+          while (resultSet.next()) {
+            UUID currentUniqueId = convertToUUID(resultSet.getBytes(1));
+            if (!currentUniqueId.equals(lastUniqueId)) {
+              lastUniqueId = currentUniqueId;
+              lastItemProperties = new HashMap<>();
+              rawItems.add(new RawItem(lastUniqueId, lastItemProperties));
+            }
+            String key = resultSet.getString(2);
+            if (key != null)
+              lastItemProperties.put(key, resultSet.getBytes(3));
+          }
+        }
+        for (RawItem rawItem : rawItems)
+          readMembers(connection, rawItem.uniqueId(), itemType, rawItem.properties());
+      });
+    } catch (SQLException exception) {
+      throw new RuntimeException(failMessage, exception);
+    }
+
+    List<T> items = new ArrayList<>(rawItems.size());
+    for (RawItem rawItem : rawItems)
+      items.add(type.cast(createItem(rawItem.uniqueId(), itemType, rawItem.properties())));
+    return items;
+  }
+
+  @Override
+  public int count(Class<? extends GalleryItem> type) {
+    String itemType = getItemType(type);
+    try {
+      return pool().apply(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(COUNT_ITEMS_STATEMENT);
+        preparedStatement.setString(1, itemType);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+      });
+    } catch (SQLException exception) {
+      throw new RuntimeException("Failed to count %ss".formatted(itemType), exception);
+    }
+  }
+
+  @Override
+  public Optional<UUID> findUniqueId(Class<? extends GalleryItem> type, PropertyKey<?> key, byte[] serializedValue) {
+    String itemType = getItemType(type);
+    try {
+      return pool().apply(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(FIND_ITEM_STATEMENT);
+        preparedStatement.setString(1, key.toString());
+        preparedStatement.setBytes(2, serializedValue);
+        preparedStatement.setString(3, itemType);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          return resultSet.next() ? Optional.of(convertToUUID(resultSet.getBytes(1))) : Optional.<UUID>empty();
+        }
+      });
+    } catch (SQLException exception) {
+      throw new RuntimeException("Failed to find %s by %s".formatted(itemType, key), exception);
+    }
+  }
+
+  @Override
+  public List<String> completeNames(Class<? extends GalleryItem> type, String prefix, int limit) {
+    String itemType = getItemType(type);
+    if (limit <= 0)
+      return List.of();
+    String prefixKey = NameTrie.normalize(prefix);
+    String prefixEnd = prefixEnd(prefixKey);
+    try {
+      return pool().apply(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(prefixEnd == null ? COMPLETE_ALL_NAMES_STATEMENT : COMPLETE_NAMES_STATEMENT);
+        int parameter = 1;
+        preparedStatement.setString(parameter++, itemType);
+        preparedStatement.setString(parameter++, prefixKey);
+        if (prefixEnd != null)
+          preparedStatement.setString(parameter++, prefixEnd);
+        preparedStatement.setInt(parameter, limit);
+        List<String> names = new ArrayList<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          while (resultSet.next())
+            names.add(resultSet.getString(1));
+        }
+        return names;
+      });
+    } catch (SQLException exception) {
+      throw new RuntimeException("Failed to complete %s names starting with \"%s\"".formatted(itemType, prefix), exception);
+    }
+  }
+
+  // The least string above every string starting with the prefix, null when no such string exists
+  private static String prefixEnd(String prefix) {
+    for (int index = prefix.length() - 1; index >= 0; index--) {
+      char character = prefix.charAt(index);
+      if (character != Character.MAX_VALUE)
+        return prefix.substring(0, index) + (char) (character + 1);
+    }
+    return null;
+  }
+
+  @Override
+  protected List<UUID> findOwners(Class<? extends GalleryItem> ownerType, UUID member) {
+    MembershipTable table = MembershipTable.ofOwnerType(getItemType(ownerType));
+    if (table == null)
+      return List.of();
+    try {
+      return pool().apply(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(table.selectOwnersStatement());
+        preparedStatement.setBytes(1, convertFromUUID(member));
+        List<UUID> owners = new ArrayList<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          while (resultSet.next())
+            owners.add(convertToUUID(resultSet.getBytes(1)));
+        }
+        return owners;
+      });
+    } catch (SQLException exception) {
+      throw new RuntimeException("Failed to find owners of \"%s\"".formatted(member), exception);
+    }
+  }
+
+  private void readMembers(PooledConnection connection, UUID owner, String itemType, Map<String, byte[]> rawProperties) throws SQLException {
+    MembershipTable table = MembershipTable.ofOwnerType(itemType);
+    if (table == null)
+      return;
+    PreparedStatement preparedStatement = connection.prepare(table.selectStatement());
+    preparedStatement.setBytes(1, convertFromUUID(owner));
+    ByteArrayOutputStream members = new ByteArrayOutputStream();
+    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+      while (resultSet.next())
+        members.writeBytes(resultSet.getBytes(1));
+    }
+    rawProperties.put(table.key, members.toByteArray());
+  }
+
+  @Override
+  protected synchronized void persistProperty(GalleryItem galleryItem, PropertyInstance<?> property) {
+    persistProperties(List.of(new PropertyUpdate(galleryItem, property)));
+  }
+
+  @Override
+  protected synchronized void persistProperties(List<PropertyUpdate> updates) {
+    inTransaction(connection -> {
+      PreparedStatement preparedStatement = connection.prepare(getUpsertPropertyStatement());
+      // Only the last of several updates to the same members is written, every replacement clears the rows at once
+      // while the inserts are batched, so two replacements would insert both member lists
+      Map<MembershipTable, Map<UUID, byte[]>> replacedMembers = new EnumMap<>(MembershipTable.class);
+      for (PropertyUpdate update : updates) {
+        MembershipTable table = MembershipTable.of(update.property().key().toString());
+        if (table != null) {
+          replacedMembers.computeIfAbsent(table, _ -> new LinkedHashMap<>())
+            .put(update.galleryItem().getUniqueId(), update.property().serialize());
+          continue;
+        }
+        if (update.property().key().toString().equals(CREATION_TIMESTAMP))
+          addCreatedAtBatch(connection, convertFromUUID(update.galleryItem().getUniqueId()), update.property().serialize());
+        if (update.property().key().toString().equals(NAME) || update.property().key().toString().equals(PATH))
+          addNameBatch(connection, convertFromUUID(update.galleryItem().getUniqueId()), update.galleryItem().getName().orElse(null));
+        preparedStatement.setBytes(1, convertFromUUID(update.galleryItem().getUniqueId()));
+        preparedStatement.setString(2, update.property().key().toString());
+        preparedStatement.setBytes(3, update.property().serialize());
+        preparedStatement.addBatch();
+      }
+      for (Map.Entry<MembershipTable, Map<UUID, byte[]>> tableMembers : replacedMembers.entrySet())
+        for (Map.Entry<UUID, byte[]> ownerMembers : tableMembers.getValue().entrySet())
+          addReplaceMembersBatch(connection, tableMembers.getKey(), ownerMembers.getKey(), ownerMembers.getValue());
+      preparedStatement.executeBatch();
+      connection.prepare(UPDATE_CREATED_AT_STATEMENT).executeBatch();
+      connection.prepare(UPDATE_NAME_STATEMENT).executeBatch();
+      for (MembershipTable table : MembershipTable.values())
+        connection.prepare(table.insertStatement()).executeBatch();
+    }, "Failed to update %d properties".formatted(updates.size()));
+  }
+
+  @Override
+  protected synchronized <T extends GalleryItem> void persistMember(GalleryItem owner, PropertyKey<Set<T>> key, T member, boolean added) {
+    MembershipTable table = MembershipTable.of(key.toString());
+    if (table == null) {
+      super.persistMember(owner, key, member, added);
+      return;
+    }
+    withPreparedStatement(added ? table.insertStatement() : table.deleteStatement(),
       (_, preparedStatement) -> {
-        preparedStatement.setBytes(1, convertFromUUID(galleryItem.getUniqueId()));
-        preparedStatement.setString(2, property.key().toString());
-        preparedStatement.setBytes(3, property.serialize());
+        preparedStatement.setBytes(1, convertFromUUID(owner.getUniqueId()));
+        preparedStatement.setBytes(2, convertFromUUID(member.getUniqueId()));
         preparedStatement.executeUpdate();
-      }, "Failed to update property \"%s\" for \"%s\"".formatted(property.key(), galleryItem)
+      }, "Failed to %s \"%s\" %s \"%s\"".formatted(added ? "add" : "remove", member, added ? "to" : "from", owner)
     );
   }
 
+  @Override
+  public void close() {
+    // Flush pending writes before taking the monitor, the write-behind thread needs it to finish an in-flight batch
+    boolean flushed = false;
+    try {
+      super.close();
+      flushed = true;
+    } finally {
+      synchronized (this) {
+        if (connectionPool != null) {
+          try {
+            // Without every pending write in the database, a snapshot would not match it
+            if (flushed && !isLazy() && snapshotSafe && !(loadedFromSnapshot && !changeRecorded))
+              writeSnapshot();
+          } finally {
+            connectionPool.close();
+            connectionPool = null;
+          }
+        }
+      }
+    }
+  }
+
+  private record RawItem(UUID uniqueId, Map<String, byte[]> properties) {
+  }
+
+  private enum MembershipTable {
+
+    ALBUM_PHOTOS(org.goodgallery.gallery.properties.Properties.PHOTOS_KEY, "album", "album_photos", "album_id", "photo_id"),
+    GROUP_ALBUMS(org.goodgallery.gallery.properties.Properties.ALBUMS_KEY, "group", "group_albums", "group_id", "album_id");
+
+    private final String key;
+    private final String ownerType;
+    private final String table;
+    private final String ownerColumn;
+    private final String memberColumn;
+
+    MembershipTable(PropertyKey<?> key, String ownerType, String table, String ownerColumn, String memberColumn) {
+      this.key = key.toString();
+      this.ownerType = ownerType;
+      this.table = table;
+      this.ownerColumn = ownerColumn;
+      this.memberColumn = memberColumn;
+    }
+
+    private static MembershipTable of(String key) {
+      for (MembershipTable table : values())
+        if (table.key.equals(key))
+          return table;
+      return null;
+    }
+
+    private static MembershipTable ofOwnerType(String itemType) {
+      for (MembershipTable table : values())
+        if (table.ownerType.equals(itemType))
+          return table;
+      return null;
+    }
+
+    private String insertStatement() {
+      return "INSERT INTO %s(%s, %s) VALUES(?,?) ON CONFLICT DO NOTHING;".formatted(table, ownerColumn, memberColumn);
+    }
+
+    private String deleteStatement() {
+      return "DELETE FROM %s WHERE %s = ? AND %s = ?;".formatted(table, ownerColumn, memberColumn);
+    }
+
+    private String selectStatement() {
+      return "SELECT %s FROM %s WHERE %s = ?;".formatted(memberColumn, table, ownerColumn);
+    }
+
+    private String selectOwnersStatement() {
+      return "SELECT %s FROM %s WHERE %s = ?;".formatted(ownerColumn, table, memberColumn);
+    }
+
+    private String clearStatement() {
+      return "DELETE FROM %s WHERE %s = ?;".formatted(table, ownerColumn);
+    }
+
+  }
+
   protected interface SQLConsumer<CONNECTION, STATEMENT> {
 
     void accept(CONNECTION connection, STATEMENT statement) throws SQLException;
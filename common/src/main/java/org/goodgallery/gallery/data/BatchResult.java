@@ -0,0 +1,52 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+
+import java.util.*;
+
+/**
+ * The outcome of a batch operation. Items that could not be processed are reported individually in
+ * {@link #failures()} together with the cause, while the rest of the batch is still applied.
+ */
+public record BatchResult<T extends GalleryItem>(List<T> succeeded, Map<T, Exception> failures) {
+
+  public BatchResult(List<T> succeeded, Map<T, Exception> failures) {
+    this.succeeded = Collections.unmodifiableList(succeeded);
+    this.failures = Collections.unmodifiableMap(failures);
+  }
+
+  public boolean isSuccessful() {
+    return failures.isEmpty();
+  }
+
+  static <T extends GalleryItem> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  static final class Builder<T extends GalleryItem> {
+
+    private final List<T> succeeded = new ArrayList<>();
+    private final Map<T, Exception> failures = new LinkedHashMap<>();
+
+    Builder<T> succeeded(T galleryItem) {
+      succeeded.add(galleryItem);
+      return this;
+    }
+
+    Builder<T> succeeded(Collection<T> galleryItems) {
+      succeeded.addAll(galleryItems);
+      return this;
+    }
+
+    Builder<T> failed(T galleryItem, Exception cause) {
+      failures.put(galleryItem, cause);
+      return this;
+    }
+
+    BatchResult<T> build() {
+      return new BatchResult<>(succeeded, failures);
+    }
+
+  }
+
+}
@@ -0,0 +1,240 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.Album;
+import org.goodgallery.gallery.GalleryItem;
+import org.goodgallery.gallery.Group;
+import org.goodgallery.gallery.Photo;
+import org.goodgallery.gallery.data.BinaryStore.StoredItem;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.goodgallery.gallery.properties.PropertyInstance;
+import org.goodgallery.gallery.properties.PropertyKey;
+import org.goodgallery.gallery.properties.SerializedProperties;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Stores the gallery in a single memory-mapped file. Loading only maps the file and locates its index, every item is
+ * fetched from the mapping on first access, so this backend always runs lazily. Writes reach the disk on
+ * {@link #flush()} or {@link #close()}, a crash loses those made since.
+ */
+public final class BinaryGalleryData extends AbstractGalleryData implements LazyItemSource {
+
+  private static final int DEFAULT_CACHE_CAPACITY = 10_000;
+  private static final byte PHOTO = 0;
+  private static final byte ALBUM = 1;
+  private static final byte GROUP = 2;
+  private static final int NAME_INDEX_PAGE_SIZE = 1_000;
+  // Every property findUniqueId is called with
+  private static final Set<String> LOOKUP_KEYS = Set.of(
+    Properties.NAME_KEY.toString(), Properties.PATH_KEY.toString(), Properties.CONTENT_HASH_KEY.toString()
+  );
+
+  private final BinaryStore store;
+  // Names of every item by type, built from the store on the first completion of a type and kept up to date from then
+  // on, guarded by itself
+  private final Map<Byte, NameTrie> nameIndexes = new HashMap<>();
+
+  public BinaryGalleryData(Path path) {
+    super(path.resolve("gallery.bin"));
+    this.store = new BinaryStore(super.path, 3, LOOKUP_KEYS);
+  }
+
+  private byte getItemType(GalleryItem galleryItem) {
+    return switch (galleryItem) {
+      case Photo _ -> PHOTO;
+      case Album _ -> ALBUM;
+      case Group _ -> GROUP;
+    };
+  }
+
+  private byte getItemType(Class<? extends GalleryItem> type) {
+    if (type == Photo.class)
+      return PHOTO;
+    if (type == Album.class)
+      return ALBUM;
+    if (type == Group.class)
+      return GROUP;
+    throw new IllegalArgumentException("Unknown item type \"%s\"".formatted(type.getSimpleName()));
+  }
+
+  private GalleryItem createItem(StoredItem storedItem) {
+    SerializedProperties serializedProperties = new SerializedProperties(storedItem.properties());
+    return switch (storedItem.type()) {
+      case PHOTO -> new Photo(storedItem.uniqueId(), serializedProperties);
+      case ALBUM -> new Album(storedItem.uniqueId(), serializedProperties);
+      case GROUP -> new Group(storedItem.uniqueId(), serializedProperties);
+      default -> throw new IllegalStateException("Unknown item type %d of \"%s\"".formatted(storedItem.type(), storedItem.uniqueId()));
+    };
+  }
+
+  private Map<String, byte[]> serializeProperties(GalleryItem galleryItem) {
+    Map<String, byte[]> serializedProperties = new LinkedHashMap<>();
+    for (PropertyInstance<?> property : ((PropertiesImpl) galleryItem.getProperties()).all())
+      if (property.isSet())
+        serializedProperties.put(property.key().toString(), property.serialize());
+    return serializedProperties;
+  }
+
+  private void write(GalleryItem galleryItem) {
+    try {
+      store.put(galleryItem.getUniqueId(), getItemType(galleryItem), serializeProperties(galleryItem));
+    } catch (IOException exception) {
+      throw new RuntimeException("Failed to write \"%s\" to \"%s\"".formatted(galleryItem, path), exception);
+    }
+    synchronized (nameIndexes) {
+      NameTrie nameIndex = nameIndexes.get(getItemType(galleryItem));
+      if (nameIndex != null)
+        nameIndex.put(galleryItem.getUniqueId(), galleryItem.getName());
+    }
+  }
+
+  private void erase(GalleryItem galleryItem) {
+    try {
+      store.remove(galleryItem.getUniqueId(), getItemType(galleryItem));
+    } catch (IOException exception) {
+      throw new RuntimeException("Failed to remove \"%s\" from \"%s\"".formatted(galleryItem, path), exception);
+    }
+    synchronized (nameIndexes) {
+      NameTrie nameIndex = nameIndexes.get(getItemType(galleryItem));
+      if (nameIndex != null)
+        nameIndex.remove(galleryItem.getUniqueId());
+    }
+  }
+
+  @Override
+  public synchronized void load() {
+    if (!isLazy())
+      enableLazyLoading(DEFAULT_CACHE_CAPACITY);
+    LoadReport.Builder report = new LoadReport.Builder(1);
+    synchronized (nameIndexes) {
+      nameIndexes.clear();
+    }
+    try {
+      boolean intact = store.open();
+      report.phase(intact ? "index" : "recovery", store.count(PHOTO) + store.count(ALBUM) + store.count(GROUP));
+    } catch (IOException exception) {
+      throw new RuntimeException("Failed to open \"%s\"".formatted(path), exception);
+    }
+    loadReport = report.build();
+  }
+
+  @Override
+  public Optional<GalleryItem> fetch(UUID uniqueId) {
+    return store.read(uniqueId).map(this::createItem);
+  }
+
+  @Override
+  public <T extends GalleryItem> List<T> fetchPage(Class<T> type, UUID after, int limit) {
+    List<StoredItem> storedItems = store.readPage(getItemType(type), after, limit);
+    List<T> page = new ArrayList<>(storedItems.size());
+    for (StoredItem storedItem : storedItems)
+      page.add(type.cast(createItem(storedItem)));
+    return page;
+  }
+
+  @Override
+  public int count(Class<? extends GalleryItem> type) {
+    return store.count(getItemType(type));
+  }
+
+  @Override
+  public Optional<UUID> findUniqueId(Class<? extends GalleryItem> type, PropertyKey<?> key, byte[] serializedValue) {
+    return store.find(getItemType(type), key.toString(), serializedValue);
+  }
+
+  // The file has no name index of its own, so names are read from every record once and indexed in memory
+  @Override
+  public List<String> completeNames(Class<? extends GalleryItem> type, String prefix, int limit) {
+    byte itemType = getItemType(type);
+    synchronized (nameIndexes) {
+      NameTrie nameIndex = nameIndexes.get(itemType);
+      if (nameIndex == null) {
+        nameIndex = new NameTrie();
+        List<StoredItem> storedItems = store.readPage(itemType, null, NAME_INDEX_PAGE_SIZE);
+        while (!storedItems.isEmpty()) {
+          for (StoredItem storedItem : storedItems)
+            nameIndex.put(storedItem.uniqueId(), createItem(storedItem).getName());
+          storedItems = store.readPage(itemType, storedItems.getLast().uniqueId(), NAME_INDEX_PAGE_SIZE);
+        }
+        nameIndexes.put(itemType, nameIndex);
+      }
+      return nameIndex.complete(prefix, limit);
+    }
+  }
+
+  @Override
+  protected void insert(GalleryItem galleryItem) {
+    write(galleryItem);
+  }
+
+  @Override
+  protected void delete(GalleryItem galleryItem) {
+    erase(galleryItem);
+  }
+
+  @Override
+  protected <T extends GalleryItem> BatchResult<T> insertAll(Collection<T> galleryItems) {
+    BatchResult.Builder<T> result = BatchResult.builder();
+    for (T galleryItem : galleryItems) {
+      try {
+        write(galleryItem);
+        result.succeeded(galleryItem);
+      } catch (RuntimeException exception) {
+        result.failed(galleryItem, exception);
+      }
+    }
+    return result.build();
+  }
+
+  @Override
+  protected <T extends GalleryItem> BatchResult<T> deleteAll(Collection<T> galleryItems) {
+    BatchResult.Builder<T> result = BatchResult.builder();
+    for (T galleryItem : galleryItems) {
+      try {
+        erase(galleryItem);
+        result.succeeded(galleryItem);
+      } catch (RuntimeException exception) {
+        result.failed(galleryItem, exception);
+      }
+    }
+    return result.build();
+  }
+
+  // Records hold the whole item, so an update rewrites it
+  @Override
+  protected void persistProperty(GalleryItem galleryItem, PropertyInstance<?> property) {
+    write(galleryItem);
+  }
+
+  @Override
+  protected void persistProperties(List<PropertyUpdate> updates) {
+    Set<GalleryItem> galleryItems = new LinkedHashSet<>();
+    for (PropertyUpdate update : updates)
+      galleryItems.add(update.galleryItem());
+    for (GalleryItem galleryItem : galleryItems)
+      write(galleryItem);
+  }
+
+  @Override
+  public void flush() {
+    super.flush();
+    store.force();
+  }
+
+  @Override
+  public void close() {
+    try {
+      super.close();
+    } finally {
+      try {
+        store.close();
+      } catch (IOException exception) {
+        throw new RuntimeException("Failed to close \"%s\"".formatted(path), exception);
+      }
+    }
+  }
+
+}
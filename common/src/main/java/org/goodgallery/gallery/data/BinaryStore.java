@@ -0,0 +1,686 @@
+package org.goodgallery.gallery.data;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A memory-mapped, append-only file of item records, indexed on close and rebuilt from the records after a crash.
+ *
+ * <pre>
+ * header  magic, version, state, data end, index offset, index count  (64 bytes)
+ * record  length, crc32, op, uuid, type, property count, (key length, key, data length, data)*
+ * index   length, crc32, op, slot count, live bytes, lookup buckets, slots, lookup buckets
+ * slot    uuid, record offset, record length, type                      (32 bytes, by type and UUID)
+ * bucket  hash tag, slot position + 1                                   (8 bytes, 0 when empty)
+ * </pre>
+ */
+final class BinaryStore implements AutoCloseable {
+
+  private static final long MAGIC = 0x4747_4249_4E41_5259L; // GGBINARY
+  private static final int VERSION = 2;
+  private static final int STATE_DIRTY = 0;
+  private static final int STATE_CLEAN = 1;
+
+  private static final long MAGIC_OFFSET = 0;
+  private static final long VERSION_OFFSET = 8;
+  private static final long STATE_OFFSET = 12;
+  private static final long DATA_END_OFFSET = 16;
+  private static final long INDEX_OFFSET_OFFSET = 24;
+  private static final long INDEX_COUNT_OFFSET = 32;
+  private static final int HEADER_SIZE = 64;
+
+  private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+  private static final int ITEM_HEADER_SIZE = 18;
+  private static final int INDEX_HEADER_SIZE = 1 + Long.BYTES * 3;
+  private static final int SLOT_SIZE = 32;
+  private static final int BUCKET_SIZE = Long.BYTES;
+  private static final int CHECKSUM_CHUNK_SIZE = 64 * 1024;
+  private static final byte OP_PUT = 1;
+  private static final byte OP_REMOVE = 2;
+  private static final byte OP_INDEX = 3;
+
+  private static final long MIN_MAPPING_SIZE = 1024 * 1024;
+  private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+  private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+  private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+  private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+  private static final Slot REMOVED = new Slot((byte) -1, 0, 0);
+
+  private final Path path;
+  private final int types;
+  private final List<byte[]> lookupKeys;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Changes since the index was written, by type, a removed item maps to REMOVED
+  private final List<TreeMap<UUID, Slot>> changedSlots;
+  private final Map<Long, List<UUID>> changedLookups = new HashMap<>();
+  private final int[] counts;
+  // Where each type's slots start in the index, the last element is the slot count
+  private final int[] indexTypeStart;
+
+  private FileChannel channel;
+  private Arena arena;
+  private MemorySegment mapping;
+  private long dataEnd;
+  private long liveBytes;
+  private long indexSlots;
+  private long indexBuckets;
+  private long bucketCount;
+  private boolean indexStale;
+
+  /**
+   * @param lookupKeys the properties {@link #find(byte, String, byte[])} can look items up by
+   */
+  BinaryStore(Path path, int types, Set<String> lookupKeys) {
+    this(path, types, lookupKeys.stream().map(key -> key.getBytes(StandardCharsets.UTF_8)).toList());
+  }
+
+  private BinaryStore(Path path, int types, List<byte[]> lookupKeys) {
+    this.path = path;
+    this.types = types;
+    this.lookupKeys = lookupKeys;
+    this.changedSlots = new ArrayList<>(types);
+    for (int type = 0; type < types; type++)
+      changedSlots.add(new TreeMap<>());
+    this.counts = new int[types];
+    this.indexTypeStart = new int[types + 1];
+  }
+
+  /**
+   * @return {@code false} if the index had to be rebuilt from the records
+   */
+  public boolean open() throws IOException {
+    lock.writeLock().lock();
+    try {
+      channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long fileSize = channel.size();
+      map(Math.max(fileSize, MIN_MAPPING_SIZE));
+
+      boolean intact;
+      if (fileSize == 0) {
+        mapping.set(LONG, MAGIC_OFFSET, MAGIC);
+        dataEnd = HEADER_SIZE;
+        indexStale = true;
+        intact = true;
+      } else {
+        if (fileSize < HEADER_SIZE || mapping.get(LONG, MAGIC_OFFSET) != MAGIC)
+          throw new IOException("\"%s\" is not a gallery binary file".formatted(path));
+        int version = mapping.get(INT, VERSION_OFFSET);
+        if (version != 1 && version != VERSION)
+          throw new IOException("Unsupported version %d of \"%s\"".formatted(version, path));
+        dataEnd = mapping.get(LONG, DATA_END_OFFSET);
+        intact = version == VERSION && readIndex(fileSize);
+        if (!intact)
+          // The index of version 1 files follows the data without being a record
+          recover(version == 1 ? Math.min(dataEnd, fileSize) : fileSize);
+      }
+
+      // Appends overwrite whatever follows the data, so mark the file dirty before the first one
+      mapping.set(INT, VERSION_OFFSET, VERSION);
+      mapping.set(INT, STATE_OFFSET, STATE_DIRTY);
+      mapping.set(LONG, DATA_END_OFFSET, dataEnd);
+      mapping.asSlice(0, HEADER_SIZE).force();
+      return intact;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Only the bounds are checked, reading the slots themselves is what the index saves
+  private boolean readIndex(long fileSize) {
+    if (mapping.get(INT, STATE_OFFSET) != STATE_CLEAN || dataEnd > fileSize)
+      return false;
+    long indexOffset = mapping.get(LONG, INDEX_OFFSET_OFFSET);
+    if (indexOffset < HEADER_SIZE || indexOffset + RECORD_HEADER_SIZE + INDEX_HEADER_SIZE > dataEnd)
+      return false;
+    long body = indexOffset + RECORD_HEADER_SIZE;
+    long slotCount = mapping.get(LONG, body + 1);
+    long buckets = mapping.get(LONG, body + 1 + Long.BYTES * 2);
+    long length = RECORD_HEADER_SIZE + INDEX_HEADER_SIZE + slotCount * SLOT_SIZE + buckets * BUCKET_SIZE;
+    if (mapping.get(ValueLayout.JAVA_BYTE, body) != OP_INDEX || slotCount < 0 || slotCount > Integer.MAX_VALUE - 1
+      || buckets < 0 || mapping.get(INT, indexOffset) != length || indexOffset + length != dataEnd)
+      return false;
+
+    indexSlots = body + INDEX_HEADER_SIZE;
+    indexBuckets = indexSlots + slotCount * SLOT_SIZE;
+    bucketCount = buckets;
+    liveBytes = mapping.get(LONG, body + 1 + Long.BYTES);
+    indexTypeStart[types] = (int) slotCount;
+    if (slotCount > 0 && (indexType(0) < 0 || indexType((int) slotCount - 1) >= types))
+      return false;
+    for (int type = 0; type < types; type++)
+      indexTypeStart[type] = typeStart(type);
+    for (int type = 0; type < types; type++)
+      counts[type] = indexTypeStart[type + 1] - indexTypeStart[type];
+    return true;
+  }
+
+  private int typeStart(int type) {
+    int low = 0;
+    int high = indexTypeStart[types];
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (indexType(middle) < type)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  private void clearIndex() {
+    Arrays.fill(indexTypeStart, 0);
+    Arrays.fill(counts, 0);
+    bucketCount = 0;
+    liveBytes = 0;
+  }
+
+  // A record running past the limit or failing its checksum was torn by a crash, it and everything after it is dropped
+  private void recover(long limit) {
+    clearIndex();
+    changedSlots.forEach(Map::clear);
+    changedLookups.clear();
+    indexStale = true;
+    long offset = HEADER_SIZE;
+    while (offset + RECORD_HEADER_SIZE <= limit) {
+      int length = mapping.get(INT, offset);
+      if (length < RECORD_HEADER_SIZE + 1 || offset + length > limit || checksum(offset, length) != mapping.get(INT, offset + Integer.BYTES))
+        break;
+      long body = offset + RECORD_HEADER_SIZE;
+      byte op = mapping.get(ValueLayout.JAVA_BYTE, body);
+      if (op != OP_INDEX) {
+        if (length < RECORD_HEADER_SIZE + ITEM_HEADER_SIZE)
+          break;
+        byte type = mapping.get(ValueLayout.JAVA_BYTE, body + 17);
+        if (type < 0 || type >= types)
+          break;
+        apply(new UUID(mapping.get(LONG, body + 1), mapping.get(LONG, body + 9)), type, op, offset, length);
+      }
+      offset += length;
+    }
+    dataEnd = offset;
+  }
+
+  // Copied out in chunks, CRC32 rejects buffers of a shared mapping on some JDKs
+  private int checksum(long offset, int length) {
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[Math.min(length - RECORD_HEADER_SIZE, CHECKSUM_CHUNK_SIZE)];
+    long end = offset + length;
+    for (long position = offset + RECORD_HEADER_SIZE; position < end; position += chunk.length) {
+      int size = (int) Math.min(chunk.length, end - position);
+      MemorySegment.copy(mapping, ValueLayout.JAVA_BYTE, position, chunk, 0, size);
+      crc.update(chunk, 0, size);
+    }
+    return (int) crc.getValue();
+  }
+
+  private void map(long size) throws IOException {
+    Arena newArena = Arena.ofShared();
+    MemorySegment newMapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, newArena);
+    if (arena != null)
+      arena.close();
+    arena = newArena;
+    mapping = newMapping;
+  }
+
+  private void ensureCapacity(long size) throws IOException {
+    if (size <= mapping.byteSize())
+      return;
+    map(Math.max(size, mapping.byteSize() * 2));
+  }
+
+  private byte indexType(int position) {
+    return mapping.get(ValueLayout.JAVA_BYTE, indexSlots + (long) position * SLOT_SIZE + 28);
+  }
+
+  private UUID indexUniqueId(int position) {
+    long slot = indexSlots + (long) position * SLOT_SIZE;
+    return new UUID(mapping.get(LONG, slot), mapping.get(LONG, slot + 8));
+  }
+
+  private Slot indexSlot(int position) {
+    long slot = indexSlots + (long) position * SLOT_SIZE;
+    return new Slot(mapping.get(ValueLayout.JAVA_BYTE, slot + 28), mapping.get(LONG, slot + 16), mapping.get(INT, slot + 24));
+  }
+
+  // The position of the first indexed slot of the type not ordered before the UUID
+  private int indexPosition(int type, UUID uniqueId) {
+    int low = indexTypeStart[type];
+    int high = indexTypeStart[type + 1];
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (indexUniqueId(middle).compareTo(uniqueId) < 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  private Slot findSlot(UUID uniqueId) {
+    for (TreeMap<UUID, Slot> slots : changedSlots) {
+      Slot slot = slots.get(uniqueId);
+      if (slot != null)
+        return slot == REMOVED ? null : slot;
+    }
+    for (int type = 0; type < types; type++) {
+      int position = indexPosition(type, uniqueId);
+      if (position < indexTypeStart[type + 1] && indexUniqueId(position).equals(uniqueId))
+        return indexSlot(position);
+    }
+    return null;
+  }
+
+  private void apply(UUID uniqueId, byte type, byte op, long offset, int length) {
+    Slot previous = findSlot(uniqueId);
+    if (previous != null) {
+      counts[previous.type()]--;
+      liveBytes -= previous.length();
+      changedSlots.get(previous.type()).put(uniqueId, REMOVED);
+    }
+    if (op != OP_PUT)
+      return;
+    Slot slot = new Slot(type, offset, length);
+    changedSlots.get(type).put(uniqueId, slot);
+    counts[type]++;
+    liveBytes += length;
+    forEachLookup(slot, hash -> {
+      List<UUID> candidates = changedLookups.computeIfAbsent(hash, _ -> new ArrayList<>(1));
+      if (!candidates.contains(uniqueId))
+        candidates.add(uniqueId);
+    });
+  }
+
+  private void forEachLookup(Slot slot, LookupConsumer consumer) {
+    long position = slot.offset() + RECORD_HEADER_SIZE + ITEM_HEADER_SIZE;
+    short propertyCount = mapping.get(SHORT, position);
+    position += Short.BYTES;
+    for (int i = 0; i < propertyCount; i++) {
+      short keyLength = mapping.get(SHORT, position);
+      position += Short.BYTES;
+      long key = position;
+      position += keyLength;
+      int dataLength = mapping.get(INT, position);
+      position += Integer.BYTES;
+      for (byte[] lookupKey : lookupKeys) {
+        if (lookupKey.length == keyLength && MemorySegment.mismatch(mapping, key, key + keyLength, MemorySegment.ofArray(lookupKey), 0, keyLength) == -1) {
+          consumer.accept(lookupHash(slot.type(), lookupKey, mapping, position, dataLength));
+          break;
+        }
+      }
+      position += dataLength;
+    }
+  }
+
+  // FNV-1a, never 0 so an empty bucket can be told apart
+  private static long lookupHash(byte type, byte[] key, MemorySegment data, long offset, long length) {
+    long hash = 0xCBF2_9CE4_8422_2325L;
+    hash = (hash ^ type) * 0x100_0000_01B3L;
+    for (byte b : key)
+      hash = (hash ^ (b & 0xFF)) * 0x100_0000_01B3L;
+    hash = (hash ^ 0xFF) * 0x100_0000_01B3L;
+    for (long i = 0; i < length; i++)
+      hash = (hash ^ (data.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFF)) * 0x100_0000_01B3L;
+    return hash == 0 ? 1 : hash;
+  }
+
+  public Optional<StoredItem> read(UUID uniqueId) {
+    lock.readLock().lock();
+    try {
+      Slot slot = findSlot(uniqueId);
+      return slot == null ? Optional.empty() : Optional.of(new StoredItem(uniqueId, slot.type(), readProperties(slot)));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public List<StoredItem> readPage(byte type, UUID after, int limit) {
+    lock.readLock().lock();
+    try {
+      List<StoredItem> items = new ArrayList<>(Math.min(limit, counts[type]));
+      SlotCursor cursor = new SlotCursor(type, after);
+      while (items.size() < limit && cursor.next())
+        items.add(new StoredItem(cursor.uniqueId, type, readProperties(cursor.slot)));
+      return items;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int count(byte type) {
+    lock.readLock().lock();
+    try {
+      return counts[type];
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public Optional<UUID> find(byte type, String key, byte[] value) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    if (lookupKeys.stream().noneMatch(lookupKey -> Arrays.equals(lookupKey, keyBytes)))
+      throw new IllegalArgumentException("Property \"%s\" is not a lookup key of \"%s\"".formatted(key, path));
+    long hash = lookupHash(type, keyBytes, MemorySegment.ofArray(value), 0, value.length);
+    lock.readLock().lock();
+    try {
+      for (UUID candidate : changedLookups.getOrDefault(hash, List.of()))
+        if (matches(candidate, type, keyBytes, value))
+          return Optional.of(candidate);
+      if (bucketCount == 0)
+        return Optional.empty();
+      // Linear probing, an entry may be stale when its item changed since the index was written
+      for (long bucket = Long.remainderUnsigned(hash, bucketCount); ; bucket = bucket + 1 == bucketCount ? 0 : bucket + 1) {
+        long entry = mapping.get(LONG, indexBuckets + bucket * BUCKET_SIZE);
+        if (entry == 0)
+          return Optional.empty();
+        if ((int) (entry >>> 32) == (int) (hash >>> 32)) {
+          UUID candidate = indexUniqueId((int) entry - 1);
+          if (matches(candidate, type, keyBytes, value))
+            return Optional.of(candidate);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Compares the current record of the item against the mapping in place
+  private boolean matches(UUID uniqueId, byte type, byte[] key, byte[] value) {
+    Slot slot = findSlot(uniqueId);
+    if (slot == null || slot.type() != type)
+      return false;
+    MemorySegment keySegment = MemorySegment.ofArray(key);
+    MemorySegment valueSegment = MemorySegment.ofArray(value);
+    long position = slot.offset() + RECORD_HEADER_SIZE + ITEM_HEADER_SIZE;
+    short propertyCount = mapping.get(SHORT, position);
+    position += Short.BYTES;
+    for (int i = 0; i < propertyCount; i++) {
+      short keyLength = mapping.get(SHORT, position);
+      position += Short.BYTES;
+      boolean keyMatches = MemorySegment.mismatch(mapping, position, position + keyLength, keySegment, 0, key.length) == -1;
+      position += keyLength;
+      int dataLength = mapping.get(INT, position);
+      position += Integer.BYTES;
+      if (keyMatches)
+        return MemorySegment.mismatch(mapping, position, position + dataLength, valueSegment, 0, value.length) == -1;
+      position += dataLength;
+    }
+    return false;
+  }
+
+  private Map<String, byte[]> readProperties(Slot slot) {
+    long position = slot.offset() + RECORD_HEADER_SIZE + ITEM_HEADER_SIZE;
+    short propertyCount = mapping.get(SHORT, position);
+    position += Short.BYTES;
+    Map<String, byte[]> properties = new HashMap<>(propertyCount * 2);
+    for (int i = 0; i < propertyCount; i++) {
+      short keyLength = mapping.get(SHORT, position);
+      position += Short.BYTES;
+      String key = new String(mapping.asSlice(position, keyLength).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+      position += keyLength;
+      int dataLength = mapping.get(INT, position);
+      position += Integer.BYTES;
+      properties.put(key, mapping.asSlice(position, dataLength).toArray(ValueLayout.JAVA_BYTE));
+      position += dataLength;
+    }
+    return properties;
+  }
+
+  public void put(UUID uniqueId, byte type, Map<String, byte[]> properties) throws IOException {
+    List<byte[]> keys = new ArrayList<>(properties.size());
+    int bodyLength = ITEM_HEADER_SIZE + Short.BYTES;
+    for (Map.Entry<String, byte[]> property : properties.entrySet()) {
+      byte[] key = property.getKey().getBytes(StandardCharsets.UTF_8);
+      keys.add(key);
+      bodyLength += Short.BYTES + key.length + Integer.BYTES + property.getValue().length;
+    }
+
+    ByteBuffer body = ByteBuffer.allocate(bodyLength);
+    writeBodyHeader(body, OP_PUT, uniqueId, type);
+    body.putShort((short) properties.size());
+    int i = 0;
+    for (byte[] data : properties.values()) {
+      byte[] key = keys.get(i++);
+      body.putShort((short) key.length).put(key).putInt(data.length).put(data);
+    }
+    append(uniqueId, type, OP_PUT, body.array());
+  }
+
+  public void remove(UUID uniqueId, byte type) throws IOException {
+    ByteBuffer body = ByteBuffer.allocate(ITEM_HEADER_SIZE);
+    writeBodyHeader(body, OP_REMOVE, uniqueId, type);
+    append(uniqueId, type, OP_REMOVE, body.array());
+  }
+
+  private void writeBodyHeader(ByteBuffer body, byte op, UUID uniqueId, byte type) {
+    body.put(op).putLong(uniqueId.getMostSignificantBits()).putLong(uniqueId.getLeastSignificantBits()).put(type);
+  }
+
+  private void append(UUID uniqueId, byte type, byte op, byte[] body) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    int length = RECORD_HEADER_SIZE + body.length;
+
+    lock.writeLock().lock();
+    try {
+      if (mapping == null)
+        throw new IllegalStateException("Binary store \"%s\" is not open".formatted(path));
+      ensureCapacity(dataEnd + length);
+      long offset = dataEnd;
+      mapping.set(INT, offset, length);
+      mapping.set(INT, offset + Integer.BYTES, (int) crc.getValue());
+      MemorySegment.copy(body, 0, mapping, ValueLayout.JAVA_BYTE, offset + RECORD_HEADER_SIZE, body.length);
+
+      // Publish the record only once it is complete
+      dataEnd += length;
+      mapping.set(LONG, DATA_END_OFFSET, dataEnd);
+      apply(uniqueId, type, op, offset, length);
+      indexStale = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void force() {
+    lock.readLock().lock();
+    try {
+      if (mapping != null)
+        mapping.force();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Compacts first when superseded records outweigh live ones
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (mapping == null)
+        return;
+      long deadBytes = dataEnd - HEADER_SIZE - liveBytes;
+      if (deadBytes > liveBytes && deadBytes > MIN_COMPACTION_BYTES)
+        compact();
+      else {
+        if (indexStale)
+          writeIndex();
+        mapping.set(INT, STATE_OFFSET, STATE_CLEAN);
+        mapping.force();
+        unmap();
+        channel.truncate(dataEnd);
+      }
+      channel.close();
+      channel = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void writeIndex() throws IOException {
+    int slotCount = Arrays.stream(counts).sum();
+    long lookupCount = 0;
+    for (byte type = 0; type < types; type++) {
+      SlotCursor cursor = new SlotCursor(type, null);
+      while (cursor.next())
+        lookupCount += countLookups(cursor.slot);
+    }
+    // At most three quarters full, so probes stay short
+    long buckets = lookupCount == 0 ? 0 : lookupCount + lookupCount / 3 + 1;
+    long length = RECORD_HEADER_SIZE + INDEX_HEADER_SIZE + (long) slotCount * SLOT_SIZE + buckets * BUCKET_SIZE;
+    if (length > Integer.MAX_VALUE)
+      throw new IOException("Index of \"%s\" is too large".formatted(path));
+    long offset = dataEnd;
+    ensureCapacity(offset + length);
+
+    long body = offset + RECORD_HEADER_SIZE;
+    long slots = body + INDEX_HEADER_SIZE;
+    long bucketsOffset = slots + (long) slotCount * SLOT_SIZE;
+    mapping.asSlice(bucketsOffset, buckets * BUCKET_SIZE).fill((byte) 0);
+    mapping.set(ValueLayout.JAVA_BYTE, body, OP_INDEX);
+    mapping.set(LONG, body + 1, slotCount);
+    mapping.set(LONG, body + 1 + Long.BYTES, liveBytes);
+    mapping.set(LONG, body + 1 + Long.BYTES * 2, buckets);
+
+    int position = 0;
+    for (byte type = 0; type < types; type++) {
+      SlotCursor cursor = new SlotCursor(type, null);
+      while (cursor.next()) {
+        long entry = slots + (long) position * SLOT_SIZE;
+        mapping.set(LONG, entry, cursor.uniqueId.getMostSignificantBits());
+        mapping.set(LONG, entry + 8, cursor.uniqueId.getLeastSignificantBits());
+        mapping.set(LONG, entry + 16, cursor.slot.offset());
+        mapping.set(INT, entry + 24, cursor.slot.length());
+        mapping.set(ValueLayout.JAVA_BYTE, entry + 28, type);
+        long bucketEntry = position + 1;
+        forEachLookup(cursor.slot, hash -> {
+          long bucket = Long.remainderUnsigned(hash, buckets);
+          while (mapping.get(LONG, bucketsOffset + bucket * BUCKET_SIZE) != 0)
+            bucket = bucket + 1 == buckets ? 0 : bucket + 1;
+          mapping.set(LONG, bucketsOffset + bucket * BUCKET_SIZE, (hash & 0xFFFF_FFFF_0000_0000L) | bucketEntry);
+        });
+        position++;
+      }
+    }
+
+    mapping.set(INT, offset, (int) length);
+    mapping.set(INT, offset + Integer.BYTES, checksum(offset, (int) length));
+    dataEnd += length;
+    mapping.set(LONG, DATA_END_OFFSET, dataEnd);
+    mapping.set(LONG, INDEX_OFFSET_OFFSET, offset);
+    mapping.set(LONG, INDEX_COUNT_OFFSET, slotCount);
+  }
+
+  private int countLookups(Slot slot) {
+    int[] lookups = {0};
+    forEachLookup(slot, _ -> lookups[0]++);
+    return lookups[0];
+  }
+
+  private void compact() throws IOException {
+    Path compactedPath = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.deleteIfExists(compactedPath);
+    BinaryStore compacted = new BinaryStore(compactedPath, types, lookupKeys);
+    compacted.open();
+    for (byte type = 0; type < types; type++) {
+      SlotCursor cursor = new SlotCursor(type, null);
+      while (cursor.next())
+        compacted.appendRaw(cursor.uniqueId, cursor.slot, mapping.asSlice(cursor.slot.offset(), cursor.slot.length()));
+    }
+    compacted.close();
+    unmap();
+    channel.close();
+    Files.move(compactedPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+  }
+
+  private void appendRaw(UUID uniqueId, Slot slot, MemorySegment record) throws IOException {
+    ensureCapacity(dataEnd + slot.length());
+    long offset = dataEnd;
+    MemorySegment.copy(record, 0, mapping, offset, slot.length());
+    dataEnd += slot.length();
+    mapping.set(LONG, DATA_END_OFFSET, dataEnd);
+    apply(uniqueId, slot.type(), OP_PUT, offset, slot.length());
+    indexStale = true;
+  }
+
+  private void unmap() {
+    arena.close();
+    arena = null;
+    mapping = null;
+  }
+
+  @FunctionalInterface
+  private interface LookupConsumer {
+
+    void accept(long hash);
+
+  }
+
+  // The index merged with the changes made since it was written, in UUID order
+  private final class SlotCursor {
+
+    private final Iterator<Map.Entry<UUID, Slot>> changes;
+    private final int end;
+    private Map.Entry<UUID, Slot> change;
+    private int position;
+    private UUID uniqueId;
+    private Slot slot;
+
+    private SlotCursor(int type, UUID after) {
+      NavigableMap<UUID, Slot> slots = after == null ? changedSlots.get(type) : changedSlots.get(type).tailMap(after, false);
+      this.changes = slots.entrySet().iterator();
+      this.change = changes.hasNext() ? changes.next() : null;
+      this.end = indexTypeStart[type + 1];
+      this.position = after == null ? indexTypeStart[type] : indexPosition(type, after);
+      if (after != null && position < end && indexUniqueId(position).equals(after))
+        position++;
+    }
+
+    private boolean next() {
+      while (true) {
+        UUID indexed = position < end ? indexUniqueId(position) : null;
+        if (indexed == null && change == null)
+          return false;
+        int comparison = indexed == null ? 1 : change == null ? -1 : indexed.compareTo(change.getKey());
+        if (comparison < 0) {
+          uniqueId = indexed;
+          slot = indexSlot(position++);
+          return true;
+        }
+        // A change supersedes the indexed slot of the same item
+        if (comparison == 0)
+          position++;
+        Map.Entry<UUID, Slot> current = change;
+        change = changes.hasNext() ? changes.next() : null;
+        if (current.getValue() != REMOVED) {
+          uniqueId = current.getKey();
+          slot = current.getValue();
+          return true;
+        }
+      }
+    }
+
+  }
+
+  private record Slot(byte type, long offset, int length) {
+  }
+
+  record StoredItem(UUID uniqueId, byte type, Map<String, byte[]> properties) {
+  }
+
+}
@@ -0,0 +1,23 @@
+package org.goodgallery.gallery.data;
+
+import java.util.List;
+
+/**
+ * Counters of the item cache used when items are loaded on demand.
+ */
+public record CacheStats(long hits, long misses, long evictions, int size, int capacity) {
+
+  public double hitRate() {
+    long requests = hits + misses;
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  public List<String> describe() {
+    return List.of(
+      "Item cache: %d/%d items".formatted(size, capacity),
+      " hits: %d, misses: %d (%.1f%% hit rate)".formatted(hits, misses, hitRate() * 100),
+      " evictions: %d".formatted(evictions)
+    );
+  }
+
+}
@@ -0,0 +1,63 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * A read-only view over items that are kept in storage rather than memory. Iterating fetches the items one page at a
+ * time in UUID order, continuing after the last UUID of the previous page, so only a single page is held at once and
+ * items added or removed during iteration never shift the pages that follow.
+ */
+final class CursorCollection<T extends GalleryItem> extends AbstractCollection<T> {
+
+  static final int PAGE_SIZE = 512;
+
+  private final BiFunction<UUID, Integer, List<T>> pageFetcher;
+  private final IntSupplier counter;
+
+  CursorCollection(BiFunction<UUID, Integer, List<T>> pageFetcher, IntSupplier counter) {
+    this.pageFetcher = pageFetcher;
+    this.counter = counter;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<>() {
+
+      private List<T> page = pageFetcher.apply(null, PAGE_SIZE);
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        if (index < page.size())
+          return true;
+        if (page.size() < PAGE_SIZE)
+          return false;
+        page = pageFetcher.apply(page.getLast().getUniqueId(), PAGE_SIZE);
+        index = 0;
+        return !page.isEmpty();
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        return page.get(index++);
+      }
+
+    };
+  }
+
+  @Override
+  public int size() {
+    return counter.getAsInt();
+  }
+
+}
@@ -0,0 +1,139 @@
+package org.goodgallery.gallery.data;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers change events to each listener in batches from its own coalescing queue, so a slow listener only delays
+ * itself. A full queue drops events for further items.
+ */
+final class EventBus implements AutoCloseable {
+
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+  private final int maxPendingEvents;
+  private final ExecutorService executor;
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  private final LongAdder published = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder delivered = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  EventBus(int maxPendingEvents) {
+    if (maxPendingEvents < 1)
+      throw new IllegalArgumentException("Event queue capacity must be at least 1");
+    this.maxPendingEvents = maxPendingEvents;
+    this.executor = Executors.newCachedThreadPool(Thread.ofPlatform().name("GoodGallery-Events-", 0).daemon().factory());
+  }
+
+  void subscribe(GalleryListener listener) {
+    subscriptions.add(new Subscription(listener));
+  }
+
+  void unsubscribe(GalleryListener listener) {
+    subscriptions.removeIf(subscription -> subscription.listener == listener);
+  }
+
+  void publish(GalleryEvent event) {
+    published.increment();
+    for (Subscription subscription : subscriptions)
+      subscription.offer(event);
+  }
+
+  EventStats stats() {
+    int queueDepth = 0;
+    for (Subscription subscription : subscriptions)
+      queueDepth += subscription.depth();
+    return new EventStats(subscriptions.size(), queueDepth, published.sum(), coalesced.sum(), delivered.sum(), failed.sum(),
+      dropped.sum());
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+        System.out.println("Event listeners did not finish within " + CLOSE_TIMEOUT.toSeconds() + " seconds");
+    } catch (InterruptedException _) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private final class Subscription {
+
+    private final GalleryListener listener;
+    private Map<UUID, GalleryEvent> pendingEvents = new LinkedHashMap<>();
+    private boolean scheduled = false;
+
+    Subscription(GalleryListener listener) {
+      this.listener = listener;
+    }
+
+    synchronized void offer(GalleryEvent event) {
+      UUID uniqueId = event.galleryItem().getUniqueId();
+      GalleryEvent previous = pendingEvents.get(uniqueId);
+      if (previous != null) {
+        coalesced.increment();
+        GalleryEvent merged = previous.coalesce(event);
+        if (merged == null)
+          pendingEvents.remove(uniqueId);
+        else
+          pendingEvents.put(uniqueId, merged);
+      } else if (pendingEvents.size() < maxPendingEvents) {
+        pendingEvents.put(uniqueId, event);
+      } else {
+        dropped.increment();
+        return;
+      }
+
+      if (scheduled || pendingEvents.isEmpty())
+        return;
+      try {
+        executor.execute(this::deliver);
+        scheduled = true;
+      } catch (RejectedExecutionException _) {
+        // Closing, nothing is delivered anymore
+      }
+    }
+
+    synchronized int depth() {
+      return pendingEvents.size();
+    }
+
+    private void deliver() {
+      while (true) {
+        List<GalleryEvent> batch;
+        synchronized (this) {
+          if (pendingEvents.isEmpty()) {
+            scheduled = false;
+            return;
+          }
+          batch = new ArrayList<>(pendingEvents.values());
+          pendingEvents = new LinkedHashMap<>();
+        }
+        try {
+          listener.onEvents(batch);
+          delivered.add(batch.size());
+        } catch (RuntimeException exception) {
+          failed.add(batch.size());
+          System.out.println("Gallery listener " + listener + " failed");
+          exception.printStackTrace(System.out);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,20 @@
+package org.goodgallery.gallery.data;
+
+import java.util.List;
+
+/**
+ * Counters of the change events published to listeners. Published events are counted once, the others once per
+ * listener, and events of a batch whose listener threw count as failed rather than delivered.
+ */
+public record EventStats(int listeners, int queueDepth, long published, long coalesced, long delivered, long failed,
+                         long dropped) {
+
+  public List<String> describe() {
+    return List.of(
+      "Events: %d listener(s), %d queued".formatted(listeners, queueDepth),
+      " published: %d, coalesced: %d, delivered: %d".formatted(published, coalesced, delivered),
+      " failed: %d, dropped: %d".formatted(failed, dropped)
+    );
+  }
+
+}
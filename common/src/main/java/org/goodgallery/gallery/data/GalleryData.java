@@ -5,10 +5,13 @@ import org.goodgallery.gallery.GalleryItem;
 import org.goodgallery.gallery.Group;
 import org.goodgallery.gallery.Photo;
 import org.goodgallery.gallery.properties.PropertyInstance;
+import org.goodgallery.gallery.properties.PropertyKey;
 
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 public interface GalleryData {
@@ -33,6 +36,27 @@ public interface GalleryData {
 
   Optional<Photo> getPhoto(String name);
 
+  /**
+   * A photo whose file has the given content hash, see {@link org.goodgallery.gallery.Photo#getContentHash()}.
+   */
+  Optional<Photo> getPhotoByContentHash(String contentHash);
+
+  /**
+   * Up to {@code limit} distinct photo names starting with {@code prefix}, ignoring case, in alphabetical order.
+   */
+  List<String> completePhotoNames(String prefix, int limit);
+
+  /**
+   * The photos created from {@code from} inclusive to {@code to} exclusive, in epoch milliseconds, oldest first.
+   */
+  List<Photo> getPhotosCreatedBetween(long from, long to);
+
+  /**
+   * Up to {@code limit} photos positioned on the timeline before {@code before}, newest first. Pass {@code null} for
+   * the newest photos and the position of the last photo returned for the next page.
+   */
+  List<Photo> getPhotosCreatedBefore(TimelinePosition before, int limit);
+
   void remove(Photo photo);
 
   void add(Album album);
@@ -51,6 +75,8 @@ public interface GalleryData {
 
   Optional<Album> getAlbum(String name);
 
+  List<String> completeAlbumNames(String prefix, int limit);
+
   void remove(Album album);
 
   void add(Group group);
@@ -69,8 +95,60 @@ public interface GalleryData {
 
   Optional<Group> getGroup(String name);
 
+  List<String> completeGroupNames(String prefix, int limit);
+
   void remove(Group group);
 
+  /**
+   * The albums that contain the photo.
+   */
+  Collection<Album> getAlbumsContaining(Photo photo);
+
+  /**
+   * The groups that contain the album.
+   */
+  Collection<Group> getGroupsContaining(Album album);
+
+  /**
+   * The items and their membership as of the latest completed change, property values of the items stay live. Taking
+   * a snapshot copies every item reference without blocking writers, and consecutive snapshots without changes in
+   * between are the same instance.
+   */
+  GallerySnapshot snapshot();
+
+  /**
+   * Add every item in a single storage operation. Items that fail are reported in the result and do not prevent the
+   * remaining items from being added.
+   */
+  <T extends GalleryItem> BatchResult<T> addAll(Collection<T> galleryItems);
+
+  /**
+   * Remove every item in a single storage operation. Items that fail are reported in the result and do not prevent
+   * the remaining items from being removed.
+   */
+  <T extends GalleryItem> BatchResult<T> removeAll(Collection<T> galleryItems);
+
   void updateProperty(GalleryItem galleryItem, PropertyInstance<?> property);
 
+  /**
+   * Persist several property updates, in a single storage operation where the backend supports it.
+   */
+  void updateProperties(List<PropertyUpdate> updates);
+
+  /**
+   * Add {@code member} to the membership property {@code key} of {@code owner} and persist it, if it is not a member
+   * yet. Changes to the same owner are applied one at a time and replace the set rather than modifying it, so snapshots
+   * can share it.
+   */
+  <T extends GalleryItem> void addMember(GalleryItem owner, PropertyKey<Set<T>> key, T member);
+
+  /**
+   * Remove {@code member} from the membership property {@code key} of {@code owner} and persist it, if it is a member.
+   */
+  <T extends GalleryItem> void removeMember(GalleryItem owner, PropertyKey<Set<T>> key, T member);
+
+  void flush();
+
+  void close();
+
 }
\ No newline at end of file
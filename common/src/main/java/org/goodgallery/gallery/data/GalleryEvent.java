@@ -0,0 +1,50 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+import org.goodgallery.gallery.properties.PropertyKey;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A change to one item. Changes to the same item that pile up before a listener receives them are coalesced into a
+ * single event, so a listener sees the net effect: an item added and then changed is reported as added, one added and
+ * removed again is not reported at all, and the keys of successive property changes are merged.
+ */
+public record GalleryEvent(Type type, GalleryItem galleryItem, Set<PropertyKey<?>> changedProperties) {
+
+  static GalleryEvent added(GalleryItem galleryItem) {
+    return new GalleryEvent(Type.ADDED, galleryItem, Set.of());
+  }
+
+  static GalleryEvent removed(GalleryItem galleryItem) {
+    return new GalleryEvent(Type.REMOVED, galleryItem, Set.of());
+  }
+
+  static GalleryEvent changed(GalleryItem galleryItem, PropertyKey<?> key) {
+    return new GalleryEvent(Type.CHANGED, galleryItem, Set.of(key));
+  }
+
+  /**
+   * The net effect of this event followed by {@code next} for the same item, or {@code null} when nothing is left to
+   * report.
+   */
+  GalleryEvent coalesce(GalleryEvent next) {
+    return switch (next.type) {
+      case ADDED -> next;
+      case REMOVED -> type == Type.ADDED ? null : next;
+      case CHANGED -> {
+        if (type != Type.CHANGED)
+          yield this;
+        Set<PropertyKey<?>> keys = new HashSet<>(changedProperties);
+        keys.addAll(next.changedProperties);
+        yield new GalleryEvent(Type.CHANGED, next.galleryItem, Set.copyOf(keys));
+      }
+    };
+  }
+
+  public enum Type {
+    ADDED, REMOVED, CHANGED
+  }
+
+}
@@ -0,0 +1,14 @@
+package org.goodgallery.gallery.data;
+
+import java.util.List;
+
+/**
+ * Receives batches of coalesced changes, in the order the items were first changed. Called on an event thread, never
+ * on the thread that made the change, and never concurrently for the same listener.
+ */
+@FunctionalInterface
+public interface GalleryListener {
+
+  void onEvents(List<GalleryEvent> events);
+
+}
@@ -0,0 +1,35 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.Album;
+import org.goodgallery.gallery.Group;
+import org.goodgallery.gallery.Photo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The set of items and their membership at one version of the gallery, so a listing can walk it while items are being
+ * imported or removed. Only which items exist and what they contain is fixed, the items themselves are live and their
+ * other property values, such as names, read as they are now. Taking one copies every item reference, O(n) in the
+ * gallery size.
+ */
+public record GallerySnapshot(long version, List<Photo> photos, List<Album> albums, List<Group> groups,
+                              Map<UUID, Set<Photo>> photosByAlbum, Map<UUID, Set<Album>> albumsByGroup) {
+
+  /**
+   * The photos the album contained when the snapshot was taken.
+   */
+  public Set<Photo> getPhotos(Album album) {
+    return photosByAlbum.getOrDefault(album.getUniqueId(), Set.of());
+  }
+
+  /**
+   * The albums the group contained when the snapshot was taken.
+   */
+  public Set<Album> getAlbums(Group group) {
+    return albumsByGroup.getOrDefault(group.getUniqueId(), Set.of());
+  }
+
+}
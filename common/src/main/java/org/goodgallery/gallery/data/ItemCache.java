@@ -0,0 +1,79 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A size-bounded, least recently used cache of gallery items used when items are fetched from storage on demand. Once
+ * an item is cached every lookup returns that same instance, so concurrent fetches of one item agree on its identity.
+ */
+final class ItemCache {
+
+  private final int capacity;
+  private final LinkedHashMap<UUID, GalleryItem> items;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  ItemCache(int capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("Cache capacity must be at least 1");
+    this.capacity = capacity;
+    this.items = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, GalleryItem> eldest) {
+        if (size() <= ItemCache.this.capacity)
+          return false;
+        evictions.increment();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached item or fetches it. The fetch runs without holding the cache lock because constructing an
+   * album or group looks up its members through this cache again.
+   */
+  public Optional<GalleryItem> get(UUID uniqueId, Function<UUID, Optional<GalleryItem>> fetcher) {
+    synchronized (this) {
+      GalleryItem galleryItem = items.get(uniqueId);
+      if (galleryItem != null) {
+        hits.increment();
+        return Optional.of(galleryItem);
+      }
+    }
+    misses.increment();
+    return fetcher.apply(uniqueId).map(this::putIfAbsent);
+  }
+
+  public synchronized Optional<GalleryItem> getIfPresent(UUID uniqueId) {
+    return Optional.ofNullable(items.get(uniqueId));
+  }
+
+  /**
+   * Caches the item unless another instance of it is already cached, returning whichever instance is cached.
+   */
+  public synchronized GalleryItem putIfAbsent(GalleryItem galleryItem) {
+    GalleryItem cached = items.putIfAbsent(galleryItem.getUniqueId(), galleryItem);
+    return cached != null ? cached : galleryItem;
+  }
+
+  public synchronized void put(GalleryItem galleryItem) {
+    items.put(galleryItem.getUniqueId(), galleryItem);
+  }
+
+  public synchronized void remove(UUID uniqueId) {
+    items.remove(uniqueId);
+  }
+
+  public synchronized CacheStats stats() {
+    return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), items.size(), capacity);
+  }
+
+}
@@ -1,6 +1,11 @@
 package org.goodgallery.gallery.data;
 
-import com.google.gson.*;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import org.goodgallery.gallery.Album;
 import org.goodgallery.gallery.GalleryItem;
 import org.goodgallery.gallery.Group;
@@ -8,122 +13,422 @@ import org.goodgallery.gallery.Photo;
 import org.goodgallery.gallery.properties.PropertiesImpl;
 import org.goodgallery.gallery.properties.PropertyInstance;
 import org.goodgallery.gallery.properties.SerializedProperties;
-import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 public final class JsonGalleryData extends AbstractGalleryData {
 
-  private final Gson GSON = new GsonBuilder()
-    .registerTypeAdapter(byte[].class, new JsonByteArrayAdapter())
-    .setPrettyPrinting()
-    .create();
+  private static final long COMPACTION_THRESHOLD_BYTES = 4L * 1024 * 1024;
+  private static final List<String> SECTIONS = List.of("groups", "albums", "photos");
+  private static final Duration MIN_COMPACTION_RETRY_DELAY = Duration.ofSeconds(1);
+  private static final Duration MAX_COMPACTION_RETRY_DELAY = Duration.ofMinutes(5);
 
-  private final JsonObject json;
+  private final JsonJournal journal;
+  private final ScheduledThreadPoolExecutor compactionExecutor;
+  private final AtomicBoolean compacting = new AtomicBoolean(false);
 
   public JsonGalleryData(Path path) throws IOException {
     super(path.resolve("gallery.json"));
 
-    if (Files.exists(path)) {
-      json = GSON.fromJson(Files.newBufferedReader(super.path), JsonObject.class);
-    } else {
-      Files.createFile(super.path);
-      json = new JsonObject();
-      json.add("groups", new JsonObject());
-      json.add("albums", new JsonObject());
-      json.add("photos", new JsonObject());
-      save();
+    if (!Files.exists(super.path) || Files.size(super.path) == 0)
+      writeSnapshot(new HashMap<>());
+
+    journal = new JsonJournal(path.resolve("gallery.journal"));
+    compactionExecutor = new ScheduledThreadPoolExecutor(1,
+      Thread.ofPlatform().name("GoodGallery-JsonCompaction").daemon().factory()
+    );
+    // A retry still waiting when the gallery is closed is left to the next load()
+    compactionExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  private static String encode(byte[] data) {
+    return Base64.getEncoder().encodeToString(data);
+  }
+
+  private static byte[] decode(String data) {
+    return data.isEmpty() ? new byte[0] : Base64.getDecoder().decode(data);
+  }
+
+  private String getSection(GalleryItem galleryItem) {
+    return switch (galleryItem) {
+      case Photo _ -> "photos";
+      case Album _ -> "albums";
+      case Group _ -> "groups";
+    };
+  }
+
+  private Map<String, byte[]> serializeProperties(GalleryItem galleryItem) {
+    Map<String, byte[]> serializedProperties = new LinkedHashMap<>();
+    for (PropertyInstance<?> property : ((PropertiesImpl) galleryItem.getProperties()).all())
+      if (property.isSet())
+        serializedProperties.put(property.key().toString(), property.serialize());
+    return serializedProperties;
+  }
+
+  private JsonObject insertRecord(GalleryItem galleryItem) {
+    JsonObject properties = new JsonObject();
+    serializeProperties(galleryItem).forEach((key, data) -> properties.addProperty(key, encode(data)));
+
+    JsonObject record = new JsonObject();
+    record.addProperty("op", "put");
+    record.addProperty("section", getSection(galleryItem));
+    record.addProperty("id", galleryItem.toString());
+    record.add("properties", properties);
+    return record;
+  }
+
+  private JsonObject deleteRecord(GalleryItem galleryItem) {
+    JsonObject record = new JsonObject();
+    record.addProperty("op", "remove");
+    record.addProperty("section", getSection(galleryItem));
+    record.addProperty("id", galleryItem.toString());
+    return record;
+  }
+
+  private JsonObject updateRecord(GalleryItem galleryItem, PropertyInstance<?> property) {
+    JsonObject record = new JsonObject();
+    record.addProperty("op", "set");
+    record.addProperty("section", getSection(galleryItem));
+    record.addProperty("id", galleryItem.toString());
+    record.addProperty("key", property.key().toString());
+    record.addProperty("data", encode(property.serialize()));
+    return record;
+  }
+
+  private void commit(List<JsonObject> records) {
+    try {
+      for (JsonObject record : records)
+        journal.append(record);
+      journal.flush();
+    } catch (IOException exception) {
+      throw new RuntimeException("Failed to append to journal of \"%s\"".formatted(path), exception);
     }
+    if (journal.size() >= COMPACTION_THRESHOLD_BYTES)
+      compact();
   }
 
-  private <T extends GalleryItem> void loadSection(String section, BiFunction<UUID, SerializedProperties, T> generator, Map<UUID, T> map) {
-    JsonObject sectionJson = json.getAsJsonObject(section);
-    for (String key : sectionJson.keySet()) {
-      UUID uniqueId = UUID.fromString(key);
+  /**
+   * Rotates the journal and folds the rotated records into the snapshot in the background. Records still rotated aside
+   * by an earlier compaction are folded in first.
+   */
+  private void compact() {
+    if (!compacting.compareAndSet(false, true))
+      return;
+    if (!journal.hasInterruptedCompaction()) {
+      try {
+        journal.rotate();
+      } catch (IOException exception) {
+        compacting.set(false);
+        throw new RuntimeException("Failed to rotate journal of \"%s\"".formatted(path), exception);
+      }
+    }
+    compactionExecutor.execute(() -> foldRotated(MIN_COMPACTION_RETRY_DELAY));
+  }
 
-      Map<String, byte[]> serializedData = new HashMap<>();
-      for (String propertyKey : json.keySet())
-        serializedData.put(propertyKey, GSON.fromJson(json.get(propertyKey), byte[].class));
+  // Retried with growing delays while it fails, compaction stays claimed meanwhile so the journal is not rotated again
+  private void foldRotated(Duration retryDelay) {
+    try {
+      writeSnapshot(readJournal(true));
+      journal.completeCompaction();
+      compacting.set(false);
+    } catch (IOException | RuntimeException exception) {
+      System.out.println("Failed to compact journal of \"%s\", retrying in %d seconds.".formatted(path, retryDelay.toSeconds()));
+      exception.printStackTrace(System.out);
+      Duration doubledDelay = retryDelay.multipliedBy(2);
+      Duration nextDelay = doubledDelay.compareTo(MAX_COMPACTION_RETRY_DELAY) < 0 ? doubledDelay : MAX_COMPACTION_RETRY_DELAY;
+      try {
+        compactionExecutor.schedule(() -> foldRotated(nextDelay), retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException _) {
+        compacting.set(false);
+      }
+    }
+  }
+
+  /**
+   * Streams the current snapshot into a new one with the pending changes folded in. The in-memory maps are not used,
+   * as a change may be journaled before it reaches them.
+   */
+  private void writeSnapshot(Map<UUID, PendingItem> pendingItems) throws IOException {
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+      JsonWriter jsonWriter = new JsonWriter(writer);
+      jsonWriter.setIndent("  ");
+      jsonWriter.beginObject();
+      Set<String> writtenSections = new HashSet<>();
+      if (Files.exists(path) && Files.size(path) > 0) {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String section = reader.nextName();
+            if (!SECTIONS.contains(section) || !writtenSections.add(section)) {
+              reader.skipValue();
+              continue;
+            }
+            jsonWriter.name(section).beginObject();
+            reader.beginObject();
+            while (reader.hasNext()) {
+              UUID uniqueId = UUID.fromString(reader.nextName());
+              Map<String, byte[]> properties = merge(readProperties(reader), pendingItems.remove(uniqueId));
+              if (properties != null)
+                writeItem(jsonWriter, uniqueId, properties);
+            }
+            reader.endObject();
+            writeInserted(jsonWriter, section, pendingItems);
+            jsonWriter.endObject();
+          }
+          reader.endObject();
+        }
+      }
+      for (String section : SECTIONS) {
+        if (writtenSections.add(section)) {
+          jsonWriter.name(section).beginObject();
+          writeInserted(jsonWriter, section, pendingItems);
+          jsonWriter.endObject();
+        }
+      }
+      jsonWriter.endObject();
+      jsonWriter.flush();
+      channel.force(true);
+    }
+    Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
 
-      map.put(uniqueId, generator.apply(uniqueId, new SerializedProperties(serializedData)));
+  // Items inserted since the snapshot was written only exist in the journal
+  private void writeInserted(JsonWriter jsonWriter, String section, Map<UUID, PendingItem> pendingItems) throws IOException {
+    for (Map.Entry<UUID, PendingItem> entry : pendingItems.entrySet()) {
+      PendingItem pendingItem = entry.getValue();
+      if (pendingItem.section.equals(section) && pendingItem.replaced && !pendingItem.removed)
+        writeItem(jsonWriter, entry.getKey(), pendingItem.properties);
     }
   }
 
-  private JsonObject getParent(GalleryItem galleryItem) {
-    return json.getAsJsonObject(
-      switch (galleryItem) {
-        case Photo _ -> "photos";
-        case Album _ -> "albums";
-        case Group _ -> "groups";
+  private void writeItem(JsonWriter jsonWriter, UUID uniqueId, Map<String, byte[]> properties) throws IOException {
+    jsonWriter.name(uniqueId.toString()).beginObject();
+    for (Map.Entry<String, byte[]> property : properties.entrySet())
+      jsonWriter.name(property.getKey()).value(encode(property.getValue()));
+    jsonWriter.endObject();
+  }
+
+  /**
+   * Folds the journal into one pending change per item. The journal is bounded by the compaction threshold, so this
+   * stays small while the much larger snapshot is streamed past it.
+   */
+  private Map<UUID, PendingItem> readJournal(boolean rotatedOnly) throws IOException {
+    Map<UUID, PendingItem> pendingItems = new HashMap<>();
+    Consumer<JsonObject> fold = record -> {
+      UUID uniqueId = UUID.fromString(record.get("id").getAsString());
+      PendingItem pendingItem = pendingItems.computeIfAbsent(uniqueId, _ -> new PendingItem(record.get("section").getAsString()));
+      switch (record.get("op").getAsString()) {
+        case "put" -> {
+          pendingItem.replaced = true;
+          pendingItem.removed = false;
+          pendingItem.properties.clear();
+          for (Map.Entry<String, JsonElement> property : record.getAsJsonObject("properties").entrySet())
+            pendingItem.properties.put(property.getKey(), decode(property.getValue().getAsString()));
+        }
+        case "remove" -> {
+          pendingItem.replaced = true;
+          pendingItem.removed = true;
+          pendingItem.properties.clear();
+        }
+        case "set" -> {
+          if (!pendingItem.removed)
+            pendingItem.properties.put(record.get("key").getAsString(), decode(record.get("data").getAsString()));
+        }
+        default -> throw new JsonParseException("Unknown journal operation \"%s\"".formatted(record.get("op")));
       }
-    );
+    };
+    if (rotatedOnly)
+      journal.replayRotated(fold);
+    else
+      journal.replay(fold);
+    return pendingItems;
   }
 
-  private JsonObject findProperties(@NotNull GalleryItem galleryItem) {
-    return getParent(galleryItem).getAsJsonObject(galleryItem.toString());
+  private static Map<String, byte[]> readProperties(JsonReader reader) throws IOException {
+    Map<String, byte[]> serializedData = new HashMap<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String key = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        serializedData.put(key, new byte[0]);
+      } else
+        serializedData.put(key, decode(reader.nextString()));
+    }
+    reader.endObject();
+    return serializedData;
   }
 
-  private void save() {
-    try {
-      Files.write(path, GSON.toJson(json).getBytes(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to save GalleryData to \"%s\"".formatted(path), e);
+  // The properties of an item once its pending change is applied, or null when it was removed
+  private static Map<String, byte[]> merge(Map<String, byte[]> serializedData, PendingItem pendingItem) {
+    if (pendingItem == null)
+      return serializedData;
+    if (pendingItem.removed)
+      return null;
+    if (pendingItem.replaced)
+      return pendingItem.properties;
+    serializedData.putAll(pendingItem.properties);
+    return serializedData;
+  }
+
+  private <T extends GalleryItem> void readSection(JsonReader reader, Map<UUID, PendingItem> pendingItems,
+                                                   BiFunction<UUID, SerializedProperties, T> generator, Map<UUID, T> map) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      UUID uniqueId = UUID.fromString(reader.nextName());
+      Map<String, byte[]> serializedData = merge(readProperties(reader), pendingItems.remove(uniqueId));
+      if (serializedData != null)
+        map.put(uniqueId, generator.apply(uniqueId, new SerializedProperties(serializedData)));
     }
+    reader.endObject();
+  }
+
+  private void readSnapshot(Map<UUID, PendingItem> pendingItems) throws IOException {
+    try (JsonReader reader = new JsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "photos" -> readSection(reader, pendingItems, Photo::new, photosByUUID);
+          case "albums" -> readSection(reader, pendingItems, Album::new, albumsByUUID);
+          case "groups" -> readSection(reader, pendingItems, Group::new, groupsByUUID);
+          default -> reader.skipValue();
+        }
+      }
+      reader.endObject();
+    }
+
+    // Items inserted since the snapshot was written only exist in the journal
+    pendingItems.forEach((uniqueId, pendingItem) -> {
+      if (!pendingItem.replaced || pendingItem.removed)
+        return;
+      SerializedProperties serializedProperties = new SerializedProperties(pendingItem.properties);
+      switch (pendingItem.section) {
+        case "photos" -> photosByUUID.put(uniqueId, new Photo(uniqueId, serializedProperties));
+        case "albums" -> albumsByUUID.put(uniqueId, new Album(uniqueId, serializedProperties));
+        case "groups" -> groupsByUUID.put(uniqueId, new Group(uniqueId, serializedProperties));
+      }
+    });
   }
 
   @Override
   public synchronized void load() {
-    loadSection("photos", Photo::new, photosByUUID);
-    loadSection("albums", Album::new, albumsByUUID);
-    loadSection("groups", Group::new, groupsByUUID);
+    LoadReport.Builder report = new LoadReport.Builder(1);
+    try {
+      boolean interruptedCompaction = journal.hasInterruptedCompaction();
+      Map<UUID, PendingItem> pendingItems = readJournal(false);
+      report.phase("journal", 0);
+      readSnapshot(pendingItems);
+      report.phase("snapshot", photosByUUID.size() + albumsByUUID.size() + groupsByUUID.size());
+      if (interruptedCompaction) {
+        writeSnapshot(readJournal(false));
+        journal.reset();
+        report.phase("recovery", 0);
+      }
+      journal.open();
+      rebuildIndexes();
+      report.phase("indexes", 0);
+    } catch (IOException | RuntimeException exception) {
+      throw new RuntimeException("Failed to load GalleryData from \"%s\"".formatted(path), exception);
+    }
+    loadReport = report.build();
+
+    if (journal.size() >= COMPACTION_THRESHOLD_BYTES)
+      compact();
   }
 
   @Override
   protected synchronized void insert(GalleryItem galleryItem) {
-    getParent(galleryItem).add(galleryItem.toString(), new JsonObject());
-    ((PropertiesImpl) galleryItem.getProperties()).all().stream()
-      .filter(property -> property.value().isPresent())
-      .forEach(
-      property -> findProperties(galleryItem).add(property.key().toString(), GSON.toJsonTree(property.serialize(), byte[].class))
-    );
-    save();
+    commit(List.of(insertRecord(galleryItem)));
   }
 
   @Override
   protected synchronized void delete(GalleryItem galleryItem) {
-    getParent(galleryItem).remove(galleryItem.toString());
-    save();
+    commit(List.of(deleteRecord(galleryItem)));
   }
 
   @Override
-  public synchronized void updateProperty(GalleryItem galleryItem, PropertyInstance<?> property) {
-    findProperties(galleryItem).add(property.key().toString(), GSON.toJsonTree(property.serialize(), byte[].class));
-    save();
+  protected synchronized <T extends GalleryItem> BatchResult<T> insertAll(Collection<T> galleryItems) {
+    BatchResult.Builder<T> result = BatchResult.builder();
+    List<JsonObject> records = new ArrayList<>(galleryItems.size());
+    for (T galleryItem : galleryItems) {
+      try {
+        records.add(insertRecord(galleryItem));
+        result.succeeded(galleryItem);
+      } catch (RuntimeException exception) {
+        result.failed(galleryItem, exception);
+      }
+    }
+    commit(records);
+    return result.build();
+  }
+
+  @Override
+  protected synchronized <T extends GalleryItem> BatchResult<T> deleteAll(Collection<T> galleryItems) {
+    commit(galleryItems.stream().map(this::deleteRecord).toList());
+    return BatchResult.<T>builder().succeeded(galleryItems).build();
   }
 
-  private static class JsonByteArrayAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
+  @Override
+  protected synchronized void persistProperty(GalleryItem galleryItem, PropertyInstance<?> property) {
+    commit(List.of(updateRecord(galleryItem, property)));
+  }
+
+  @Override
+  protected synchronized void persistProperties(List<PropertyUpdate> updates) {
+    commit(updates.stream().map(update -> updateRecord(update.galleryItem(), update.property())).toList());
+  }
 
-    @Override
-    public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-      if (json == null || json.isJsonNull() || json.getAsString().isEmpty())
-        return new byte[0];
-      return Base64.getDecoder().decode(json.getAsString());
+  @Override
+  public void close() {
+    try {
+      super.close();
+    } finally {
+      compactionExecutor.shutdown();
+      try {
+        if (!compactionExecutor.awaitTermination(1, TimeUnit.MINUTES))
+          System.out.println("Timed out waiting for journal compaction of \"%s\".".formatted(path));
+      } catch (InterruptedException _) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (this) {
+        try {
+          journal.close();
+        } catch (IOException exception) {
+          throw new RuntimeException("Failed to close journal of \"%s\"".formatted(path), exception);
+        }
+      }
     }
+  }
+
+  private static final class PendingItem {
+
+    private final String section;
+    private final Map<String, byte[]> properties = new HashMap<>();
+    private boolean replaced = false;
+    private boolean removed = false;
 
-    @Override
-    public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
-      return new JsonPrimitive(Base64.getEncoder().encodeToString(src));
+    private PendingItem(String section) {
+      this.section = section;
     }
 
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,177 @@
+package org.goodgallery.gallery.data;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * An append-only log of single-line JSON mutation records, rotated aside while a snapshot is written. Opening the
+ * journal repairs a record torn at its end, so records appended afterwards stay intact.
+ */
+final class JsonJournal implements AutoCloseable {
+
+  private static final int TAIL_SCAN_CHUNK_SIZE = 8 * 1024;
+
+  private final Path path;
+  private final Path compactingPath;
+  private OutputStream output;
+  private long size;
+
+  JsonJournal(Path path) {
+    this.path = path;
+    this.compactingPath = path.resolveSibling(path.getFileName() + ".compacting");
+  }
+
+  public void open() throws IOException {
+    if (output != null)
+      return;
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      repairTail(channel);
+      size = channel.size();
+      channel.position(size);
+    } catch (IOException exception) {
+      channel.close();
+      throw exception;
+    }
+    output = new BufferedOutputStream(Channels.newOutputStream(channel));
+  }
+
+  // A record torn by a crash would run into the next one appended, so it is cut off, or ended if it is whole after all
+  private static void repairTail(FileChannel channel) throws IOException {
+    long end = channel.size();
+    long lineStart = end;
+    ByteBuffer chunk = ByteBuffer.allocate(TAIL_SCAN_CHUNK_SIZE);
+    scan:
+    while (lineStart > 0) {
+      long chunkStart = Math.max(0, lineStart - chunk.capacity());
+      chunk.clear().limit((int) (lineStart - chunkStart));
+      read(channel, chunk, chunkStart);
+      for (int index = chunk.limit() - 1; index >= 0; index--) {
+        if (chunk.get(index) == '\n') {
+          lineStart = chunkStart + index + 1;
+          break scan;
+        }
+      }
+      lineStart = chunkStart;
+    }
+    if (lineStart == end)
+      return;
+
+    ByteBuffer tail = ByteBuffer.allocate(Math.toIntExact(end - lineStart));
+    read(channel, tail, lineStart);
+    if (isRecord(new String(tail.array(), StandardCharsets.UTF_8)))
+      channel.write(ByteBuffer.wrap(new byte[]{'\n'}), end);
+    else
+      channel.truncate(lineStart);
+  }
+
+  private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining())
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new EOFException();
+  }
+
+  private static boolean isRecord(String line) {
+    try {
+      JsonParser.parseString(line).getAsJsonObject();
+      return true;
+    } catch (JsonParseException | IllegalStateException _) {
+      return false;
+    }
+  }
+
+  public void append(JsonObject record) throws IOException {
+    if (output == null)
+      throw new IllegalStateException("Journal \"%s\" is not open".formatted(path));
+    byte[] line = (record.toString() + '\n').getBytes(StandardCharsets.UTF_8);
+    output.write(line);
+    size += line.length;
+  }
+
+  public void flush() throws IOException {
+    if (output != null)
+      output.flush();
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public boolean hasInterruptedCompaction() {
+    return Files.exists(compactingPath);
+  }
+
+  /**
+   * Replays the rotated records followed by the active journal. A torn record at the end of a file is skipped.
+   */
+  public void replay(Consumer<JsonObject> consumer) throws IOException {
+    replay(compactingPath, consumer);
+    replay(path, consumer);
+  }
+
+  public void replayRotated(Consumer<JsonObject> consumer) throws IOException {
+    replay(compactingPath, consumer);
+  }
+
+  private void replay(Path journalPath, Consumer<JsonObject> consumer) throws IOException {
+    if (!Files.exists(journalPath))
+      return;
+    try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      while (line != null) {
+        String nextLine = reader.readLine();
+        if (!line.isBlank()) {
+          try {
+            consumer.accept(JsonParser.parseString(line).getAsJsonObject());
+          } catch (JsonParseException | IllegalStateException exception) {
+            if (nextLine != null)
+              throw new IOException("Corrupt record in journal \"%s\"".formatted(journalPath), exception);
+          }
+        }
+        line = nextLine;
+      }
+    }
+  }
+
+  public void rotate() throws IOException {
+    close();
+    Files.move(path, compactingPath, StandardCopyOption.ATOMIC_MOVE);
+    open();
+  }
+
+  public void completeCompaction() throws IOException {
+    Files.deleteIfExists(compactingPath);
+  }
+
+  public void reset() throws IOException {
+    close();
+    Files.deleteIfExists(compactingPath);
+    Files.deleteIfExists(path);
+    open();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (output == null)
+      return;
+    output.close();
+    output = null;
+  }
+
+}
@@ -0,0 +1,34 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+import org.goodgallery.gallery.properties.PropertyKey;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * A backend that fetches items from storage on demand, so they need not be loaded up front. Only backends implementing
+ * it can load lazily.
+ */
+interface LazyItemSource {
+
+  Optional<GalleryItem> fetch(UUID uniqueId);
+
+  /**
+   * Fetches up to {@code limit} items of a type in UUID order, starting after {@code after} or from the first item
+   * when it is {@code null}. The returned list must be mutable.
+   */
+  <T extends GalleryItem> List<T> fetchPage(Class<T> type, UUID after, int limit);
+
+  int count(Class<? extends GalleryItem> type);
+
+  Optional<UUID> findUniqueId(Class<? extends GalleryItem> type, PropertyKey<?> key, byte[] serializedValue);
+
+  /**
+   * Up to {@code limit} distinct names of items of a type starting with {@code prefix}, ignoring case, in alphabetical
+   * order, answered from an index rather than by fetching every item.
+   */
+  List<String> completeNames(Class<? extends GalleryItem> type, String prefix, int limit);
+
+}
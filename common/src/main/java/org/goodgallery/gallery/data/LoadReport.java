@@ -0,0 +1,65 @@
+package org.goodgallery.gallery.data;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timings of the phases the gallery data went through while loading, in the order they ran.
+ */
+public record LoadReport(int workers, List<Phase> phases) {
+
+  public static final LoadReport EMPTY = new LoadReport(1, List.of());
+
+  public LoadReport(int workers, List<Phase> phases) {
+    this.workers = workers;
+    this.phases = Collections.unmodifiableList(phases);
+  }
+
+  public Duration total() {
+    return phases.stream().map(Phase::duration).reduce(Duration.ZERO, Duration::plus);
+  }
+
+  public int items() {
+    return phases.stream().mapToInt(Phase::items).sum();
+  }
+
+  public List<String> describe() {
+    List<String> lines = new ArrayList<>(phases.size() + 1);
+    lines.add("Loaded %d items in %d ms using %d worker(s)".formatted(items(), total().toMillis(), workers));
+    for (Phase phase : phases)
+      lines.add(" %s: %d ms (%d items)".formatted(phase.name(), phase.duration().toMillis(), phase.items()));
+    return lines;
+  }
+
+  public record Phase(String name, Duration duration, int items) {
+  }
+
+  static final class Builder {
+
+    private final int workers;
+    private final List<Phase> phases = new ArrayList<>();
+    private long phaseStart = System.nanoTime();
+
+    Builder(int workers) {
+      this.workers = workers;
+    }
+
+    /**
+     * Records the phase that ran since the previous one ended.
+     */
+    Builder phase(String name, int items) {
+      long now = System.nanoTime();
+      phases.add(new Phase(name, Duration.ofNanos(now - phaseStart), items));
+      phaseStart = now;
+      return this;
+    }
+
+    LoadReport build() {
+      return new LoadReport(workers, phases);
+    }
+
+  }
+
+}
@@ -0,0 +1,81 @@
+package org.goodgallery.gallery.data;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Both directions of one membership relation, such as albums and their photos, so the owners of a member can be
+ * found without scanning every owner.
+ */
+final class MembershipIndex {
+
+  private final Map<UUID, UUIDSet> membersByOwner = new UUIDMap<>();
+  private final Map<UUID, UUIDSet> ownersByMember = new UUIDMap<>();
+
+  public synchronized void add(UUID owner, UUID member) {
+    membersByOwner.computeIfAbsent(owner, _ -> new UUIDSet()).add(member);
+    ownersByMember.computeIfAbsent(member, _ -> new UUIDSet()).add(owner);
+  }
+
+  public synchronized void remove(UUID owner, UUID member) {
+    removeFrom(membersByOwner, owner, member);
+    removeFrom(ownersByMember, member, owner);
+  }
+
+  /**
+   * Replaces every member of the owner, touching only the members that were added or removed.
+   */
+  public synchronized void putOwner(UUID owner, Set<UUID> members) {
+    UUIDSet previousMembers = membersByOwner.get(owner);
+    if (previousMembers != null)
+      for (UUID member : previousMembers)
+        if (!members.contains(member))
+          removeFrom(ownersByMember, member, owner);
+    for (UUID member : members)
+      if (previousMembers == null || !previousMembers.contains(member))
+        ownersByMember.computeIfAbsent(member, _ -> new UUIDSet()).add(owner);
+    if (members.isEmpty()) {
+      membersByOwner.remove(owner);
+      return;
+    }
+    UUIDSet ownerMembers = new UUIDSet();
+    ownerMembers.addAll(members);
+    membersByOwner.put(owner, ownerMembers);
+  }
+
+  public synchronized void removeOwner(UUID owner) {
+    UUIDSet members = membersByOwner.remove(owner);
+    if (members != null)
+      for (UUID member : members)
+        removeFrom(ownersByMember, member, owner);
+  }
+
+  public synchronized void removeMember(UUID member) {
+    UUIDSet owners = ownersByMember.remove(member);
+    if (owners != null)
+      for (UUID owner : owners)
+        removeFrom(membersByOwner, owner, member);
+  }
+
+  public synchronized List<UUID> owners(UUID member) {
+    UUIDSet owners = ownersByMember.get(member);
+    return owners == null ? List.of() : List.copyOf(owners);
+  }
+
+  public synchronized void clear() {
+    membersByOwner.clear();
+    ownersByMember.clear();
+  }
+
+  private static void removeFrom(Map<UUID, UUIDSet> map, UUID key, UUID value) {
+    UUIDSet values = map.get(key);
+    if (values == null)
+      return;
+    values.remove(value);
+    if (values.isEmpty())
+      map.remove(key);
+  }
+
+}
@@ -0,0 +1,182 @@
+package org.goodgallery.gallery.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A radix tree over item names for case-insensitive prefix completion.
+ */
+final class NameTrie {
+
+  private final Node root = new Node("");
+  private final Map<UUID, String> namesByItem = new HashMap<>();
+
+  public synchronized void put(UUID uniqueId, Optional<String> name) {
+    remove(uniqueId);
+    name.ifPresent(value -> {
+      insert(normalize(value), uniqueId, value);
+      namesByItem.put(uniqueId, value);
+    });
+  }
+
+  public synchronized void remove(UUID uniqueId) {
+    String previousName = namesByItem.remove(uniqueId);
+    if (previousName != null)
+      delete(normalize(previousName), uniqueId);
+  }
+
+  /**
+   * Up to {@code limit} distinct names starting with {@code prefix}, ignoring case, in alphabetical order.
+   */
+  public synchronized List<String> complete(String prefix, int limit) {
+    Set<String> names = new LinkedHashSet<>();
+    Node node = find(normalize(prefix));
+    if (node != null && limit > 0)
+      collect(node, names, limit);
+    return new ArrayList<>(names);
+  }
+
+  public synchronized void clear() {
+    root.children.clear();
+    root.items.clear();
+    root.size = 0;
+    namesByItem.clear();
+  }
+
+  static String normalize(String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  private void insert(String key, UUID uniqueId, String name) {
+    Node node = root;
+    int index = 0;
+    while (true) {
+      node.size++;
+      if (index == key.length()) {
+        node.items.put(uniqueId, name);
+        return;
+      }
+      Node child = node.children.get(key.charAt(index));
+      if (child == null) {
+        child = new Node(key.substring(index));
+        child.size = 1;
+        child.items.put(uniqueId, name);
+        node.children.put(key.charAt(index), child);
+        return;
+      }
+      int common = commonLength(child.edge, key, index);
+      if (common < child.edge.length()) {
+        // The key leaves the edge part way, so the edge is split where they diverge
+        Node middle = new Node(child.edge.substring(0, common));
+        middle.size = child.size;
+        child.edge = child.edge.substring(common);
+        middle.children.put(child.edge.charAt(0), child);
+        node.children.put(middle.edge.charAt(0), middle);
+        child = middle;
+      }
+      index += common;
+      node = child;
+    }
+  }
+
+  private void delete(String key, UUID uniqueId) {
+    List<Node> path = new ArrayList<>();
+    Node node = root;
+    int index = 0;
+    path.add(node);
+    while (index < key.length()) {
+      node = node.children.get(key.charAt(index));
+      if (node == null || !key.startsWith(node.edge, index))
+        return;
+      index += node.edge.length();
+      path.add(node);
+    }
+    if (node.items.remove(uniqueId) == null)
+      return;
+
+    for (Node pathNode : path)
+      pathNode.size--;
+    // Drop emptied nodes and merge nodes left with a single child back into one edge, from the bottom up
+    for (int i = path.size() - 1; i > 0; i--) {
+      Node current = path.get(i);
+      Node parent = path.get(i - 1);
+      if (current.size == 0)
+        parent.children.remove(current.edge.charAt(0));
+      else if (current.items.isEmpty() && current.children.size() == 1) {
+        Node onlyChild = current.children.firstEntry().getValue();
+        onlyChild.edge = current.edge + onlyChild.edge;
+        parent.children.put(onlyChild.edge.charAt(0), onlyChild);
+      }
+    }
+  }
+
+  // The prefix may end part way along the edge leading to the returned node
+  private Node find(String prefix) {
+    Node node = root;
+    int index = 0;
+    while (index < prefix.length()) {
+      Node child = node.children.get(prefix.charAt(index));
+      if (child == null)
+        return null;
+      int common = commonLength(child.edge, prefix, index);
+      if (index + common == prefix.length())
+        return child;
+      if (common < child.edge.length())
+        return null;
+      index += common;
+      node = child;
+    }
+    return node;
+  }
+
+  private void collect(Node node, Set<String> names, int limit) {
+    // Names under one key differ only in case, and are kept in the order they were added
+    Collection<String> nodeNames = node.items.values();
+    if (nodeNames.size() > 1)
+      nodeNames = nodeNames.stream().sorted().toList();
+    for (String name : nodeNames) {
+      names.add(name);
+      if (names.size() == limit)
+        return;
+    }
+    for (Node child : node.children.values()) {
+      if (child.size == 0)
+        continue;
+      collect(child, names, limit);
+      if (names.size() == limit)
+        return;
+    }
+  }
+
+  private static int commonLength(String edge, String key, int offset) {
+    int length = Math.min(edge.length(), key.length() - offset);
+    int common = 0;
+    while (common < length && edge.charAt(common) == key.charAt(offset + common))
+      common++;
+    return common;
+  }
+
+  private static final class Node {
+
+    private String edge;
+    private final TreeMap<Character, Node> children = new TreeMap<>();
+    private final Map<UUID, String> items = new LinkedHashMap<>();
+    private int size;
+
+    private Node(String edge) {
+      this.edge = edge;
+    }
+
+  }
+
+}
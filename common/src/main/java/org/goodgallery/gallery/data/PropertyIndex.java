@@ -0,0 +1,66 @@
+package org.goodgallery.gallery.data;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * A secondary index from a property value to the items holding it. Several items may share a value, lookups return
+ * them in the order they were indexed. The value each item was last indexed under is remembered, so an item can be
+ * moved or removed without knowing its previous value.
+ */
+final class PropertyIndex<V> {
+
+  private final Function<V, V> normalizer;
+  private final Map<V, Set<UUID>> itemsByValue = new HashMap<>();
+  private final Map<UUID, V> valuesByItem = new HashMap<>();
+
+  PropertyIndex() {
+    this(Function.identity());
+  }
+
+  PropertyIndex(Function<V, V> normalizer) {
+    this.normalizer = normalizer;
+  }
+
+  /**
+   * Indexes the item under {@code value}, replacing whatever value it was indexed under before. A missing value only
+   * removes the item.
+   */
+  public synchronized void put(UUID uniqueId, Optional<V> value) {
+    remove(uniqueId);
+    value.map(normalizer).ifPresent(normalizedValue -> {
+      itemsByValue.computeIfAbsent(normalizedValue, _ -> new LinkedHashSet<>()).add(uniqueId);
+      valuesByItem.put(uniqueId, normalizedValue);
+    });
+  }
+
+  public synchronized void remove(UUID uniqueId) {
+    V previousValue = valuesByItem.remove(uniqueId);
+    if (previousValue == null)
+      return;
+    Set<UUID> items = itemsByValue.get(previousValue);
+    items.remove(uniqueId);
+    if (items.isEmpty())
+      itemsByValue.remove(previousValue);
+  }
+
+  public V normalize(V value) {
+    return normalizer.apply(value);
+  }
+
+  public synchronized Optional<UUID> first(V value) {
+    Set<UUID> items = itemsByValue.get(normalizer.apply(value));
+    return items == null ? Optional.empty() : Optional.of(items.iterator().next());
+  }
+
+  public synchronized void clear() {
+    itemsByValue.clear();
+    valuesByItem.clear();
+  }
+
+}
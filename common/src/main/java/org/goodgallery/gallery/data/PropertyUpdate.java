@@ -0,0 +1,7 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+import org.goodgallery.gallery.properties.PropertyInstance;
+
+public record PropertyUpdate(GalleryItem galleryItem, PropertyInstance<?> property) {
+}
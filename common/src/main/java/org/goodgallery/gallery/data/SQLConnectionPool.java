@@ -0,0 +1,175 @@
+package org.goodgallery.gallery.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A small fixed-size pool of long-lived JDBC connections. Each pooled connection keeps its own cache of prepared
+ * statements keyed by their SQL text, so repeated mutations skip both the connection handshake and statement parsing.
+ */
+final class SQLConnectionPool implements AutoCloseable {
+
+  private final List<PooledConnection> connections;
+  private final BlockingQueue<PooledConnection> idleConnections;
+  private volatile boolean closed = false;
+
+  SQLConnectionPool(SQLSupplier<Connection> connectionFactory, int size) throws SQLException {
+    if (size < 1)
+      throw new IllegalArgumentException("Connection pool size must be at least 1");
+    this.connections = new ArrayList<>(size);
+    this.idleConnections = new ArrayBlockingQueue<>(size);
+    for (int i = 0; i < size; i++) {
+      PooledConnection connection = new PooledConnection(connectionFactory);
+      connections.add(connection);
+      idleConnections.add(connection);
+    }
+    // Open the first connection eagerly so configuration problems surface during load()
+    connections.getFirst().connection();
+  }
+
+  public int size() {
+    return connections.size();
+  }
+
+  public <R> R apply(SQLFunction<PooledConnection, R> function) throws SQLException {
+    PooledConnection connection = acquire();
+    try {
+      return function.apply(connection);
+    } finally {
+      release(connection);
+    }
+  }
+
+  public void accept(SQLAction<PooledConnection> action) throws SQLException {
+    apply(connection -> {
+      action.accept(connection);
+      return null;
+    });
+  }
+
+  private PooledConnection acquire() throws SQLException {
+    if (closed)
+      throw new IllegalStateException("Connection pool has already been closed");
+    try {
+      return idleConnections.take();
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a pooled connection", exception);
+    }
+  }
+
+  private void release(PooledConnection connection) {
+    if (closed) {
+      connection.close();
+      return;
+    }
+    try {
+      connection.reset();
+    } catch (SQLException _) {
+      // The connection is in an unknown state, drop it so the next borrower reopens it
+      connection.close();
+    }
+    idleConnections.add(connection);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    PooledConnection connection;
+    while ((connection = idleConnections.poll()) != null)
+      connection.close();
+  }
+
+  static final class PooledConnection {
+
+    private final SQLSupplier<Connection> connectionFactory;
+    private final Map<String, PreparedStatement> preparedStatements;
+    private Connection connection;
+
+    private PooledConnection(SQLSupplier<Connection> connectionFactory) {
+      this.connectionFactory = connectionFactory;
+      this.preparedStatements = new HashMap<>();
+    }
+
+    public Connection connection() throws SQLException {
+      if (connection == null || connection.isClosed()) {
+        preparedStatements.clear();
+        connection = connectionFactory.get();
+      }
+      return connection;
+    }
+
+    public PreparedStatement prepare(String rawPreparedStatement) throws SQLException {
+      PreparedStatement preparedStatement = preparedStatements.get(rawPreparedStatement);
+      if (preparedStatement == null || preparedStatement.isClosed()) {
+        preparedStatement = connection().prepareStatement(rawPreparedStatement);
+        preparedStatements.put(rawPreparedStatement, preparedStatement);
+      }
+      return preparedStatement;
+    }
+
+    public Statement createStatement() throws SQLException {
+      return connection().createStatement();
+    }
+
+    public void clearBatches() throws SQLException {
+      for (PreparedStatement preparedStatement : preparedStatements.values())
+        preparedStatement.clearBatch();
+    }
+
+    private void reset() throws SQLException {
+      if (connection == null)
+        return;
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+      clearBatches();
+    }
+
+    private void close() {
+      if (connection == null)
+        return;
+      for (PreparedStatement preparedStatement : preparedStatements.values()) {
+        try {
+          preparedStatement.close();
+        } catch (SQLException _) {
+        }
+      }
+      preparedStatements.clear();
+      try {
+        connection.close();
+      } catch (SQLException _) {
+      }
+      connection = null;
+    }
+
+  }
+
+  interface SQLSupplier<T> {
+
+    T get() throws SQLException;
+
+  }
+
+  interface SQLFunction<T, R> {
+
+    R apply(T t) throws SQLException;
+
+  }
+
+  interface SQLAction<T> {
+
+    void accept(T t) throws SQLException;
+
+  }
+
+}
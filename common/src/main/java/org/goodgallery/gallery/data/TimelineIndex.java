@@ -0,0 +1,73 @@
+package org.goodgallery.gallery.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Items ordered by creation timestamp. The positions are kept in a skip list so range and page queries walk only the
+ * items they return and never block on writers, while writers are serialized to keep the skip list and the position
+ * each item was last indexed at in step.
+ */
+final class TimelineIndex {
+
+  private static final UUID FIRST_UUID = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+
+  private final ConcurrentSkipListSet<TimelinePosition> positions = new ConcurrentSkipListSet<>();
+  private final Map<UUID, TimelinePosition> positionsByItem = new HashMap<>();
+
+  /**
+   * Indexes the item at {@code timestamp}, moving it if it was indexed before. A missing timestamp only removes it.
+   */
+  public synchronized void put(UUID uniqueId, Optional<Long> timestamp) {
+    remove(uniqueId);
+    timestamp.ifPresent(value -> {
+      TimelinePosition position = new TimelinePosition(value, uniqueId);
+      positions.add(position);
+      positionsByItem.put(uniqueId, position);
+    });
+  }
+
+  public synchronized void remove(UUID uniqueId) {
+    TimelinePosition previousPosition = positionsByItem.remove(uniqueId);
+    if (previousPosition != null)
+      positions.remove(previousPosition);
+  }
+
+  /**
+   * The items created from {@code from} inclusive to {@code to} exclusive, oldest first.
+   */
+  public List<UUID> between(long from, long to) {
+    List<UUID> items = new ArrayList<>();
+    if (from >= to)
+      return items;
+    for (TimelinePosition position : positions.subSet(new TimelinePosition(from, FIRST_UUID), new TimelinePosition(to, FIRST_UUID)))
+      items.add(position.uniqueId());
+    return items;
+  }
+
+  /**
+   * Up to {@code limit} items positioned before {@code before}, newest first. A {@code null} position starts from the
+   * newest item.
+   */
+  public List<UUID> before(TimelinePosition before, int limit) {
+    NavigableSet<TimelinePosition> newestFirst = before == null ? positions.descendingSet() : positions.headSet(before, false).descendingSet();
+    List<UUID> items = new ArrayList<>(Math.min(limit, 64));
+    Iterator<TimelinePosition> iterator = newestFirst.iterator();
+    while (items.size() < limit && iterator.hasNext())
+      items.add(iterator.next().uniqueId());
+    return items;
+  }
+
+  public synchronized void clear() {
+    positions.clear();
+    positionsByItem.clear();
+  }
+
+}
@@ -0,0 +1,29 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+import org.goodgallery.gallery.properties.Properties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * A place on the timeline of items ordered by creation timestamp. Items created at the same millisecond are ordered
+ * by UUID, so every item has a distinct position and a page can continue exactly where the previous one ended.
+ */
+public record TimelinePosition(long timestamp, UUID uniqueId) implements Comparable<TimelinePosition> {
+
+  /**
+   * The position of an item, or {@code null} when it has no creation timestamp.
+   */
+  public static TimelinePosition of(GalleryItem galleryItem) {
+    Long timestamp = galleryItem.getPropertyValueOrNull(Properties.CREATION_TIMESTAMP_KEY);
+    return timestamp == null ? null : new TimelinePosition(timestamp, galleryItem.getUniqueId());
+  }
+
+  @Override
+  public int compareTo(@NotNull TimelinePosition other) {
+    int comparison = Long.compare(timestamp, other.timestamp);
+    return comparison != 0 ? comparison : uniqueId.compareTo(other.uniqueId);
+  }
+
+}
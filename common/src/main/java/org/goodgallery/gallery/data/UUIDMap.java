@@ -0,0 +1,328 @@
+package org.goodgallery.gallery.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent, open-addressed map storing UUID keys inline in a {@code long[]}. Iteration is weakly consistent, every
+ * entry present when an iterator is created is returned exactly once even if entries are removed meanwhile. Null values
+ * are not permitted.
+ */
+final class UUIDMap<V> extends AbstractMap<UUID, V> {
+
+  private static final int MINIMUM_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final StampedLock lock = new StampedLock();
+  // Slot i holds its key at keys[2i] and keys[2i + 1], a null value marks an empty slot
+  private long[] keys;
+  private Object[] values;
+  private int size;
+  // Set once an iterator walks the current table, the next removal then shifts entries in a copy and leaves it as it is
+  private volatile boolean shared;
+
+  UUIDMap() {
+    this.keys = new long[MINIMUM_CAPACITY * 2];
+    this.values = new Object[MINIMUM_CAPACITY];
+  }
+
+  private static int slot(long mostSignificantBits, long leastSignificantBits, int mask) {
+    long hash = mostSignificantBits ^ Long.rotateLeft(leastSignificantBits, 32);
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return (int) (hash ^ (hash >>> 33)) & mask;
+  }
+
+  private static int find(long[] keys, Object[] values, long mostSignificantBits, long leastSignificantBits) {
+    int mask = values.length - 1;
+    int slot = slot(mostSignificantBits, leastSignificantBits, mask);
+    // Bounded so a torn optimistic read of the table can never probe forever
+    for (int probes = 0; probes < values.length && values[slot] != null; probes++) {
+      if (keys[slot * 2] == mostSignificantBits && keys[slot * 2 + 1] == leastSignificantBits)
+        return slot;
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  @Override
+  public V get(Object key) {
+    if (!(key instanceof UUID uniqueId))
+      return null;
+    long mostSignificantBits = uniqueId.getMostSignificantBits();
+    long leastSignificantBits = uniqueId.getLeastSignificantBits();
+
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      // The table may change under an optimistic read, any slot read is only trusted once the stamp validates
+      long[] currentKeys = keys;
+      Object[] currentValues = values;
+      Object value = null;
+      if (currentKeys.length == currentValues.length * 2) {
+        int slot = find(currentKeys, currentValues, mostSignificantBits, leastSignificantBits);
+        value = slot < 0 ? null : currentValues[slot];
+      }
+      if (lock.validate(stamp))
+        //noinspection unchecked
+        return (V) value;
+    }
+
+    stamp = lock.readLock();
+    try {
+      int slot = find(keys, values, mostSignificantBits, leastSignificantBits);
+      //noinspection unchecked
+      return slot < 0 ? null : (V) values[slot];
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public V put(UUID key, V value) {
+    if (value == null)
+      throw new NullPointerException("UUIDMap does not permit null values");
+    long mostSignificantBits = key.getMostSignificantBits();
+    long leastSignificantBits = key.getLeastSignificantBits();
+    long stamp = lock.writeLock();
+    try {
+      int mask = values.length - 1;
+      int slot = slot(mostSignificantBits, leastSignificantBits, mask);
+      while (values[slot] != null) {
+        if (keys[slot * 2] == mostSignificantBits && keys[slot * 2 + 1] == leastSignificantBits) {
+          //noinspection unchecked
+          V previousValue = (V) values[slot];
+          values[slot] = value;
+          return previousValue;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[slot * 2] = mostSignificantBits;
+      keys[slot * 2 + 1] = leastSignificantBits;
+      values[slot] = value;
+      if (++size > values.length * LOAD_FACTOR)
+        resize(values.length * 2);
+      return null;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public V remove(Object key) {
+    if (!(key instanceof UUID uniqueId))
+      return null;
+    long stamp = lock.writeLock();
+    try {
+      int slot = find(keys, values, uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits());
+      if (slot < 0)
+        return null;
+      //noinspection unchecked
+      V previousValue = (V) values[slot];
+      if (shared) {
+        keys = keys.clone();
+        values = values.clone();
+        shared = false;
+      }
+      delete(slot);
+      size--;
+      return previousValue;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  // Shifts later entries of the probe run back into the emptied slot, so lookups never need tombstones
+  private void delete(int slot) {
+    int mask = values.length - 1;
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      if (values[next] == null)
+        break;
+      int home = slot(keys[next * 2], keys[next * 2 + 1], mask);
+      // An entry may only move back if its home slot does not lie cyclically within (slot, next]
+      boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+      if (!movable)
+        continue;
+      keys[slot * 2] = keys[next * 2];
+      keys[slot * 2 + 1] = keys[next * 2 + 1];
+      values[slot] = values[next];
+      slot = next;
+    }
+    values[slot] = null;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    long[] newKeys = new long[capacity * 2];
+    Object[] newValues = new Object[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] == null)
+        continue;
+      int slot = slot(oldKeys[i * 2], oldKeys[i * 2 + 1], mask);
+      while (newValues[slot] != null)
+        slot = (slot + 1) & mask;
+      newKeys[slot * 2] = oldKeys[i * 2];
+      newKeys[slot * 2 + 1] = oldKeys[i * 2 + 1];
+      newValues[slot] = oldValues[i];
+    }
+    // Replaced in one go by the writer, optimistic readers notice through the stamp
+    keys = newKeys;
+    values = newValues;
+    shared = false;
+  }
+
+  @Override
+  public int size() {
+    long stamp = lock.readLock();
+    try {
+      return size;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public void clear() {
+    long stamp = lock.writeLock();
+    try {
+      keys = new long[MINIMUM_CAPACITY * 2];
+      values = new Object[MINIMUM_CAPACITY];
+      size = 0;
+      shared = false;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public @NotNull Collection<V> values() {
+    return new AbstractCollection<>() {
+
+      @Override
+      public @NotNull Iterator<V> iterator() {
+        return new TableIterator<>() {
+          @Override
+          V element(long mostSignificantBits, long leastSignificantBits, Object value) {
+            //noinspection unchecked
+            return (V) value;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return UUIDMap.this.size();
+      }
+
+    };
+  }
+
+  @Override
+  public @NotNull Set<Entry<UUID, V>> entrySet() {
+    return new AbstractSet<>() {
+
+      @Override
+      public @NotNull Iterator<Entry<UUID, V>> iterator() {
+        return new TableIterator<>() {
+          @Override
+          Entry<UUID, V> element(long mostSignificantBits, long leastSignificantBits, Object value) {
+            //noinspection unchecked
+            return new SimpleImmutableEntry<>(new UUID(mostSignificantBits, leastSignificantBits), (V) value);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return UUIDMap.this.size();
+      }
+
+    };
+  }
+
+  // Walks the table current at creation, a resize or removal replaces the table and leaves this one as it was, so an entry
+  // is never shifted past the iterator
+  private abstract class TableIterator<E> implements Iterator<E> {
+
+    private final long[] tableKeys;
+    private final Object[] tableValues;
+    private int slot = -1;
+    private long mostSignificantBits;
+    private long leastSignificantBits;
+    private Object value;
+
+    TableIterator() {
+      long stamp = lock.readLock();
+      try {
+        tableKeys = keys;
+        tableValues = values;
+        shared = true;
+      } finally {
+        lock.unlockRead(stamp);
+      }
+      advance();
+    }
+
+    abstract E element(long mostSignificantBits, long leastSignificantBits, Object value);
+
+    private void advance() {
+      value = null;
+      while (value == null && ++slot < tableValues.length) {
+        long stamp = lock.tryOptimisticRead();
+        readSlot();
+        if (!lock.validate(stamp)) {
+          stamp = lock.readLock();
+          try {
+            readSlot();
+          } finally {
+            lock.unlockRead(stamp);
+          }
+        }
+      }
+    }
+
+    private void readSlot() {
+      value = tableValues[slot];
+      mostSignificantBits = tableKeys[slot * 2];
+      leastSignificantBits = tableKeys[slot * 2 + 1];
+    }
+
+    @Override
+    public boolean hasNext() {
+      return value != null;
+    }
+
+    @Override
+    public E next() {
+      if (value == null)
+        throw new NoSuchElementException();
+      E element = element(mostSignificantBits, leastSignificantBits, value);
+      advance();
+      return element;
+    }
+
+  }
+
+}
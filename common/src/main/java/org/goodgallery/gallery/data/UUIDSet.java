@@ -0,0 +1,144 @@
+package org.goodgallery.gallery.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * A set of UUIDs stored as pairs of {@code long}s with linear probing, for the membership index where most sets are
+ * small and numerous. Not thread-safe, callers synchronize. Iterating creates a {@link UUID} per element.
+ */
+final class UUIDSet extends AbstractSet<UUID> {
+
+  private static final int MINIMUM_CAPACITY = 4;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private long[] keys = new long[MINIMUM_CAPACITY * 2];
+  private boolean[] occupied = new boolean[MINIMUM_CAPACITY];
+  private int size;
+
+  private static int slot(long mostSignificantBits, long leastSignificantBits, int mask) {
+    long hash = mostSignificantBits ^ Long.rotateLeft(leastSignificantBits, 32);
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    return (int) (hash ^ (hash >>> 33)) & mask;
+  }
+
+  private int find(long mostSignificantBits, long leastSignificantBits) {
+    int mask = occupied.length - 1;
+    int slot = slot(mostSignificantBits, leastSignificantBits, mask);
+    while (occupied[slot]) {
+      if (keys[slot * 2] == mostSignificantBits && keys[slot * 2 + 1] == leastSignificantBits)
+        return slot;
+      slot = (slot + 1) & mask;
+    }
+    return -slot - 1;
+  }
+
+  @Override
+  public boolean contains(Object object) {
+    return object instanceof UUID uniqueId && find(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits()) >= 0;
+  }
+
+  @Override
+  public boolean add(UUID uniqueId) {
+    int slot = find(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits());
+    if (slot >= 0)
+      return false;
+    slot = -slot - 1;
+    keys[slot * 2] = uniqueId.getMostSignificantBits();
+    keys[slot * 2 + 1] = uniqueId.getLeastSignificantBits();
+    occupied[slot] = true;
+    if (++size > occupied.length * LOAD_FACTOR)
+      resize(occupied.length * 2);
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object object) {
+    if (!(object instanceof UUID uniqueId))
+      return false;
+    int slot = find(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits());
+    if (slot < 0)
+      return false;
+    // Shift later entries of the probe run back so lookups never need tombstones
+    int mask = occupied.length - 1;
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      if (!occupied[next])
+        break;
+      int home = slot(keys[next * 2], keys[next * 2 + 1], mask);
+      if (slot <= next ? (home > slot && home <= next) : (home > slot || home <= next))
+        continue;
+      keys[slot * 2] = keys[next * 2];
+      keys[slot * 2 + 1] = keys[next * 2 + 1];
+      slot = next;
+    }
+    occupied[slot] = false;
+    size--;
+    return true;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    boolean[] oldOccupied = occupied;
+    keys = new long[capacity * 2];
+    occupied = new boolean[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldOccupied.length; i++) {
+      if (!oldOccupied[i])
+        continue;
+      int slot = slot(oldKeys[i * 2], oldKeys[i * 2 + 1], mask);
+      while (occupied[slot])
+        slot = (slot + 1) & mask;
+      keys[slot * 2] = oldKeys[i * 2];
+      keys[slot * 2 + 1] = oldKeys[i * 2 + 1];
+      occupied[slot] = true;
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    keys = new long[MINIMUM_CAPACITY * 2];
+    occupied = new boolean[MINIMUM_CAPACITY];
+    size = 0;
+  }
+
+  @Override
+  public @NotNull Iterator<UUID> iterator() {
+    return new Iterator<>() {
+
+      private int slot = advance(0);
+
+      private int advance(int from) {
+        while (from < occupied.length && !occupied[from])
+          from++;
+        return from;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return slot < occupied.length;
+      }
+
+      @Override
+      public UUID next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        UUID uniqueId = new UUID(keys[slot * 2], keys[slot * 2 + 1]);
+        slot = advance(slot + 1);
+        return uniqueId;
+      }
+
+    };
+  }
+
+}
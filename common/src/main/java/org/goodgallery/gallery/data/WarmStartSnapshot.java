@@ -0,0 +1,112 @@
+package org.goodgallery.gallery.data;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact copy of every item's serialized properties, written on a clean shutdown so the next start can skip
+ * reading the database. The snapshot records the change counter of the database it was taken from and is only used
+ * while the database still holds that counter.
+ *
+ * <pre>
+ * magic, version, change counter, item count, (item type, uuid, property count, (key, data length, data)*)*, crc32
+ * </pre>
+ */
+final class WarmStartSnapshot {
+
+  private static final long MAGIC = 0x4747_534E_4150_5348L; // GGSNAPSH
+  private static final int VERSION = 1;
+
+  private WarmStartSnapshot() {
+  }
+
+  static void write(Path path, long changeCounter, List<Entry> entries) throws IOException {
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    CRC32 crc = new CRC32();
+    try (FileOutputStream fileOutput = new FileOutputStream(temporaryPath.toFile());
+         DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOutput, crc)))) {
+      output.writeLong(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(changeCounter);
+      output.writeInt(entries.size());
+      for (Entry entry : entries) {
+        output.writeUTF(entry.itemType());
+        output.writeLong(entry.uniqueId().getMostSignificantBits());
+        output.writeLong(entry.uniqueId().getLeastSignificantBits());
+        output.writeShort(entry.properties().size());
+        for (Map.Entry<String, byte[]> property : entry.properties().entrySet()) {
+          output.writeUTF(property.getKey());
+          output.writeInt(property.getValue().length);
+          output.write(property.getValue());
+        }
+      }
+      output.flush();
+      // The checksum covers everything before it, so it is written past the checked stream
+      new DataOutputStream(fileOutput).writeInt((int) crc.getValue());
+      fileOutput.getFD().sync();
+    }
+    Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Reads the snapshot if it exists, is intact and was taken at {@code changeCounter}.
+   */
+  static Optional<List<Entry>> read(Path path, long changeCounter) {
+    CRC32 crc = new CRC32();
+    try (InputStream fileInput = new BufferedInputStream(Files.newInputStream(path));
+         DataInputStream input = new DataInputStream(new CheckedInputStream(fileInput, crc))) {
+      if (input.readLong() != MAGIC || input.readInt() != VERSION || input.readLong() != changeCounter)
+        return Optional.empty();
+      int count = input.readInt();
+      List<Entry> entries = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String itemType = input.readUTF();
+        UUID uniqueId = new UUID(input.readLong(), input.readLong());
+        int propertyCount = input.readUnsignedShort();
+        Map<String, byte[]> properties = new HashMap<>(propertyCount * 2);
+        for (int j = 0; j < propertyCount; j++) {
+          String key = input.readUTF();
+          byte[] data = new byte[input.readInt()];
+          input.readFully(data);
+          properties.put(key, data);
+        }
+        entries.add(new Entry(itemType, uniqueId, properties));
+      }
+      int expectedCrc = (int) crc.getValue();
+      if (new DataInputStream(fileInput).readInt() != expectedCrc)
+        return Optional.empty();
+      return Optional.of(entries);
+    } catch (NoSuchFileException _) {
+      return Optional.empty();
+    } catch (IOException | RuntimeException exception) {
+      System.out.println("Ignoring unreadable snapshot \"" + path + "\"");
+      exception.printStackTrace(System.out);
+      return Optional.empty();
+    }
+  }
+
+  static void delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException exception) {
+      System.out.println("Failed to delete snapshot \"" + path + "\"");
+      exception.printStackTrace(System.out);
+    }
+  }
+
+  record Entry(String itemType, UUID uniqueId, Map<String, byte[]> properties) {
+  }
+
+}
@@ -0,0 +1,183 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.GalleryItem;
+import org.goodgallery.gallery.properties.PropertyInstance;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Buffers property updates, coalesced per item and key, and writes them in batches when full or after a delay.
+ */
+final class WriteBehindQueue implements AutoCloseable {
+
+  // An update that failed this often on its own is dropped, retrying it would hold it in the queue forever
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final int maxPendingWrites;
+  private final Duration maxDelay;
+  private final Consumer<List<PropertyUpdate>> writer;
+  private final ScheduledExecutorService scheduler;
+
+  private final Object flushLock = new Object();
+  private Map<PendingKey, PropertyUpdate> pendingUpdates = new LinkedHashMap<>();
+  private final Map<PendingKey, Integer> failedAttempts = new HashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean closed = false;
+
+  WriteBehindQueue(int maxPendingWrites, Duration maxDelay, Consumer<List<PropertyUpdate>> writer) {
+    if (maxPendingWrites < 1)
+      throw new IllegalArgumentException("Write-behind batch size must be at least 1");
+    if (maxDelay.isNegative() || maxDelay.isZero())
+      throw new IllegalArgumentException("Write-behind delay must be positive");
+    this.maxPendingWrites = maxPendingWrites;
+    this.maxDelay = maxDelay;
+    this.writer = writer;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().name("GoodGallery-WriteBehind").daemon().factory()
+    );
+  }
+
+  public void enqueue(GalleryItem galleryItem, PropertyInstance<?> property) {
+    boolean flushNow;
+    synchronized (this) {
+      if (closed)
+        throw new IllegalStateException("Write-behind queue has already been closed");
+      PendingKey pendingKey = new PendingKey(galleryItem.getUniqueId(), property.key().toString());
+      pendingUpdates.put(pendingKey, new PropertyUpdate(galleryItem, property));
+      // A newer value gets attempts of its own
+      failedAttempts.remove(pendingKey);
+      flushNow = pendingUpdates.size() >= maxPendingWrites;
+      if (!flushNow && scheduledFlush == null)
+        scheduledFlush = scheduler.schedule(this::flushOrLog, maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    // The caller's update is queued either way, a failing batch is retried later rather than failing the caller
+    if (flushNow)
+      flushOrLog();
+  }
+
+  public synchronized int pending() {
+    return pendingUpdates.size();
+  }
+
+  public void flush() {
+    RuntimeException failure = write();
+    if (failure != null)
+      throw failure;
+  }
+
+  private RuntimeException write() {
+    synchronized (flushLock) {
+      Map<PendingKey, PropertyUpdate> batch;
+      synchronized (this) {
+        if (scheduledFlush != null) {
+          scheduledFlush.cancel(false);
+          scheduledFlush = null;
+        }
+        if (pendingUpdates.isEmpty())
+          return null;
+        batch = pendingUpdates;
+        pendingUpdates = new LinkedHashMap<>();
+      }
+
+      try {
+        writer.accept(new ArrayList<>(batch.values()));
+        succeeded(batch.keySet());
+        return null;
+      } catch (RuntimeException exception) {
+        if (batch.size() == 1) {
+          requeue(batch);
+          return exception;
+        }
+      }
+
+      // Written one at a time, so an update the backend rejects does not hold back the rest of the batch
+      Map<PendingKey, PropertyUpdate> failed = new LinkedHashMap<>();
+      RuntimeException failure = null;
+      for (Map.Entry<PendingKey, PropertyUpdate> update : batch.entrySet()) {
+        try {
+          writer.accept(List.of(update.getValue()));
+        } catch (RuntimeException exception) {
+          failed.put(update.getKey(), update.getValue());
+          if (failure == null)
+            failure = exception;
+        }
+      }
+      succeeded(batch.keySet().stream().filter(key -> !failed.containsKey(key)).toList());
+      requeue(failed);
+      return failure;
+    }
+  }
+
+  // Waits for an in-flight flush, so no update for the item reaches the backend after this returns
+  public void discard(UUID uniqueId) {
+    synchronized (flushLock) {
+      synchronized (this) {
+        pendingUpdates.keySet().removeIf(key -> key.uniqueId().equals(uniqueId));
+        failedAttempts.keySet().removeIf(key -> key.uniqueId().equals(uniqueId));
+      }
+    }
+  }
+
+  private synchronized void succeeded(Collection<PendingKey> keys) {
+    if (!failedAttempts.isEmpty())
+      failedAttempts.keySet().removeAll(keys);
+  }
+
+  private synchronized void requeue(Map<PendingKey, PropertyUpdate> failed) {
+    if (failed.isEmpty())
+      return;
+    // Updates enqueued while the failed batch was being written are newer and take precedence
+    Map<PendingKey, PropertyUpdate> merged = new LinkedHashMap<>();
+    failed.forEach((key, update) -> {
+      if (pendingUpdates.containsKey(key))
+        return;
+      int attempts = failedAttempts.merge(key, 1, Integer::sum);
+      if (attempts < MAX_ATTEMPTS) {
+        merged.put(key, update);
+      } else {
+        failedAttempts.remove(key);
+        System.out.println("Dropping update of \"%s\" on item %s after %d failed writes".formatted(key.key(), key.uniqueId(), attempts));
+      }
+    });
+    merged.putAll(pendingUpdates);
+    pendingUpdates = merged;
+    if (!closed && !pendingUpdates.isEmpty() && scheduledFlush == null)
+      scheduledFlush = scheduler.schedule(this::flushOrLog, maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  private void flushOrLog() {
+    RuntimeException failure = write();
+    if (failure != null) {
+      System.out.println("Failed to flush pending property updates, retrying later.");
+      failure.printStackTrace(System.out);
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    try {
+      flush();
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+
+  private record PendingKey(UUID uniqueId, String key) {
+  }
+
+}
@@ -0,0 +1,278 @@
+package org.goodgallery.gallery.properties;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An immutable set stored as a hash array mapped trie, for membership properties. {@link #with} and {@link #without}
+ * return a new set that shares all but the O(log n) changed nodes with this one, so a membership change never copies
+ * the whole set and readers holding the previous set never see it change. Does not permit {@code null}.
+ */
+public final class PersistentSet<E> extends AbstractSet<E> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  // Seven levels of five bits consume the hash, a collision node may hang below the last one
+  private static final int MAX_DEPTH = (Integer.SIZE + BITS - 1) / BITS + 1;
+
+  private static final PersistentSet<?> EMPTY = new PersistentSet<>(new BitmapNode(0, new Object[0]), 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentSet(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <E> PersistentSet<E> of() {
+    return (PersistentSet<E>) EMPTY;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <E> PersistentSet<E> copyOf(Collection<? extends E> elements) {
+    if (elements instanceof PersistentSet<?> set)
+      return (PersistentSet<E>) set;
+    PersistentSet<E> set = of();
+    for (E element : elements)
+      set = set.with(element);
+    return set;
+  }
+
+  public PersistentSet<E> with(E element) {
+    Objects.requireNonNull(element);
+    Node updated = root.with(element, hash(element), 0);
+    return updated == root ? this : new PersistentSet<>(updated, size + 1);
+  }
+
+  public PersistentSet<E> without(Object element) {
+    if (element == null)
+      return this;
+    Node updated = root.without(element, hash(element), 0);
+    if (updated == root)
+      return this;
+    return updated == null ? of() : new PersistentSet<>(updated, size - 1);
+  }
+
+  @Override
+  public boolean contains(Object element) {
+    return element != null && root.contains(element, hash(element), 0);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public @NotNull Iterator<E> iterator() {
+    return new NodeIterator<>(root);
+  }
+
+  private static int hash(Object element) {
+    int hash = element.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  // A node holding both elements, branching further down while their hashes agree
+  private static Node merge(Object first, int firstHash, Object second, int secondHash, int shift) {
+    if (firstHash == secondHash)
+      return new CollisionNode(firstHash, new Object[]{first, second});
+    int firstFragment = (firstHash >>> shift) & MASK;
+    int secondFragment = (secondHash >>> shift) & MASK;
+    if (firstFragment == secondFragment)
+      return new BitmapNode(1 << firstFragment, new Object[]{merge(first, firstHash, second, secondHash, shift + BITS)});
+    int bitmap = (1 << firstFragment) | (1 << secondFragment);
+    return new BitmapNode(bitmap, firstFragment < secondFragment ? new Object[]{first, second} : new Object[]{second, first});
+  }
+
+  // Every slot holds either an element or a child node, elements are never nodes since the type is private
+  private sealed interface Node permits BitmapNode, CollisionNode {
+
+    Object[] slots();
+
+    boolean contains(Object element, int hash, int shift);
+
+    // This node itself when the element is already present
+    Node with(Object element, int hash, int shift);
+
+    // This node itself when the element is absent, null once the node would be empty
+    Node without(Object element, int hash, int shift);
+
+  }
+
+  private record BitmapNode(int bitmap, Object[] slots) implements Node {
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    public boolean contains(Object element, int hash, int shift) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0)
+        return false;
+      Object slot = slots[index(bit)];
+      return slot instanceof Node node ? node.contains(element, hash, shift + BITS) : slot.equals(element);
+    }
+
+    @Override
+    public Node with(Object element, int hash, int shift) {
+      int bit = bit(hash, shift);
+      int index = index(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] updated = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, updated, 0, index);
+        updated[index] = element;
+        System.arraycopy(slots, index, updated, index + 1, slots.length - index);
+        return new BitmapNode(bitmap | bit, updated);
+      }
+      Object slot = slots[index];
+      if (slot instanceof Node node) {
+        Node child = node.with(element, hash, shift + BITS);
+        return child == node ? this : replace(index, child);
+      }
+      if (slot.equals(element))
+        return this;
+      return replace(index, merge(slot, hash(slot), element, hash, shift + BITS));
+    }
+
+    @Override
+    public Node without(Object element, int hash, int shift) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0)
+        return this;
+      int index = index(bit);
+      Object slot = slots[index];
+      if (slot instanceof Node node) {
+        Node child = node.without(element, hash, shift + BITS);
+        if (child == node)
+          return this;
+        if (child == null)
+          return remove(bit, index);
+        // A child left with a single element is folded back into this node
+        if (child.slots().length == 1 && !(child.slots()[0] instanceof Node))
+          return replace(index, child.slots()[0]);
+        return replace(index, child);
+      }
+      if (!slot.equals(element))
+        return this;
+      return slots.length == 1 ? null : remove(bit, index);
+    }
+
+    private BitmapNode replace(int index, Object slot) {
+      Object[] updated = slots.clone();
+      updated[index] = slot;
+      return new BitmapNode(bitmap, updated);
+    }
+
+    private BitmapNode remove(int bit, int index) {
+      Object[] updated = new Object[slots.length - 1];
+      System.arraycopy(slots, 0, updated, 0, index);
+      System.arraycopy(slots, index + 1, updated, index, updated.length - index);
+      return new BitmapNode(bitmap & ~bit, updated);
+    }
+
+  }
+
+  // Elements whose full hashes are equal
+  private record CollisionNode(int hash, Object[] slots) implements Node {
+
+    private int indexOf(Object element) {
+      for (int index = 0; index < slots.length; index++)
+        if (slots[index].equals(element))
+          return index;
+      return -1;
+    }
+
+    @Override
+    public boolean contains(Object element, int hash, int shift) {
+      return hash == this.hash && indexOf(element) >= 0;
+    }
+
+    @Override
+    public Node with(Object element, int hash, int shift) {
+      if (hash != this.hash)
+        return new BitmapNode(bit(this.hash, shift), new Object[]{this}).with(element, hash, shift);
+      if (indexOf(element) >= 0)
+        return this;
+      Object[] updated = new Object[slots.length + 1];
+      System.arraycopy(slots, 0, updated, 0, slots.length);
+      updated[slots.length] = element;
+      return new CollisionNode(hash, updated);
+    }
+
+    @Override
+    public Node without(Object element, int hash, int shift) {
+      int index = hash == this.hash ? indexOf(element) : -1;
+      if (index < 0)
+        return this;
+      if (slots.length == 1)
+        return null;
+      Object[] updated = new Object[slots.length - 1];
+      System.arraycopy(slots, 0, updated, 0, index);
+      System.arraycopy(slots, index + 1, updated, index, updated.length - index);
+      return new CollisionNode(hash, updated);
+    }
+
+  }
+
+  private static final class NodeIterator<E> implements Iterator<E> {
+
+    private final Object[][] slots = new Object[MAX_DEPTH][];
+    private final int[] positions = new int[MAX_DEPTH];
+    private int depth;
+    private Object next;
+
+    private NodeIterator(Node root) {
+      slots[0] = root.slots();
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (depth >= 0) {
+        if (positions[depth] == slots[depth].length) {
+          depth--;
+          continue;
+        }
+        Object slot = slots[depth][positions[depth]++];
+        if (slot instanceof Node node) {
+          depth++;
+          slots[depth] = node.slots();
+          positions[depth] = 0;
+        } else {
+          next = slot;
+          return;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+      if (next == null)
+        throw new NoSuchElementException();
+      E element = (E) next;
+      advance();
+      return element;
+    }
+
+  }
+
+}
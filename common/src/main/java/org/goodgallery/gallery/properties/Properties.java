@@ -3,6 +3,7 @@ package org.goodgallery.gallery.properties;
 import org.goodgallery.gallery.Album;
 import org.goodgallery.gallery.GalleryInstance;
 import org.goodgallery.gallery.GalleryItem;
+import org.goodgallery.gallery.ImageFormat;
 import org.goodgallery.gallery.Photo;
 import org.jetbrains.annotations.NotNull;
 
@@ -33,6 +34,7 @@ public interface Properties<N> extends Iterable<N> {
     timestamp -> ByteBuffer.allocate(Long.BYTES).putLong(timestamp).array(),
     data -> ByteBuffer.wrap(data).getLong()
   ).defaultProvider(properties -> properties.getValue(PATH_KEY).map(
+    // Only a fallback for photos whose attributes were never captured, see FileAttributes
     path -> {
       try {
         return Files.readAttributes(path, BasicFileAttributes.class).creationTime().toInstant().toEpochMilli();
@@ -44,15 +46,37 @@ public interface Properties<N> extends Iterable<N> {
     }).orElse(System.currentTimeMillis())
   );
 
+  PropertyKey<Long> MODIFIED_TIMESTAMP_KEY = new PropertyKey<>("modified_timestamp",
+    timestamp -> ByteBuffer.allocate(Long.BYTES).putLong(timestamp).array(),
+    data -> ByteBuffer.wrap(data).getLong()
+  );
+
+  PropertyKey<Long> FILE_SIZE_KEY = new PropertyKey<>("file_size",
+    size -> ByteBuffer.allocate(Long.BYTES).putLong(size).array(),
+    data -> ByteBuffer.wrap(data).getLong()
+  );
+
+  // Hex SHA-256 of the file's content, see ContentHash
+  PropertyKey<String> CONTENT_HASH_KEY = new PropertyKey<>("content_hash",
+    hash -> hash.getBytes(StandardCharsets.UTF_8),
+    data -> new String(data, StandardCharsets.UTF_8)
+  );
+
+  // Detected when a photo is added, photos added before that are filled in by FileAttributeBackfill
+  PropertyKey<ImageFormat> IMAGE_FORMAT_KEY = new PropertyKey<>("image_format",
+    format -> format.name().getBytes(StandardCharsets.UTF_8),
+    data -> ImageFormat.valueOf(new String(data, StandardCharsets.UTF_8))
+  );
+
   PropertyKey<Set<Photo>> PHOTOS_KEY = new PropertyKey<>("photos",
     Properties::serializeGalleryItems,
     data -> deserializeGalleryItems(data, uniqueId -> GalleryInstance.get().getPhoto(uniqueId)))
-    .defaultProvider(_ -> new HashSet<>());
+    .defaultProvider(_ -> PersistentSet.of());
 
   PropertyKey<Set<Album>> ALBUMS_KEY = new PropertyKey<>("albums",
     Properties::serializeGalleryItems,
     data -> deserializeGalleryItems(data, uniqueId -> GalleryInstance.get().getAlbum(uniqueId)))
-    .defaultProvider(_ -> new HashSet<>());
+    .defaultProvider(_ -> PersistentSet.of());
 
   private static <T extends GalleryItem> byte[] serializeGalleryItems(Set<T> items) {
     ByteBuffer byteBuffer = ByteBuffer.allocate(Long.BYTES * 2 * items.size());
@@ -66,9 +90,12 @@ public interface Properties<N> extends Iterable<N> {
 
   private static <T extends GalleryItem> Set<T> deserializeGalleryItems(byte[] data, Function<UUID, Optional<T>> deserializer) {
     ByteBuffer byteBuffer = ByteBuffer.wrap(data);
-    Set<T> items = new HashSet<>((data.length / (Long.BYTES * 2)));
-    while (byteBuffer.hasRemaining())
-      deserializer.apply(new UUID(byteBuffer.getLong(), byteBuffer.getLong())).ifPresent(items::add);
+    PersistentSet<T> items = PersistentSet.of();
+    while (byteBuffer.hasRemaining()) {
+      Optional<T> item = deserializer.apply(new UUID(byteBuffer.getLong(), byteBuffer.getLong()));
+      if (item.isPresent())
+        items = items.with(item.get());
+    }
     return items;
   }
 
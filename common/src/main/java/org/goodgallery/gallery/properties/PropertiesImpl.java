@@ -2,47 +2,72 @@ package org.goodgallery.gallery.properties;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Optional;
 
 public final class PropertiesImpl implements Properties<PropertyInstance<?>> {
 
-  private final Map<PropertyKey<?>, PropertyInstance<?>> properties;
+  // Indexed by PropertyKey#index(), grown when a key created after this item is first used
+  private PropertyInstance<?>[] properties;
 
   public PropertiesImpl(@NotNull SerializedProperties serializedProperties, PropertyKey<?> @NotNull ... keys) {
-    this.properties = new HashMap<>();
+    this.properties = new PropertyInstance<?>[PropertyKey.count()];
 
     for (PropertyKey<?> key : keys)
       register(serializedProperties, key);
   }
 
+  // Nothing is decoded here, each property decodes its data or derives its default when first read
   private <T> void register(SerializedProperties serializedProperties, PropertyKey<T> key) {
-    serializedProperties.getValueOrKeyDefault(key).ifPresentOrElse(
-      value -> properties.put(key, new PropertyInstance<>(key, value)),
-      () -> properties.put(key, new PropertyInstance<>(key, null))
-    );
+    byte[] serializedValue = serializedProperties.serializedData().get(key.toString());
+    put(key, serializedValue != null ? PropertyInstance.serialized(key, serializedValue) : PropertyInstance.defaulted(key, this));
+  }
+
+  private void put(PropertyKey<?> key, PropertyInstance<?> instance) {
+    if (key.index() >= properties.length)
+      properties = Arrays.copyOf(properties, PropertyKey.count());
+    properties[key.index()] = instance;
   }
 
   @Override
   public Collection<PropertyInstance<?>> all() {
-    return properties.values();
+    List<PropertyInstance<?>> instances = new ArrayList<>(properties.length);
+    for (PropertyInstance<?> instance : properties)
+      if (instance != null)
+        instances.add(instance);
+    return instances;
   }
 
   public <T> PropertyInstance<T> get(PropertyKey<T> key) {
-    PropertyInstance<?> instance = properties.get(key);
+    PropertyInstance<?> instance = key.index() < properties.length ? properties[key.index()] : null;
     if (instance != null)
       //noinspection unchecked
       return (PropertyInstance<T>) instance;
     PropertyInstance<T> typedInstance = new PropertyInstance<>(key, null);
-    properties.put(key, typedInstance);
+    put(key, typedInstance);
     return typedInstance;
   }
 
   @Override
   public <T> Optional<T> getValue(PropertyKey<T> key) {
-    return get(key).value();
+    return Optional.ofNullable(getOrNull(key));
+  }
+
+  /**
+   * The value of a property without wrapping it, or {@code null} when it is not set.
+   */
+  public <T> T getOrNull(PropertyKey<T> key) {
+    PropertyInstance<?> instance = key.index() < properties.length ? properties[key.index()] : null;
+    //noinspection unchecked
+    return instance == null ? null : (T) instance.getOrNull();
+  }
+
+  public long getLong(PropertyKey<Long> key, long defaultValue) {
+    Long value = getOrNull(key);
+    return value != null ? value : defaultValue;
   }
 
-}
\ No newline at end of file
+}
@@ -2,31 +2,100 @@ package org.goodgallery.gallery.properties;
 
 import java.util.Optional;
 
+/**
+ * The value of one property of an item. A value read from storage keeps its serialized form and is only decoded on
+ * first access, and a missing value is only derived from its key's default on first access, so loading an item does
+ * no work for properties nobody reads and references to other items resolve against the fully loaded gallery.
+ */
 public final class PropertyInstance<T> {
 
   private final PropertyKey<T> key;
   private T value;
+  private byte[] serializedValue;
+  private Properties<?> defaultSource;
+  // A value derived from the key's default is not the item's own, so it is never reported as set or persisted
+  private boolean derived;
+  // Written last when the pending state is set up and cleared once resolved, so readers only lock while it is set
+  private volatile boolean pending;
 
   public PropertyInstance(PropertyKey<T> key, T value) {
     this.key = key;
     this.value = value;
   }
 
+  static <T> PropertyInstance<T> serialized(PropertyKey<T> key, byte[] serializedValue) {
+    PropertyInstance<T> instance = new PropertyInstance<>(key, null);
+    instance.serializedValue = serializedValue;
+    instance.pending = true;
+    return instance;
+  }
+
+  static <T> PropertyInstance<T> defaulted(PropertyKey<T> key, Properties<?> defaultSource) {
+    PropertyInstance<T> instance = new PropertyInstance<>(key, null);
+    instance.defaultSource = defaultSource;
+    instance.derived = true;
+    instance.pending = true;
+    return instance;
+  }
+
+  private T resolve() {
+    if (pending) {
+      synchronized (this) {
+        if (pending) {
+          value = serializedValue != null ? key.deserialize(serializedValue) : key.getDefaultValue(defaultSource).orElse(null);
+          serializedValue = null;
+          defaultSource = null;
+          pending = false;
+        }
+      }
+    }
+    return value;
+  }
+
   public byte[] serialize() {
-    return key.serialize(value);
+    if (pending) {
+      synchronized (this) {
+        // Values that were never decoded are written back as they were read
+        if (pending && serializedValue != null)
+          return serializedValue;
+      }
+    }
+    return key.serialize(resolve());
   }
 
   public PropertyKey<T> key() {
     return key;
   }
 
+  /**
+   * Whether the property has a value of its own, without decoding a value that was read from storage. A value derived
+   * from the key's default does not count.
+   */
+  public boolean isSet() {
+    if (pending) {
+      synchronized (this) {
+        if (pending)
+          return serializedValue != null;
+      }
+    }
+    return !derived && value != null;
+  }
+
   public Optional<T> value() {
-    return Optional.ofNullable(value);
+    return Optional.ofNullable(resolve());
+  }
+
+  public T getOrNull() {
+    return resolve();
   }
 
-  public PropertyInstance<T> value(T value) {
+  public synchronized PropertyInstance<T> value(T value) {
     this.value = value;
+    this.serializedValue = null;
+    this.defaultSource = null;
+    this.derived = false;
+    this.pending = false;
     return this;
   }
 
-}
\ No newline at end of file
+}
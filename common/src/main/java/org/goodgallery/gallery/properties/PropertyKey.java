@@ -1,11 +1,23 @@
 package org.goodgallery.gallery.properties;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 public final class PropertyKey<T> {
 
+  private static final Map<String, PropertyKey<?>> KEYS = new ConcurrentHashMap<>();
+
+  /**
+   * The number of keys created so far, every key's {@link #index()} is below it.
+   */
+  public static int count() {
+    return KEYS.size();
+  }
+
   private final String id;
+  private final int index;
   private final Function<T,  byte[]> serializer;
   private final Function<byte[], T> deserializer;
 
@@ -15,6 +27,19 @@ public final class PropertyKey<T> {
     this.id = id;
     this.serializer = serializer;
     this.deserializer = deserializer;
+    synchronized (KEYS) {
+      if (KEYS.putIfAbsent(id, this) != null)
+        throw new IllegalArgumentException("Property key \"%s\" already exists".formatted(id));
+      this.index = KEYS.size() - 1;
+    }
+  }
+
+  /**
+   * A small number identifying this key, stable for the lifetime of the process, used to store property values in
+   * arrays rather than maps.
+   */
+  public int index() {
+    return index;
   }
 
   public byte[] serialize(T value) {
@@ -0,0 +1,138 @@
+package org.goodgallery.gallery;
+
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThumbnailServiceTest {
+
+  private static final long UNLIMITED = Long.MAX_VALUE;
+
+  @TempDir
+  Path directory;
+
+  private Photo photo(String name, int width, int height, ImageFormat format) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        image.setRGB(x, y, (x * 31 + y * 17) & 0xFFFFFF);
+    Path file = directory.resolve(name + ".png");
+    ImageIO.write(image, "png", file.toFile());
+
+    Photo photo = new Photo();
+    PropertiesImpl properties = (PropertiesImpl) photo.getProperties();
+    properties.get(Properties.PATH_KEY).value(file);
+    properties.get(Properties.IMAGE_FORMAT_KEY).value(format);
+    return photo;
+  }
+
+  private static List<Path> thumbnails(ThumbnailService thumbnailService, Photo photo) {
+    List<Path> thumbnails = new ArrayList<>();
+    for (ThumbnailSize thumbnailSize : ThumbnailSize.values())
+      thumbnails.add(thumbnailService.get(photo, thumbnailSize).orElseThrow());
+    return thumbnails;
+  }
+
+  @Test
+  void generatesEverySizeFromASubsampledDecode() throws IOException {
+    Photo photo = photo("large", 5_000, 3_000, ImageFormat.PNG);
+    try (ThumbnailService thumbnailService = new ThumbnailService(directory, UNLIMITED)) {
+      for (ThumbnailSize thumbnailSize : ThumbnailSize.values()) {
+        BufferedImage thumbnail = ImageIO.read(thumbnailService.get(photo, thumbnailSize).orElseThrow().toFile());
+        assertEquals(thumbnailSize.maxEdge(), thumbnail.getWidth());
+        assertEquals(thumbnailSize.maxEdge() * 3 / 5, thumbnail.getHeight(), 1);
+      }
+      assertEquals(1, thumbnailService.stats().generated());
+    }
+  }
+
+  @Test
+  void sharesOneGenerationBetweenConcurrentRequests() throws Exception {
+    Photo photo = photo("shared", 3_000, 2_000, ImageFormat.PNG);
+    int requests = 16;
+    try (ThumbnailService thumbnailService = new ThumbnailService(directory, UNLIMITED)) {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Optional<Path>>> results = new ArrayList<>();
+      try (ExecutorService executor = Executors.newFixedThreadPool(requests)) {
+        for (int i = 0; i < requests; i++) {
+          results.add(executor.submit(() -> {
+            start.await();
+            return thumbnailService.get(photo, ThumbnailSize.MEDIUM);
+          }));
+        }
+        start.countDown();
+      }
+
+      Set<Path> thumbnails = new HashSet<>();
+      for (Future<Optional<Path>> result : results)
+        thumbnails.add(result.get().orElseThrow());
+      assertEquals(1, thumbnails.size());
+      assertEquals(1, thumbnailService.stats().generated());
+      assertEquals(requests, thumbnailService.stats().hits() + thumbnailService.stats().misses());
+    }
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedThumbnailsOnceFull() throws IOException {
+    Photo old = photo("old", 2_000, 1_500, ImageFormat.PNG);
+    Photo recent = photo("recent", 2_000, 1_500, ImageFormat.PNG);
+    List<Path> oldThumbnails;
+    long oldSize;
+    try (ThumbnailService thumbnailService = new ThumbnailService(directory, UNLIMITED)) {
+      oldThumbnails = thumbnails(thumbnailService, old);
+      oldSize = thumbnailService.stats().size();
+    }
+    FileTime lastUsed = FileTime.from(Instant.now().minus(1, ChronoUnit.DAYS));
+    for (Path thumbnail : oldThumbnails)
+      Files.setLastModifiedTime(thumbnail, lastUsed);
+
+    // Room for one photo's thumbnails, not two
+    try (ThumbnailService thumbnailService = new ThumbnailService(directory, oldSize * 3 / 2)) {
+      thumbnailService.start();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (thumbnailService.stats().size() < oldSize && System.nanoTime() < deadline)
+        Thread.onSpinWait();
+      List<Path> recentThumbnails = thumbnails(thumbnailService, recent);
+
+      assertTrue(thumbnailService.stats().evictions() > 0);
+      assertTrue(thumbnailService.stats().size() <= oldSize * 3 / 2);
+      assertTrue(oldThumbnails.stream().anyMatch(thumbnail -> !Files.exists(thumbnail)));
+      assertTrue(recentThumbnails.stream().allMatch(Files::exists));
+    }
+  }
+
+  @Test
+  void skipsFormatsImageIOCannotDecode() throws IOException {
+    // Decodable content, so only the stored format keeps it from being read
+    Photo photo = photo("heic", 800, 600, ImageFormat.HEIC);
+    try (ThumbnailService thumbnailService = new ThumbnailService(directory, UNLIMITED)) {
+      assertEquals(Optional.empty(), thumbnailService.get(photo, ThumbnailSize.SMALL));
+      assertEquals(0, thumbnailService.stats().generated());
+      assertEquals(0, thumbnailService.stats().misses());
+    }
+  }
+
+}
@@ -0,0 +1,218 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.data.BinaryStore.StoredItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryStoreTest {
+
+  private static final byte PHOTO = 0;
+  private static final byte ALBUM = 1;
+
+  @TempDir
+  Path directory;
+
+  private BinaryStore store(Path path) {
+    return new BinaryStore(path, 2, Set.of("name"));
+  }
+
+  private static Map<String, byte[]> named(String name) {
+    return Map.of("name", name.getBytes(StandardCharsets.UTF_8), "size", new byte[]{1, 2, 3});
+  }
+
+  private static Optional<UUID> find(BinaryStore store, byte type, String name) {
+    return store.find(type, "name", name.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String name(BinaryStore store, UUID uniqueId) {
+    return new String(store.read(uniqueId).orElseThrow().properties().get("name"), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void reopensFromTheIndex() throws IOException {
+    Path path = directory.resolve("gallery.bin");
+    List<UUID> photos = new ArrayList<>();
+    UUID album = UUID.randomUUID();
+    try (BinaryStore store = store(path)) {
+      assertTrue(store.open());
+      for (int i = 0; i < 100; i++) {
+        UUID uniqueId = UUID.randomUUID();
+        photos.add(uniqueId);
+        store.put(uniqueId, PHOTO, named("photo-" + i));
+      }
+      store.put(album, ALBUM, named("album"));
+      store.remove(photos.removeFirst(), PHOTO);
+    }
+
+    try (BinaryStore store = store(path)) {
+      assertTrue(store.open());
+      assertEquals(99, store.count(PHOTO));
+      assertEquals(1, store.count(ALBUM));
+      assertEquals(Optional.of(photos.get(10)), find(store, PHOTO, "photo-11"));
+      assertEquals(Optional.empty(), find(store, PHOTO, "photo-0"));
+      assertEquals(Optional.empty(), find(store, PHOTO, "album"));
+      assertEquals(Optional.of(album), find(store, ALBUM, "album"));
+      assertEquals("photo-50", name(store, photos.get(49)));
+
+      List<UUID> paged = new ArrayList<>();
+      UUID after = null;
+      for (List<StoredItem> page = store.readPage(PHOTO, null, 10); !page.isEmpty(); page = store.readPage(PHOTO, after, 10)) {
+        page.forEach(item -> paged.add(item.uniqueId()));
+        after = page.getLast().uniqueId();
+      }
+      assertEquals(photos.stream().sorted().toList(), paged);
+    }
+  }
+
+  @Test
+  void mergesChangesWithTheIndex() throws IOException {
+    Path path = directory.resolve("gallery.bin");
+    UUID renamed = UUID.randomUUID();
+    UUID removed = UUID.randomUUID();
+    try (BinaryStore store = store(path)) {
+      store.open();
+      store.put(renamed, PHOTO, named("before"));
+      store.put(removed, PHOTO, named("removed"));
+    }
+
+    UUID added = UUID.randomUUID();
+    try (BinaryStore store = store(path)) {
+      assertTrue(store.open());
+      store.put(renamed, PHOTO, named("after"));
+      store.remove(removed, PHOTO);
+      store.put(added, PHOTO, named("added"));
+
+      assertEquals(Optional.empty(), find(store, PHOTO, "before"));
+      assertEquals(Optional.of(renamed), find(store, PHOTO, "after"));
+      assertEquals(Optional.empty(), find(store, PHOTO, "removed"));
+      assertEquals(Optional.of(added), find(store, PHOTO, "added"));
+      assertEquals(2, store.count(PHOTO));
+      List<UUID> expected = new ArrayList<>(List.of(renamed, added));
+      expected.sort(null);
+      assertEquals(expected, store.readPage(PHOTO, null, 10).stream().map(StoredItem::uniqueId).toList());
+    }
+
+    try (BinaryStore store = store(path)) {
+      assertTrue(store.open());
+      assertEquals(Optional.of(renamed), find(store, PHOTO, "after"));
+      assertEquals(Optional.empty(), find(store, PHOTO, "removed"));
+      assertFalse(store.read(removed).isPresent());
+    }
+  }
+
+  @Test
+  void rejectsLookupsByOtherProperties() throws IOException {
+    try (BinaryStore store = store(directory.resolve("gallery.bin"))) {
+      store.open();
+      assertThrows(IllegalArgumentException.class, () -> store.find(PHOTO, "size", new byte[]{1, 2, 3}));
+    }
+  }
+
+  @Test
+  void recoversRecordsAppendedAfterTheIndex() throws IOException {
+    Path path = directory.resolve("gallery.bin");
+    Path crashed = directory.resolve("crashed.bin");
+    UUID indexed = UUID.randomUUID();
+    UUID appended = UUID.randomUUID();
+    try (BinaryStore store = store(path)) {
+      store.open();
+      store.put(indexed, PHOTO, named("indexed"));
+    }
+    try (BinaryStore store = store(path)) {
+      store.open();
+      store.put(appended, PHOTO, named("appended"));
+      store.force();
+      // What a crash leaves behind, the file is dirty and the index is older than the last record
+      Files.copy(path, crashed);
+    }
+
+    try (BinaryStore store = store(crashed)) {
+      assertFalse(store.open());
+      assertEquals(2, store.count(PHOTO));
+      assertEquals(Optional.of(indexed), find(store, PHOTO, "indexed"));
+      assertEquals(Optional.of(appended), find(store, PHOTO, "appended"));
+    }
+    try (BinaryStore store = store(crashed)) {
+      assertTrue(store.open());
+      assertEquals(2, store.count(PHOTO));
+    }
+  }
+
+  @Test
+  void dropsTornRecord() throws IOException {
+    Path path = directory.resolve("gallery.bin");
+    Path crashed = directory.resolve("crashed.bin");
+    UUID kept = UUID.randomUUID();
+    UUID torn = UUID.randomUUID();
+    long tornEnd;
+    try (BinaryStore store = store(path)) {
+      store.open();
+      store.put(kept, PHOTO, named("kept"));
+      store.put(torn, PHOTO, named("torn"));
+      store.force();
+      Files.copy(path, crashed);
+      tornEnd = readDataEnd(crashed);
+    }
+    // Corrupt the last byte of the last record, as if it had only partly reached the disk
+    try (FileChannel channel = FileChannel.open(crashed, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.read(last, tornEnd - 1);
+      channel.write(ByteBuffer.wrap(new byte[]{(byte) ~last.get(0)}), tornEnd - 1);
+    }
+
+    try (BinaryStore store = store(crashed)) {
+      assertFalse(store.open());
+      assertTrue(store.read(kept).isPresent());
+      assertFalse(store.read(torn).isPresent());
+      assertEquals(1, store.count(PHOTO));
+    }
+  }
+
+  @Test
+  void compactsSupersededRecords() throws IOException {
+    Path path = directory.resolve("gallery.bin");
+    UUID uniqueId = UUID.randomUUID();
+    byte[] payload = new byte[4096];
+    try (BinaryStore store = store(path)) {
+      store.open();
+      for (int i = 0; i < 1000; i++)
+        store.put(uniqueId, PHOTO, Map.of("name", ("version-" + i).getBytes(StandardCharsets.UTF_8), "payload", payload));
+    }
+    assertTrue(Files.size(path) < 64 * 1024);
+
+    try (BinaryStore store = store(path)) {
+      assertTrue(store.open());
+      assertEquals(1, store.count(PHOTO));
+      assertEquals("version-999", name(store, uniqueId));
+      assertEquals(Optional.of(uniqueId), find(store, PHOTO, "version-999"));
+    }
+  }
+
+  private static long readDataEnd(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer dataEnd = ByteBuffer.allocate(Long.BYTES);
+      channel.read(dataEnd, 16);
+      return dataEnd.getLong(0);
+    }
+  }
+
+}
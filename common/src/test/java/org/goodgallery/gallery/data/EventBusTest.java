@@ -0,0 +1,54 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.Photo;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventBusTest {
+
+  @Test
+  void countsPublishedEventsOnceAndFailedDeliveriesApart() {
+    EventBus eventBus = new EventBus(100);
+    eventBus.publish(GalleryEvent.added(new Photo()));
+    assertEquals(1, eventBus.stats().published());
+
+    eventBus.subscribe(_ -> {
+    });
+    eventBus.subscribe(_ -> {
+      throw new IllegalStateException("Listener failure");
+    });
+    for (int i = 0; i < 3; i++)
+      eventBus.publish(GalleryEvent.added(new Photo()));
+    // Waits for delivery to finish
+    eventBus.close();
+
+    EventStats stats = eventBus.stats();
+    assertEquals(4, stats.published());
+    assertEquals(3, stats.delivered());
+    assertEquals(3, stats.failed());
+    assertEquals(0, stats.dropped());
+  }
+
+  @Test
+  void countsDroppedEventsPerListener() {
+    EventBus eventBus = new EventBus(1);
+    eventBus.subscribe(_ -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException _) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    // The first event may already be taken for delivery, so at least one of the others does not fit the queue
+    for (int i = 0; i < 3; i++)
+      eventBus.publish(GalleryEvent.added(new Photo()));
+    eventBus.close();
+
+    EventStats stats = eventBus.stats();
+    assertEquals(3, stats.published());
+    assertEquals(3, stats.delivered() + stats.dropped());
+    assertEquals(0, stats.failed());
+  }
+
+}
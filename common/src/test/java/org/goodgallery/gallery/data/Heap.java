@@ -0,0 +1,41 @@
+package org.goodgallery.gallery.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+final class Heap {
+
+  private Heap() {
+  }
+
+  /**
+   * Heap in use after collecting garbage, a few collections settle what one collection leaves behind.
+   */
+  static long used() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  static void resetPeak() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if (pool.getType() == MemoryType.HEAP)
+        pool.resetPeakUsage();
+  }
+
+  // Each pool peaks on its own, so the sum is an upper bound
+  static long peak() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if (pool.getType() == MemoryType.HEAP)
+        peak += pool.getPeakUsage().getUsed();
+    return peak;
+  }
+
+  static String mebibytes(long bytes) {
+    return "%.1f MiB".formatted(bytes / (1024.0 * 1024.0));
+  }
+
+}
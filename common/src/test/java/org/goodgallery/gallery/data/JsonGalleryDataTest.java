@@ -0,0 +1,227 @@
+package org.goodgallery.gallery.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.goodgallery.gallery.Album;
+import org.goodgallery.gallery.Photo;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.goodgallery.gallery.properties.SerializedProperties;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonGalleryDataTest {
+
+  // Comfortably more journal than one compaction threshold
+  private static final int COMPACTED_PHOTOS = 60_000;
+  private static final int BENCHMARK_ITEMS = 500_000;
+
+  @TempDir
+  Path directory;
+
+  private static Photo photo(String name) {
+    Photo photo = new Photo();
+    ((PropertiesImpl) photo.getProperties()).get(Properties.NAME_KEY).value(name);
+    return photo;
+  }
+
+  private JsonGalleryData open() throws IOException {
+    JsonGalleryData galleryData = new JsonGalleryData(directory);
+    galleryData.load();
+    return galleryData;
+  }
+
+  @Test
+  void reloadsWhatWasWritten() throws IOException {
+    JsonGalleryData galleryData = open();
+    Photo kept = photo("kept");
+    Photo removed = photo("removed");
+    galleryData.add(kept);
+    galleryData.add(removed);
+    galleryData.remove(removed);
+    galleryData.updateProperty(kept, ((PropertiesImpl) kept.getProperties()).get(Properties.NAME_KEY).value("renamed"));
+    galleryData.close();
+
+    JsonGalleryData reloaded = open();
+    assertEquals(1, reloaded.getPhotos().size());
+    assertEquals("renamed", reloaded.getPhoto(kept.getUniqueId()).flatMap(Photo::getName).orElseThrow());
+    assertFalse(reloaded.hasPhoto(removed.getUniqueId()));
+    reloaded.close();
+  }
+
+  @Test
+  void compactionKeepsEveryWrite() throws IOException {
+    JsonGalleryData galleryData = open();
+    List<Photo> photos = new ArrayList<>(COMPACTED_PHOTOS);
+    for (int i = 0; i < COMPACTED_PHOTOS; i++) {
+      Photo photo = photo("photo-" + i);
+      photos.add(photo);
+      // One at a time, so a compaction is triggered by the write of an item that is not in the maps yet
+      galleryData.add(photo);
+    }
+    for (int i = 0; i < COMPACTED_PHOTOS; i += 10)
+      galleryData.remove(photos.get(i));
+    galleryData.close();
+    assertFalse(Files.exists(directory.resolve("gallery.journal.compacting")));
+
+    JsonGalleryData reloaded = open();
+    assertEquals(COMPACTED_PHOTOS - COMPACTED_PHOTOS / 10, reloaded.getPhotos().size());
+    for (int i = 0; i < COMPACTED_PHOTOS; i++)
+      assertEquals(i % 10 != 0, reloaded.hasPhoto(photos.get(i).getUniqueId()), "photo-" + i);
+    reloaded.close();
+  }
+
+  @Test
+  void retriesFailedCompaction() throws IOException, InterruptedException {
+    JsonGalleryData galleryData = open();
+    // A directory in place of the temporary snapshot makes every compaction fail until it is removed
+    Path temporarySnapshot = Files.createDirectory(directory.resolve("gallery.json.tmp"));
+    List<Photo> photos = new ArrayList<>(COMPACTED_PHOTOS);
+    Path rotatedJournal = directory.resolve("gallery.journal.compacting");
+    while (!Files.exists(rotatedJournal)) {
+      Photo photo = photo("photo-" + photos.size());
+      photos.add(photo);
+      galleryData.add(photo);
+    }
+    Thread.sleep(200);
+    Files.delete(temporarySnapshot);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (Files.exists(rotatedJournal) && System.nanoTime() < deadline)
+      Thread.sleep(50);
+    assertFalse(Files.exists(rotatedJournal));
+    galleryData.close();
+
+    JsonGalleryData reloaded = open();
+    assertEquals(photos.size(), reloaded.getPhotos().size());
+    reloaded.close();
+  }
+
+  @Test
+  void recoversInterruptedCompaction() throws IOException {
+    JsonGalleryData galleryData = open();
+    Photo rotated = photo("rotated");
+    galleryData.add(rotated);
+    galleryData.close();
+    // As if the process died between rotating the journal and writing the snapshot
+    Files.move(directory.resolve("gallery.journal"), directory.resolve("gallery.journal.compacting"));
+
+    JsonGalleryData reloaded = open();
+    assertTrue(reloaded.hasPhoto(rotated.getUniqueId()));
+    assertFalse(Files.exists(directory.resolve("gallery.journal.compacting")));
+    reloaded.close();
+
+    JsonGalleryData recovered = open();
+    assertTrue(recovered.hasPhoto(rotated.getUniqueId()));
+    recovered.close();
+  }
+
+  @Test
+  void concurrentMembershipChangesAreNotLost() throws Exception {
+    JsonGalleryData galleryData = open();
+    Album album = new Album();
+    galleryData.add(album);
+    List<Photo> photos = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      Photo photo = photo("photo-" + i);
+      galleryData.add(photo);
+      photos.add(photo);
+    }
+
+    try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+      for (Photo photo : photos)
+        executor.execute(() -> galleryData.addMember(album, Properties.PHOTOS_KEY, photo));
+    }
+    try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+      for (Photo photo : photos.subList(0, 500))
+        executor.execute(() -> galleryData.removeMember(album, Properties.PHOTOS_KEY, photo));
+    }
+
+    assertEquals(new HashSet<>(photos.subList(500, 1_000)), new HashSet<>(album.getPhotos()));
+    for (Photo photo : photos)
+      assertEquals(photos.indexOf(photo) >= 500, galleryData.getAlbumsContaining(photo).contains(album));
+    galleryData.close();
+  }
+
+  /**
+   * Compares the streaming load with parsing the file into a JSON tree and building the items from it, which keeps the
+   * tree alive next to the items until loading finishes.
+   */
+  @Test
+  @Tag("benchmark")
+  void benchmarkLoad() throws IOException {
+    JsonGalleryData galleryData = open();
+    List<Photo> batch = new ArrayList<>();
+    for (int i = 0; i < BENCHMARK_ITEMS; i++) {
+      batch.add(photo("photo-" + i));
+      if (batch.size() == 10_000) {
+        galleryData.addAll(batch);
+        batch.clear();
+      }
+    }
+    galleryData.close();
+    // Loading folds a journal left by an interrupted compaction into the snapshot, so both loads read the same file
+    Files.move(directory.resolve("gallery.journal"), directory.resolve("gallery.journal.compacting"));
+    open().close();
+    Path snapshot = directory.resolve("gallery.json");
+
+    long baseline = Heap.used();
+    Heap.resetPeak();
+    long start = System.nanoTime();
+    JsonGalleryData streamed = open();
+    long streamedNanos = System.nanoTime() - start;
+    long streamedPeak = Heap.peak() - baseline;
+    long streamedRetained = Heap.used() - baseline;
+    assertEquals(BENCHMARK_ITEMS, streamed.getPhotos().size());
+    streamed.close();
+
+    baseline = Heap.used();
+    Heap.resetPeak();
+    start = System.nanoTime();
+    JsonObject tree;
+    try (Reader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+      tree = JsonParser.parseReader(reader).getAsJsonObject();
+    }
+    Map<UUID, Photo> photos = new HashMap<>();
+    for (Map.Entry<String, JsonElement> item : tree.getAsJsonObject("photos").entrySet()) {
+      Map<String, byte[]> serializedData = new HashMap<>();
+      for (Map.Entry<String, JsonElement> property : item.getValue().getAsJsonObject().entrySet())
+        serializedData.put(property.getKey(), Base64.getDecoder().decode(property.getValue().getAsString()));
+      UUID uniqueId = UUID.fromString(item.getKey());
+      photos.put(uniqueId, new Photo(uniqueId, new SerializedProperties(serializedData)));
+    }
+    long treeNanos = System.nanoTime() - start;
+    long treePeak = Heap.peak() - baseline;
+    long treeRetained = Heap.used() - baseline;
+    assertEquals(BENCHMARK_ITEMS, tree.getAsJsonObject("photos").size());
+    assertEquals(BENCHMARK_ITEMS, photos.size());
+
+    System.out.printf("Streaming load of %d items: %d ms, peak %s, retained %s%n", BENCHMARK_ITEMS, streamedNanos / 1_000_000,
+      Heap.mebibytes(streamedPeak), Heap.mebibytes(streamedRetained));
+    System.out.printf("JSON tree load of %d items: %d ms, peak %s, retained %s%n", BENCHMARK_ITEMS, treeNanos / 1_000_000,
+      Heap.mebibytes(treePeak), Heap.mebibytes(treeRetained));
+  }
+
+}
@@ -0,0 +1,125 @@
+package org.goodgallery.gallery.data;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonJournalTest {
+
+  @TempDir
+  Path directory;
+
+  private static JsonObject record(String id) {
+    JsonObject record = new JsonObject();
+    record.addProperty("id", id);
+    return record;
+  }
+
+  private static List<String> replay(JsonJournal journal) throws IOException {
+    List<String> ids = new ArrayList<>();
+    journal.replay(record -> ids.add(record.get("id").getAsString()));
+    return ids;
+  }
+
+  @Test
+  void replaysRecordsInWrittenOrder() throws IOException {
+    Path path = directory.resolve("gallery.journal");
+    try (JsonJournal journal = new JsonJournal(path)) {
+      journal.open();
+      for (String id : List.of("a", "b", "c"))
+        journal.append(record(id));
+    }
+    try (JsonJournal journal = new JsonJournal(path)) {
+      assertEquals(List.of("a", "b", "c"), replay(journal));
+      journal.open();
+      assertEquals(Files.size(path), journal.size());
+    }
+  }
+
+  @Test
+  void skipsTornLastRecord() throws IOException {
+    Path path = directory.resolve("gallery.journal");
+    Files.writeString(path, "{\"id\":\"a\"}\n{\"id\":", StandardCharsets.UTF_8);
+    assertEquals(List.of("a"), replay(new JsonJournal(path)));
+
+    // Appending after the torn record must not merge the new record into it
+    try (JsonJournal journal = new JsonJournal(path)) {
+      journal.open();
+      journal.append(record("b"));
+    }
+    try (JsonJournal journal = new JsonJournal(path)) {
+      assertEquals(List.of("a", "b"), replay(journal));
+      journal.open();
+      assertEquals(Files.size(path), journal.size());
+    }
+  }
+
+  @Test
+  void endsWholeLastRecordMissingItsNewline() throws IOException {
+    Path path = directory.resolve("gallery.journal");
+    Files.writeString(path, "{\"id\":\"a\"}\n{\"id\":\"b\"}", StandardCharsets.UTF_8);
+    try (JsonJournal journal = new JsonJournal(path)) {
+      journal.open();
+      journal.append(record("c"));
+    }
+    assertEquals(List.of("a", "b", "c"), replay(new JsonJournal(path)));
+  }
+
+  @Test
+  void rejectsCorruptRecordBeforeTheEnd() throws IOException {
+    Path path = directory.resolve("gallery.journal");
+    Files.writeString(path, "{\"id\":\n{\"id\":\"b\"}\n", StandardCharsets.UTF_8);
+    assertThrows(IOException.class, () -> replay(new JsonJournal(path)));
+  }
+
+  @Test
+  void keepsRotatedRecordsUntilCompactionCompletes() throws IOException {
+    Path path = directory.resolve("gallery.journal");
+    try (JsonJournal journal = new JsonJournal(path)) {
+      journal.open();
+      journal.append(record("a"));
+      journal.rotate();
+      journal.append(record("b"));
+      journal.flush();
+
+      assertTrue(journal.hasInterruptedCompaction());
+      assertEquals(List.of("a", "b"), replay(journal));
+      List<String> rotated = new ArrayList<>();
+      journal.replayRotated(record -> rotated.add(record.get("id").getAsString()));
+      assertEquals(List.of("a"), rotated);
+
+      journal.completeCompaction();
+      assertFalse(journal.hasInterruptedCompaction());
+      assertEquals(List.of("b"), replay(journal));
+    }
+  }
+
+  @Test
+  void resetDiscardsEveryRecord() throws IOException {
+    Path path = directory.resolve("gallery.journal");
+    try (JsonJournal journal = new JsonJournal(path)) {
+      journal.open();
+      journal.append(record("a"));
+      journal.rotate();
+      journal.append(record("b"));
+      journal.reset();
+
+      assertFalse(journal.hasInterruptedCompaction());
+      assertEquals(0, journal.size());
+      assertEquals(List.of(), replay(journal));
+    }
+  }
+
+}
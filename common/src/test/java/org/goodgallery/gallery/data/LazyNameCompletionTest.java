@@ -0,0 +1,91 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.Album;
+import org.goodgallery.gallery.Photo;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LazyNameCompletionTest {
+
+  @TempDir
+  Path directory;
+
+  private static Photo photo(String fileName) {
+    Photo photo = new Photo();
+    ((PropertiesImpl) photo.getProperties()).get(Properties.PATH_KEY).value(Path.of("/photos", fileName));
+    return photo;
+  }
+
+  private static Album album(String name) {
+    Album album = new Album();
+    ((PropertiesImpl) album.getProperties()).get(Properties.NAME_KEY).value(name);
+    return album;
+  }
+
+  private static void assertCompletes(AbstractGalleryData galleryData) {
+    Photo beach = photo("Beach.jpg");
+    Photo renamed = photo("bell.jpg");
+    galleryData.add(beach);
+    galleryData.add(renamed);
+    galleryData.add(photo("Castle.jpg"));
+    galleryData.add(album("Best of"));
+    galleryData.add(album("best of"));
+    galleryData.add(album("Bergen"));
+
+    // Photos without a name of their own go by their file name
+    assertEquals(List.of("Beach.jpg", "bell.jpg"), galleryData.completePhotoNames("be", 10));
+    assertEquals(List.of("Bergen", "Best of", "best of"), galleryData.completeAlbumNames("BE", 10));
+    assertEquals(List.of("Bergen"), galleryData.completeAlbumNames("be", 1));
+
+    galleryData.updateProperty(renamed, ((PropertiesImpl) renamed.getProperties()).get(Properties.NAME_KEY).value("Castle gate"));
+    galleryData.remove(beach);
+    assertEquals(List.of(), galleryData.completePhotoNames("be", 10));
+    assertEquals(List.of("Castle gate", "Castle.jpg"), galleryData.completePhotoNames("castle", 10));
+    assertEquals(List.of(), galleryData.completeGroupNames("", 10));
+  }
+
+  @Test
+  void completesFromSQLiteIndex() {
+    SQLiteGalleryData galleryData = new SQLiteGalleryData(directory);
+    galleryData.enableLazyLoading(100);
+    galleryData.load();
+    try {
+      assertCompletes(galleryData);
+    } finally {
+      galleryData.close();
+    }
+  }
+
+  @Test
+  void completesFromH2Index() {
+    H2GalleryData galleryData = new H2GalleryData(directory);
+    galleryData.enableLazyLoading(100);
+    galleryData.load();
+    try {
+      assertCompletes(galleryData);
+    } finally {
+      galleryData.close();
+    }
+  }
+
+  @Test
+  void completesFromBinaryStore() {
+    BinaryGalleryData galleryData = new BinaryGalleryData(directory);
+    galleryData.load();
+    try {
+      // Completing before any write builds the index early, so the writes below have to maintain it
+      assertEquals(List.of(), galleryData.completePhotoNames("", 10));
+      assertCompletes(galleryData);
+    } finally {
+      galleryData.close();
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+package org.goodgallery.gallery.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NameTrieTest {
+
+  private final NameTrie nameTrie = new NameTrie();
+
+  private UUID put(String name) {
+    UUID uniqueId = UUID.randomUUID();
+    nameTrie.put(uniqueId, Optional.of(name));
+    return uniqueId;
+  }
+
+  @Test
+  void completesInAlphabeticalOrder() {
+    put("summer");
+    put("Beach");
+    put("sunset");
+    put("beach");
+    put("sun");
+    put("BEACH");
+
+    assertEquals(List.of("summer", "sun", "sunset"), nameTrie.complete("su", 10));
+    assertEquals(List.of("summer", "sun", "sunset"), nameTrie.complete("S", 10));
+    assertEquals(List.of("BEACH", "Beach", "beach"), nameTrie.complete("bea", 10));
+    assertEquals(List.of("BEACH", "Beach"), nameTrie.complete("", 2));
+  }
+
+  @Test
+  void splitsEdgesWhereKeysDiverge() {
+    put("abcdef");
+    put("abcxyz");
+    put("abc");
+    put("ab");
+
+    assertEquals(List.of("ab", "abc", "abcdef", "abcxyz"), nameTrie.complete("a", 10));
+    assertEquals(List.of("abc", "abcdef", "abcxyz"), nameTrie.complete("abc", 10));
+    assertEquals(List.of("abcdef"), nameTrie.complete("abcd", 10));
+    assertEquals(List.of(), nameTrie.complete("abd", 10));
+    assertEquals(List.of(), nameTrie.complete("abcdefg", 10));
+  }
+
+  @Test
+  void mergesEdgesAfterRemoval() {
+    UUID abc = put("abc");
+    put("abcdef");
+    UUID abcxyz = put("abcxyz");
+
+    nameTrie.remove(abc);
+    nameTrie.remove(abcxyz);
+    assertEquals(List.of("abcdef"), nameTrie.complete("ab", 10));
+    assertEquals(List.of("abcdef"), nameTrie.complete("abcde", 10));
+
+    // Inserting again splits the merged edge at a different point
+    put("abx");
+    assertEquals(List.of("abcdef", "abx"), nameTrie.complete("ab", 10));
+    assertEquals(List.of(), nameTrie.complete("abcx", 10));
+  }
+
+  @Test
+  void renamingReplacesThePreviousName() {
+    UUID uniqueId = put("old name");
+    nameTrie.put(uniqueId, Optional.of("new name"));
+    assertEquals(List.of("new name"), nameTrie.complete("", 10));
+    nameTrie.put(uniqueId, Optional.empty());
+    assertEquals(List.of(), nameTrie.complete("", 10));
+  }
+
+  @Test
+  void matchesSortedScanUnderRandomChanges() {
+    Random random = new Random(3);
+    List<UUID> uniqueIds = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 5_000; i++) {
+      if (!uniqueIds.isEmpty() && random.nextInt(3) == 0) {
+        int index = random.nextInt(uniqueIds.size());
+        nameTrie.remove(uniqueIds.remove(index));
+        names.remove(index);
+      } else {
+        // A small alphabet, so keys share long prefixes and edges keep splitting and merging
+        StringBuilder name = new StringBuilder();
+        for (int length = 1 + random.nextInt(6); length > 0; length--)
+          name.append("aAbc".charAt(random.nextInt(4)));
+        uniqueIds.add(put(name.toString()));
+        names.add(name.toString());
+      }
+    }
+
+    for (String prefix : List.of("", "a", "ab", "Bc", "aab", "cccc")) {
+      TreeSet<String> expected = new TreeSet<>((first, second) -> {
+        int comparison = NameTrie.normalize(first).compareTo(NameTrie.normalize(second));
+        return comparison != 0 ? comparison : first.compareTo(second);
+      });
+      names.stream().filter(name -> NameTrie.normalize(name).startsWith(NameTrie.normalize(prefix))).forEach(expected::add);
+      assertEquals(new ArrayList<>(expected), nameTrie.complete(prefix, Integer.MAX_VALUE), "prefix \"" + prefix + "\"");
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+package org.goodgallery.gallery.data;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SQLConnectionPoolTest {
+
+  private static final String INSERT_STATEMENT = "INSERT INTO items(id, data) VALUES (?, ?)";
+  private static final int BENCHMARK_WRITES = 5_000;
+
+  @TempDir
+  Path directory;
+
+  private final AtomicInteger openedConnections = new AtomicInteger();
+
+  private Connection connect() throws SQLException {
+    openedConnections.incrementAndGet();
+    return DriverManager.getConnection("jdbc:sqlite:%s".formatted(directory.resolve("pool.sqlite").toAbsolutePath()));
+  }
+
+  private SQLConnectionPool pool(int size) throws SQLException {
+    SQLConnectionPool pool = new SQLConnectionPool(this::connect, size);
+    pool.accept(connection -> {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE IF NOT EXISTS items(id INTEGER PRIMARY KEY, data TEXT)");
+      }
+    });
+    return pool;
+  }
+
+  private static int count(SQLConnectionPool pool) throws SQLException {
+    return pool.apply(connection -> {
+      try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM items")) {
+        resultSet.next();
+        return resultSet.getInt(1);
+      }
+    });
+  }
+
+  @Test
+  void reusesReleasedConnections() throws SQLException {
+    try (SQLConnectionPool pool = pool(1)) {
+      Connection first = pool.apply(SQLConnectionPool.PooledConnection::connection);
+      Connection second = pool.apply(SQLConnectionPool.PooledConnection::connection);
+
+      assertSame(first, second);
+      assertEquals(1, openedConnections.get());
+    }
+  }
+
+  @Test
+  void waitsForAConnectionUntilOneIsReleased() throws Exception {
+    try (SQLConnectionPool pool = pool(1)) {
+      CountDownLatch acquired = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      Thread holder = Thread.ofPlatform().start(() -> {
+        try {
+          pool.accept(_ -> {
+            acquired.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException exception) {
+              throw new SQLException(exception);
+            }
+          });
+        } catch (SQLException exception) {
+          throw new RuntimeException(exception);
+        }
+      });
+      acquired.await();
+
+      AtomicBoolean borrowed = new AtomicBoolean();
+      Thread waiter = Thread.ofPlatform().start(() -> {
+        try {
+          pool.accept(_ -> borrowed.set(true));
+        } catch (SQLException exception) {
+          throw new RuntimeException(exception);
+        }
+      });
+      waiter.join(200);
+      assertFalse(borrowed.get());
+
+      release.countDown();
+      waiter.join(TimeUnit.SECONDS.toMillis(10));
+      holder.join();
+      assertTrue(borrowed.get());
+    }
+  }
+
+  @Test
+  void rollsBackTransactionLeftOpenByTheBorrower() throws SQLException {
+    try (SQLConnectionPool pool = pool(1)) {
+      pool.accept(connection -> {
+        connection.connection().setAutoCommit(false);
+        PreparedStatement preparedStatement = connection.prepare(INSERT_STATEMENT);
+        preparedStatement.setInt(1, 1);
+        preparedStatement.setString(2, "uncommitted");
+        preparedStatement.executeUpdate();
+      });
+
+      assertEquals(0, count(pool));
+      boolean autoCommit = pool.apply(connection -> connection.connection().getAutoCommit());
+      assertTrue(autoCommit);
+    }
+  }
+
+  @Test
+  void clearsBatchesLeftByTheBorrower() throws SQLException {
+    try (SQLConnectionPool pool = pool(1)) {
+      pool.accept(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(INSERT_STATEMENT);
+        preparedStatement.setInt(1, 1);
+        preparedStatement.setString(2, "abandoned");
+        preparedStatement.addBatch();
+      });
+      pool.accept(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(INSERT_STATEMENT);
+        preparedStatement.setInt(1, 2);
+        preparedStatement.setString(2, "batched");
+        preparedStatement.addBatch();
+        preparedStatement.executeBatch();
+      });
+
+      assertEquals(1, count(pool));
+    }
+  }
+
+  @Test
+  void reusesPreparedStatementsAcrossBorrowers() throws SQLException {
+    try (SQLConnectionPool pool = pool(1)) {
+      PreparedStatement first = pool.apply(connection -> connection.prepare(INSERT_STATEMENT));
+      PreparedStatement second = pool.apply(connection -> connection.prepare(INSERT_STATEMENT));
+      assertSame(first, second);
+
+      // A connection that was closed is reopened with a fresh statement cache
+      pool.accept(connection -> connection.connection().close());
+      PreparedStatement reopened = pool.apply(connection -> connection.prepare(INSERT_STATEMENT));
+      assertNotSame(first, reopened);
+      assertFalse(reopened.isClosed());
+      assertEquals(2, openedConnections.get());
+    }
+  }
+
+  @Test
+  void rejectsBorrowersOnceClosed() throws SQLException {
+    SQLConnectionPool pool = pool(2);
+    pool.close();
+    assertThrows(IllegalStateException.class, () -> pool.accept(_ -> {
+    }));
+  }
+
+  /**
+   * Compares opening a connection and preparing the statement for every write, as the SQL backends did before the
+   * pool, with borrowing a pooled connection and its cached statement.
+   */
+  @Test
+  @Tag("benchmark")
+  void benchmarkWrites() throws SQLException {
+    try (SQLConnectionPool pool = pool(4)) {
+      for (int warmup = 0; warmup < 3; warmup++) {
+        writeWithNewConnections(warmup * BENCHMARK_WRITES, BENCHMARK_WRITES / 10);
+        writeWithPool(pool, warmup * BENCHMARK_WRITES + BENCHMARK_WRITES / 2, BENCHMARK_WRITES / 10);
+      }
+
+      long start = System.nanoTime();
+      writeWithNewConnections(10 * BENCHMARK_WRITES, BENCHMARK_WRITES);
+      long perWrite = System.nanoTime() - start;
+      start = System.nanoTime();
+      writeWithPool(pool, 20 * BENCHMARK_WRITES, BENCHMARK_WRITES);
+      long pooled = System.nanoTime() - start;
+
+      System.out.printf("connection per write %.1f us per write%n", perWrite / 1_000.0 / BENCHMARK_WRITES);
+      System.out.printf("pooled connection    %.1f us per write%n", pooled / 1_000.0 / BENCHMARK_WRITES);
+    }
+  }
+
+  private void writeWithNewConnections(int firstId, int writes) throws SQLException {
+    for (int id = firstId; id < firstId + writes; id++) {
+      try (Connection connection = connect(); PreparedStatement preparedStatement = connection.prepareStatement(INSERT_STATEMENT)) {
+        preparedStatement.setInt(1, id);
+        preparedStatement.setString(2, "item-" + id);
+        preparedStatement.executeUpdate();
+      }
+    }
+  }
+
+  private static void writeWithPool(SQLConnectionPool pool, int firstId, int writes) throws SQLException {
+    for (int id = firstId; id < firstId + writes; id++) {
+      int itemId = id;
+      pool.accept(connection -> {
+        PreparedStatement preparedStatement = connection.prepare(INSERT_STATEMENT);
+        preparedStatement.setInt(1, itemId);
+        preparedStatement.setString(2, "item-" + itemId);
+        preparedStatement.executeUpdate();
+      });
+    }
+  }
+
+}
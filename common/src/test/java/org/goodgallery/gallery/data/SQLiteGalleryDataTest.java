@@ -0,0 +1,65 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.Album;
+import org.goodgallery.gallery.Photo;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.goodgallery.gallery.properties.SerializedProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SQLiteGalleryDataTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void keepsLastMembersUpdatedInOneBatch() throws SQLException {
+    Photo first = new Photo();
+    Photo second = new Photo();
+    Album album = new Album();
+    SQLiteGalleryData galleryData = new SQLiteGalleryData(directory);
+    galleryData.load();
+    try {
+      galleryData.add(first);
+      galleryData.add(second);
+      galleryData.add(album);
+
+      // A second instance of the album, as lazily loaded galleries hand out, with members of its own
+      Album copy = new Album(album.getUniqueId(), new SerializedProperties());
+      galleryData.updateProperties(List.of(
+        new PropertyUpdate(album, ((PropertiesImpl) album.getProperties()).get(Properties.PHOTOS_KEY).value(Set.of(first))),
+        new PropertyUpdate(copy, ((PropertiesImpl) copy.getProperties()).get(Properties.PHOTOS_KEY).value(Set.of(second)))
+      ));
+    } finally {
+      galleryData.close();
+    }
+
+    // Read back directly, resolving members needs a running gallery
+    List<UUID> members = new ArrayList<>();
+    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:%s".formatted(directory.resolve("gallery.sqlite").toAbsolutePath()));
+         Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery("SELECT photo_id FROM album_photos")) {
+      while (resultSet.next()) {
+        ByteBuffer buffer = ByteBuffer.wrap(resultSet.getBytes(1));
+        members.add(new UUID(buffer.getLong(), buffer.getLong()));
+      }
+    }
+    assertEquals(List.of(second.getUniqueId()), members);
+  }
+
+}
@@ -0,0 +1,171 @@
+package org.goodgallery.gallery.data;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UUIDMapTest {
+
+  private static List<UUID> uniqueIds(Random random, int count) {
+    List<UUID> uniqueIds = new ArrayList<>(count);
+    for (int i = 0; i < count; i++)
+      uniqueIds.add(new UUID(random.nextLong(), random.nextLong()));
+    return uniqueIds;
+  }
+
+  @Test
+  void matchesHashMapUnderRandomPutsAndRemovals() {
+    Random random = new Random(42);
+    // A small key pool, so removals keep cutting into probe runs that are still in use
+    List<UUID> pool = uniqueIds(random, 2_000);
+    UUIDMap<Integer> map = new UUIDMap<>();
+    Map<UUID, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 200_000; i++) {
+      UUID uniqueId = pool.get(random.nextInt(pool.size()));
+      if (random.nextInt(3) == 0)
+        assertEquals(expected.remove(uniqueId), map.remove(uniqueId));
+      else
+        assertEquals(expected.put(uniqueId, i), map.put(uniqueId, i));
+    }
+
+    assertEquals(expected.size(), map.size());
+    for (UUID uniqueId : pool)
+      assertEquals(expected.get(uniqueId), map.get(uniqueId));
+    assertEquals(expected, new HashMap<>(map));
+  }
+
+  @Test
+  void keepsEveryEntryAcrossResizes() {
+    List<UUID> uniqueIds = uniqueIds(new Random(7), 100_000);
+    UUIDMap<UUID> map = new UUIDMap<>();
+    for (UUID uniqueId : uniqueIds)
+      map.put(uniqueId, uniqueId);
+
+    assertEquals(uniqueIds.size(), map.size());
+    for (UUID uniqueId : uniqueIds)
+      assertEquals(uniqueId, map.get(uniqueId));
+    Set<UUID> iterated = new HashSet<>();
+    for (Map.Entry<UUID, UUID> entry : map.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue());
+      assertTrue(iterated.add(entry.getKey()));
+    }
+    assertEquals(new HashSet<>(uniqueIds), iterated);
+  }
+
+  @Test
+  void removesEveryEntry() {
+    List<UUID> uniqueIds = uniqueIds(new Random(11), 10_000);
+    UUIDMap<UUID> map = new UUIDMap<>();
+    uniqueIds.forEach(uniqueId -> map.put(uniqueId, uniqueId));
+    for (int i = 0; i < uniqueIds.size(); i++) {
+      assertEquals(uniqueIds.get(i), map.remove(uniqueIds.get(i)));
+      // The entries not removed yet must still be reachable after their probe runs were shifted
+      if (i % 1_000 == 0)
+        for (UUID remaining : uniqueIds.subList(i + 1, uniqueIds.size()))
+          assertEquals(remaining, map.get(remaining));
+    }
+    assertTrue(map.isEmpty());
+    assertFalse(map.values().iterator().hasNext());
+  }
+
+  @Test
+  void iteratesTheTableItStartedOnWhileItIsResized() {
+    List<UUID> uniqueIds = uniqueIds(new Random(13), 100);
+    UUIDMap<UUID> map = new UUIDMap<>();
+    uniqueIds.forEach(uniqueId -> map.put(uniqueId, uniqueId));
+
+    Iterator<UUID> iterator = map.values().iterator();
+    for (UUID uniqueId : uniqueIds(new Random(17), 10_000))
+      map.put(uniqueId, uniqueId);
+    Set<UUID> iterated = new HashSet<>();
+    while (iterator.hasNext())
+      assertTrue(iterated.add(iterator.next()));
+    assertTrue(iterated.containsAll(uniqueIds));
+  }
+
+  @Test
+  void returnsEveryEntryOnceWhileEntriesAreRemoved() {
+    Random random = new Random(19);
+    // Small, full tables so removals keep shifting probe runs, including runs that wrap around the end
+    for (int round = 0; round < 2_000; round++) {
+      List<UUID> uniqueIds = uniqueIds(random, 12);
+      UUIDMap<UUID> map = new UUIDMap<>();
+      uniqueIds.forEach(uniqueId -> map.put(uniqueId, uniqueId));
+
+      Iterator<UUID> iterator = map.values().iterator();
+      Set<UUID> iterated = new HashSet<>();
+      while (iterator.hasNext()) {
+        assertTrue(iterated.add(iterator.next()));
+        map.remove(uniqueIds.get(random.nextInt(uniqueIds.size())));
+      }
+      assertEquals(new HashSet<>(uniqueIds), iterated);
+    }
+  }
+
+  @Test
+  void returnsEveryEntryOnceWhileAnotherThreadRemoves() throws InterruptedException {
+    List<UUID> uniqueIds = uniqueIds(new Random(23), 50_000);
+    UUIDMap<UUID> map = new UUIDMap<>();
+    uniqueIds.forEach(uniqueId -> map.put(uniqueId, uniqueId));
+
+    Iterator<UUID> iterator = map.values().iterator();
+    Thread remover = Thread.ofPlatform().start(() -> uniqueIds.forEach(map::remove));
+    Set<UUID> iterated = new HashSet<>();
+    while (iterator.hasNext())
+      assertTrue(iterated.add(iterator.next()));
+    remover.join();
+    assertEquals(new HashSet<>(uniqueIds), iterated);
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  void rejectsNullValues() {
+    assertThrows(NullPointerException.class, () -> new UUIDMap<>().put(UUID.randomUUID(), null));
+    assertNull(new UUIDMap<>().get("not a UUID"));
+  }
+
+  @Test
+  @Tag("benchmark")
+  void benchmarkFootprint() {
+    for (int count : new int[]{1_000_000, 10_000_000}) {
+      Object value = new Object();
+      long baseline = Heap.used();
+      UUIDMap<Object> uuidMap = new UUIDMap<>();
+      Random random = new Random(count);
+      for (int i = 0; i < count; i++)
+        uuidMap.put(new UUID(random.nextLong(), random.nextLong()), value);
+      long uuidMapBytes = Heap.used() - baseline;
+      assertEquals(count, uuidMap.size());
+      uuidMap.clear();
+
+      baseline = Heap.used();
+      Map<UUID, Object> concurrentHashMap = new ConcurrentHashMap<>();
+      random = new Random(count);
+      for (int i = 0; i < count; i++)
+        concurrentHashMap.put(new UUID(random.nextLong(), random.nextLong()), value);
+      long concurrentHashMapBytes = Heap.used() - baseline;
+      assertEquals(count, concurrentHashMap.size());
+      concurrentHashMap.clear();
+
+      System.out.printf("%,d entries: UUIDMap %s (%d bytes per entry), ConcurrentHashMap %s (%d bytes per entry)%n", count,
+        Heap.mebibytes(uuidMapBytes), uuidMapBytes / count, Heap.mebibytes(concurrentHashMapBytes), concurrentHashMapBytes / count);
+    }
+  }
+
+}
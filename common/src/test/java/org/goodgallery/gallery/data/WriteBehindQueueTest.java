@@ -0,0 +1,137 @@
+package org.goodgallery.gallery.data;
+
+import org.goodgallery.gallery.Photo;
+import org.goodgallery.gallery.properties.Properties;
+import org.goodgallery.gallery.properties.PropertiesImpl;
+import org.goodgallery.gallery.properties.PropertyInstance;
+import org.goodgallery.gallery.properties.PropertyKey;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindQueueTest {
+
+  // Long enough that only the tests flush
+  private static final Duration DELAY = Duration.ofHours(1);
+
+  private final List<List<PropertyUpdate>> batches = new ArrayList<>();
+
+  private static <T> PropertyInstance<T> set(Photo photo, PropertyKey<T> key, T value) {
+    return ((PropertiesImpl) photo.getProperties()).get(key).value(value);
+  }
+
+  // Records every batch, and rejects any batch holding the name "broken"
+  private final Consumer<List<PropertyUpdate>> writer = updates -> {
+    if (updates.stream().anyMatch(update -> "broken".equals(update.property().getOrNull())))
+      throw new IllegalStateException("Rejected");
+    batches.add(updates);
+  };
+
+  private List<Object> written() {
+    return batches.stream().flatMap(List::stream).<Object>map(update -> update.property().getOrNull()).toList();
+  }
+
+  @Test
+  void coalescesUpdatesPerItemAndKey() {
+    Photo first = new Photo();
+    Photo second = new Photo();
+    try (WriteBehindQueue queue = new WriteBehindQueue(100, DELAY, writer)) {
+      queue.enqueue(first, set(first, Properties.NAME_KEY, "a.jpg"));
+      queue.enqueue(first, set(first, Properties.NAME_KEY, "b.jpg"));
+      queue.enqueue(second, set(second, Properties.NAME_KEY, "c.jpg"));
+      queue.enqueue(first, set(first, Properties.FILE_SIZE_KEY, 10L));
+      assertEquals(3, queue.pending());
+
+      queue.flush();
+      assertEquals(1, batches.size());
+      assertEquals(List.of("b.jpg", "c.jpg", 10L), written());
+      assertEquals(0, queue.pending());
+    }
+  }
+
+  @Test
+  void flushesOnceFull() {
+    try (WriteBehindQueue queue = new WriteBehindQueue(2, DELAY, writer)) {
+      Photo photo = new Photo();
+      queue.enqueue(photo, set(photo, Properties.NAME_KEY, "a.jpg"));
+      assertTrue(batches.isEmpty());
+      queue.enqueue(photo, set(photo, Properties.FILE_SIZE_KEY, 10L));
+      assertEquals(1, batches.size());
+      assertEquals(0, queue.pending());
+    }
+  }
+
+  @Test
+  void rejectedUpdateDoesNotHoldBackTheBatch() {
+    try (WriteBehindQueue queue = new WriteBehindQueue(100, DELAY, writer)) {
+      Photo good = new Photo();
+      Photo bad = new Photo();
+      queue.enqueue(good, set(good, Properties.NAME_KEY, "a.jpg"));
+      queue.enqueue(bad, set(bad, Properties.NAME_KEY, "broken"));
+      queue.enqueue(good, set(good, Properties.FILE_SIZE_KEY, 10L));
+
+      assertThrows(IllegalStateException.class, queue::flush);
+      assertEquals(List.of("a.jpg", 10L), written());
+      assertEquals(1, queue.pending());
+
+      // Retried until it failed often enough, then dropped
+      assertThrows(IllegalStateException.class, queue::flush);
+      assertEquals(1, queue.pending());
+      assertThrows(IllegalStateException.class, queue::flush);
+      assertEquals(0, queue.pending());
+    }
+  }
+
+  @Test
+  void newerValueReplacesRejectedOne() {
+    try (WriteBehindQueue queue = new WriteBehindQueue(100, DELAY, writer)) {
+      Photo photo = new Photo();
+      queue.enqueue(photo, set(photo, Properties.NAME_KEY, "broken"));
+      assertThrows(IllegalStateException.class, queue::flush);
+      queue.enqueue(photo, set(photo, Properties.NAME_KEY, "fixed.jpg"));
+      queue.flush();
+      assertEquals(List.of("fixed.jpg"), written());
+    }
+  }
+
+  @Test
+  void enqueueDoesNotFailWithTheBatch() {
+    try (WriteBehindQueue queue = new WriteBehindQueue(1, DELAY, writer)) {
+      Photo photo = new Photo();
+      queue.enqueue(photo, set(photo, Properties.NAME_KEY, "broken"));
+      assertEquals(1, queue.pending());
+      queue.discard(photo.getUniqueId());
+    }
+  }
+
+  @Test
+  void discardDropsPendingUpdatesOfTheItem() {
+    try (WriteBehindQueue queue = new WriteBehindQueue(100, DELAY, writer)) {
+      Photo kept = new Photo();
+      Photo discarded = new Photo();
+      queue.enqueue(kept, set(kept, Properties.NAME_KEY, "a.jpg"));
+      queue.enqueue(discarded, set(discarded, Properties.NAME_KEY, "b.jpg"));
+      queue.discard(discarded.getUniqueId());
+      queue.flush();
+      assertEquals(List.of("a.jpg"), written());
+    }
+  }
+
+  @Test
+  void closeFlushesAndRejectsLaterUpdates() {
+    WriteBehindQueue queue = new WriteBehindQueue(100, DELAY, writer);
+    Photo photo = new Photo();
+    queue.enqueue(photo, set(photo, Properties.NAME_KEY, "a.jpg"));
+    queue.close();
+    assertEquals(List.of("a.jpg"), written());
+    assertThrows(IllegalStateException.class, () -> queue.enqueue(photo, set(photo, Properties.NAME_KEY, "b.jpg")));
+  }
+
+}
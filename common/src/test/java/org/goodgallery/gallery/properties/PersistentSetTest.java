@@ -0,0 +1,86 @@
+package org.goodgallery.gallery.properties;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistentSetTest {
+
+  // Equal hashes for every value with the same remainder, so collision nodes are exercised
+  private record Colliding(int value) {
+
+    @Override
+    public int hashCode() {
+      return value % 7;
+    }
+
+  }
+
+  @Test
+  void matchesHashSetUnderRandomAddsAndRemovals() {
+    Random random = new Random(42);
+    PersistentSet<Integer> set = PersistentSet.of();
+    Set<Integer> expected = new HashSet<>();
+    for (int i = 0; i < 200_000; i++) {
+      int value = random.nextInt(5_000) * 65_537;
+      if (random.nextInt(3) == 0) {
+        set = set.without(value);
+        expected.remove(value);
+      } else {
+        set = set.with(value);
+        expected.add(value);
+      }
+    }
+
+    assertEquals(expected.size(), set.size());
+    assertEquals(expected, new HashSet<>(set));
+    for (int value = 0; value < 5_000; value++)
+      assertEquals(expected.contains(value * 65_537), set.contains(value * 65_537));
+  }
+
+  @Test
+  void keepsElementsWithEqualHashes() {
+    PersistentSet<Colliding> set = PersistentSet.of();
+    for (int value = 0; value < 100; value++)
+      set = set.with(new Colliding(value));
+    assertEquals(100, set.size());
+
+    for (int value = 0; value < 100; value += 2)
+      set = set.without(new Colliding(value));
+    assertEquals(50, set.size());
+    for (int value = 0; value < 100; value++)
+      assertEquals(value % 2 == 1, set.contains(new Colliding(value)));
+    assertEquals(50, new HashSet<>(set).size());
+  }
+
+  @Test
+  void leavesPreviousVersionsUnchanged() {
+    PersistentSet<String> before = PersistentSet.copyOf(List.of("a", "b", "c"));
+    PersistentSet<String> added = before.with("d");
+    PersistentSet<String> removed = before.without("a");
+
+    assertEquals(Set.of("a", "b", "c"), before);
+    assertEquals(Set.of("a", "b", "c", "d"), added);
+    assertEquals(Set.of("b", "c"), removed);
+  }
+
+  @Test
+  void returnsItselfWhenNothingChanges() {
+    PersistentSet<String> set = PersistentSet.copyOf(List.of("a", "b"));
+
+    assertSame(set, set.with("a"));
+    assertSame(set, set.without("c"));
+    assertSame(set, PersistentSet.copyOf(set));
+    assertTrue(set.without("a").without("b").isEmpty());
+    assertFalse(set.contains(null));
+  }
+
+}
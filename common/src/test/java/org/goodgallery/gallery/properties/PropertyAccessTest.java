@@ -0,0 +1,123 @@
+package org.goodgallery.gallery.properties;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PropertyAccessTest {
+
+  private static final int READS = 1_000_000;
+  // An Optional per read would allocate 16 bytes each, this leaves room for the measurement itself
+  private static final long READ_ALLOCATION_LIMIT = 64 * 1024;
+
+  private static com.sun.management.ThreadMXBean threads;
+
+  @BeforeAll
+  static void enableAllocationCounting() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean, "Allocation counting is not supported");
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported(), "Allocation counting is not supported");
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private static PropertiesImpl properties() {
+    PropertiesImpl properties = new PropertiesImpl(new SerializedProperties(), Properties.NAME_KEY, Properties.FILE_SIZE_KEY);
+    properties.get(Properties.NAME_KEY).value("photo.jpg");
+    properties.get(Properties.FILE_SIZE_KEY).value(4_096_000L);
+    return properties;
+  }
+
+  private static long allocatedBytes(LongSupplier operation) {
+    long threadId = Thread.currentThread().threadId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    long result = operation.getAsLong();
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    // Keeps the reads from being optimized away
+    assertTrue(result != 0);
+    return allocated;
+  }
+
+  private static long readObjects(PropertiesImpl properties, int count) {
+    long sum = 0;
+    for (int i = 0; i < count; i++)
+      sum += properties.getOrNull(Properties.NAME_KEY).length();
+    return sum;
+  }
+
+  private static long readLongs(PropertiesImpl properties, int count) {
+    long sum = 0;
+    for (int i = 0; i < count; i++)
+      sum += properties.getLong(Properties.FILE_SIZE_KEY, 0);
+    return sum;
+  }
+
+  private static long readOptionals(PropertiesImpl properties, int count) {
+    long sum = 0;
+    for (int i = 0; i < count; i++)
+      sum += properties.getValue(Properties.FILE_SIZE_KEY).orElse(0L);
+    return sum;
+  }
+
+  private static long write(PropertiesImpl properties, int count) {
+    PropertyInstance<String> name = properties.get(Properties.NAME_KEY);
+    for (int i = 0; i < count; i++)
+      name.value(i % 2 == 0 ? "photo.jpg" : "photo.png");
+    return count;
+  }
+
+  @Test
+  void readsDoNotAllocate() {
+    PropertiesImpl properties = properties();
+    // The first run also covers class loading and the interpreter
+    readObjects(properties, READS);
+    readLongs(properties, READS);
+
+    long objectBytes = allocatedBytes(() -> readObjects(properties, READS));
+    long longBytes = allocatedBytes(() -> readLongs(properties, READS));
+    assertTrue(objectBytes < READ_ALLOCATION_LIMIT, "getOrNull allocated %d bytes over %d reads".formatted(objectBytes, READS));
+    assertTrue(longBytes < READ_ALLOCATION_LIMIT, "getLong allocated %d bytes over %d reads".formatted(longBytes, READS));
+  }
+
+  @Test
+  void readsSeeWrites() {
+    PropertiesImpl properties = properties();
+    write(properties, 3);
+    assertEquals("photo.jpg", properties.getOrNull(Properties.NAME_KEY));
+    assertEquals(4_096_000L, properties.getLong(Properties.FILE_SIZE_KEY, 0));
+    assertEquals(-1L, properties.getLong(Properties.MODIFIED_TIMESTAMP_KEY, -1));
+  }
+
+  @Test
+  @Tag("benchmark")
+  void benchmarkAccess() {
+    PropertiesImpl properties = properties();
+    int operations = 50_000_000;
+    for (int warmup = 0; warmup < 5; warmup++) {
+      readObjects(properties, operations / 10);
+      readLongs(properties, operations / 10);
+      readOptionals(properties, operations / 10);
+      write(properties, operations / 10);
+    }
+
+    measure("getOrNull", operations, () -> readObjects(properties, operations));
+    measure("getLong", operations, () -> readLongs(properties, operations));
+    measure("getValue", operations, () -> readOptionals(properties, operations));
+    measure("value(T)", operations, () -> write(properties, operations));
+  }
+
+  private static void measure(String name, int operations, LongSupplier operation) {
+    long start = System.nanoTime();
+    long allocated = allocatedBytes(operation);
+    long elapsed = System.nanoTime() - start;
+    System.out.printf("%-9s %.2f ns per operation, %.2f bytes allocated per operation%n", name, (double) elapsed / operations,
+      (double) allocated / operations);
+  }
+
+}
@@ -0,0 +1,47 @@
+package org.goodgallery.gallery.properties;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PropertyInstanceTest {
+
+  @Test
+  void defaultIsNotSet() {
+    PropertiesImpl properties = new PropertiesImpl(new SerializedProperties(), Properties.CREATION_TIMESTAMP_KEY);
+    PropertyInstance<Long> creationTimestamp = properties.get(Properties.CREATION_TIMESTAMP_KEY);
+
+    assertFalse(creationTimestamp.isSet());
+    assertNotNull(creationTimestamp.getOrNull());
+    assertFalse(creationTimestamp.isSet());
+
+    creationTimestamp.value(42L);
+    assertTrue(creationTimestamp.isSet());
+  }
+
+  @Test
+  void storedValueIsSetWithoutDecoding() {
+    byte[] data = ByteBuffer.allocate(Long.BYTES).putLong(42L).array();
+    PropertiesImpl properties = new PropertiesImpl(new SerializedProperties(Map.of("creation_timestamp", data)), Properties.CREATION_TIMESTAMP_KEY);
+    PropertyInstance<Long> creationTimestamp = properties.get(Properties.CREATION_TIMESTAMP_KEY);
+
+    assertTrue(creationTimestamp.isSet());
+    assertArrayEquals(data, creationTimestamp.serialize());
+    assertEquals(42L, creationTimestamp.getOrNull());
+    assertTrue(creationTimestamp.isSet());
+  }
+
+  @Test
+  void unregisteredKeyIsNotSet() {
+    PropertiesImpl properties = new PropertiesImpl(new SerializedProperties());
+    assertFalse(properties.get(Properties.FILE_SIZE_KEY).isSet());
+  }
+
+}
@@ -78,6 +78,36 @@ public class Main {
           })
         )
       )
+      .then(Argument.literal("import")
+        .then(Argument.path("directory")
+          .executes(context -> {
+            try {
+              Path directory = context.get("directory", Path.class);
+              ImportReport report = GALLERY.importDirectory(directory, 16, progress -> context.info(progress.describe()));
+              if (report.failures().isEmpty())
+                context.output(Ansi.Color.GREEN, report.describe());
+              else
+                context.warn(report.describe());
+            } catch (InterruptedException exception) {
+              Thread.currentThread().interrupt();
+              context.exception("Import was interrupted", exception);
+            } catch (Exception exception) {
+              context.exception("Failed to import directory", exception);
+            }
+          })
+        )
+      )
+      .then(Argument.literal("hash")
+        .executes(context -> {
+          try {
+            int hashed = GALLERY.backfillContentHashes(16);
+            context.output(Ansi.Color.GREEN, "Hashed %d photos".formatted(hashed));
+          } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            context.exception("Hashing was interrupted", exception);
+          }
+        })
+      )
       .then(Argument.literal("cut")
         .then(Argument.path("path")
           .executes(context -> {
@@ -250,6 +280,16 @@ public class Main {
       )
       .register(DISPATCHER);
 
+    Command.builder("stats")
+      .executes(context -> {
+        Collection<String> message = new ArrayList<>(GALLERY.getLoadReport().describe());
+        GALLERY.getCacheStats().ifPresent(stats -> message.addAll(stats.describe()));
+        message.addAll(GALLERY.getTransferStats().describe());
+        GALLERY.getThumbnailStats().ifPresent(stats -> message.addAll(stats.describe()));
+        context.info(message);
+      })
+      .register(DISPATCHER);
+
     Command.builder("exit")
       .executes(_ -> System.exit(0))
       .register(DISPATCHER);
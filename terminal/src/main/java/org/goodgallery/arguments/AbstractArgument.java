@@ -4,17 +4,20 @@ import org.goodgallery.command.CommandContext;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public abstract class AbstractArgument<I> implements Argument<I> {
 
+  protected static final int SUGGESTION_LIMIT = 50;
+
   private final String name;
   private final List<Argument<?>> arguments;
   private Consumer<CommandContext> executable;
 
   protected AbstractArgument(String name) {
-    this.name = name.toLowerCase();
+    this.name = name.toLowerCase(Locale.ROOT);
     this.arguments = new ArrayList<>();
     this.executable = _ -> {
     };
@@ -24,6 +27,10 @@ public abstract class AbstractArgument<I> implements Argument<I> {
   protected abstract boolean isValidInput(CommandContext context);
   protected abstract I parse(CommandContext context);
 
+  protected List<String> suggest(String prefix) {
+    return List.of();
+  }
+
   protected String name() {
     return name;
   }
@@ -57,6 +64,11 @@ public abstract class AbstractArgument<I> implements Argument<I> {
       public I parse(CommandContext input) {
         return AbstractArgument.this.parse(input);
       }
+
+      @Override
+      public List<String> suggest(String prefix) {
+        return AbstractArgument.this.suggest(prefix);
+      }
     };
   }
 
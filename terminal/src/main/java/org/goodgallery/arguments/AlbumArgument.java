@@ -4,6 +4,8 @@ import org.goodgallery.command.CommandContext;
 import org.goodgallery.gallery.Album;
 import org.goodgallery.gallery.Gallery;
 
+import java.util.List;
+
 public class AlbumArgument extends AbstractArgument<Album> {
 
   private final Gallery gallery;
@@ -23,6 +25,11 @@ public class AlbumArgument extends AbstractArgument<Album> {
     return gallery.hasAlbum(context.peek());
   }
 
+  @Override
+  protected List<String> suggest(String prefix) {
+    return gallery.completeAlbumNames(prefix, SUGGESTION_LIMIT);
+  }
+
   @Override
   protected Album parse(CommandContext context) {
     return gallery.getAlbum(context.next()).orElse(null);
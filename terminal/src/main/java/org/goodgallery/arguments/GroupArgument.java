@@ -4,6 +4,8 @@ import org.goodgallery.command.CommandContext;
 import org.goodgallery.gallery.Gallery;
 import org.goodgallery.gallery.Group;
 
+import java.util.List;
+
 public class GroupArgument extends AbstractArgument<Group> {
 
   private final Gallery gallery;
@@ -23,6 +25,11 @@ public class GroupArgument extends AbstractArgument<Group> {
     return gallery.hasGroup(context.peek());
   }
 
+  @Override
+  protected List<String> suggest(String prefix) {
+    return gallery.completeGroupNames(prefix, SUGGESTION_LIMIT);
+  }
+
   @Override
   protected Group parse(CommandContext context) {
     return gallery.getGroup(context.next()).orElse(null);
@@ -2,6 +2,8 @@ package org.goodgallery.arguments;
 
 import org.goodgallery.command.CommandContext;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
 
@@ -27,6 +29,28 @@ public abstract class InternalArgument<O> {
 
   public abstract O parse(CommandContext input);
 
+  public abstract List<String> suggest(String prefix);
+
+  /**
+   * Adds the suggestions for {@code partial}, the word being typed after the remaining input, following every
+   * branch of arguments the remaining input is valid for.
+   */
+  public void complete(CommandContext context, String partial, Collection<String> candidates) {
+    if (!context.hasNext()) {
+      candidates.addAll(suggest(partial));
+      return;
+    }
+    if (!isValidInput(context))
+      return;
+    context.next();
+
+    int mark = context.mark();
+    for (InternalArgument<?> argument : arguments) {
+      argument.complete(context, partial, candidates);
+      context.reset(mark);
+    }
+  }
+
   public boolean execute(CommandContext context) {
     if (!isValidInput(context))
       return false;
@@ -2,6 +2,9 @@ package org.goodgallery.arguments;
 
 import org.goodgallery.command.CommandContext;
 
+import java.util.List;
+import java.util.Locale;
+
 public class LiteralArgument extends AbstractArgument<String> {
 
   protected LiteralArgument(String literal) {
@@ -18,6 +21,11 @@ public class LiteralArgument extends AbstractArgument<String> {
     return name().equalsIgnoreCase(context.peek());
   }
 
+  @Override
+  protected List<String> suggest(String prefix) {
+    return name().startsWith(prefix.toLowerCase(Locale.ROOT)) ? List.of(name()) : List.of();
+  }
+
   @Override
   protected String parse(CommandContext context) {
     return context.next();
@@ -4,6 +4,8 @@ import org.goodgallery.command.CommandContext;
 import org.goodgallery.gallery.Gallery;
 import org.goodgallery.gallery.Photo;
 
+import java.util.List;
+
 public class PhotoArgument extends AbstractArgument<Photo> {
 
   private final Gallery gallery;
@@ -23,6 +25,11 @@ public class PhotoArgument extends AbstractArgument<Photo> {
     return gallery.hasPhoto(context.peek());
   }
 
+  @Override
+  protected List<String> suggest(String prefix) {
+    return gallery.completePhotoNames(prefix, SUGGESTION_LIMIT);
+  }
+
   @Override
   protected Photo parse(CommandContext context) {
     return gallery.getPhoto(context.next()).orElse(null);
@@ -4,6 +4,7 @@ import org.goodgallery.arguments.Argument;
 import org.goodgallery.arguments.InternalArgument;
 import org.goodgallery.arguments.LiteralArgument;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -47,6 +48,14 @@ public final class Command {
     return false;
   }
 
+  public void complete(CommandContext context, String partial, Collection<String> candidates) {
+    int mark = context.mark();
+    for (InternalArgument<?> argument : arguments) {
+      argument.complete(context, partial, candidates);
+      context.reset(mark);
+    }
+  }
+
   @Override
   public String toString() {
     return command;
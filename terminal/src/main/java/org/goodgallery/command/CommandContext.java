@@ -67,6 +67,14 @@ public class CommandContext implements Iterator<String> {
     return args[index++];
   }
 
+  public int mark() {
+    return index;
+  }
+
+  public void reset(int mark) {
+    index = mark;
+  }
+
   public void put(String argumentKey, Object parsedArgument) {
     parsedArguments.put(argumentKey, parsedArgument);
   }
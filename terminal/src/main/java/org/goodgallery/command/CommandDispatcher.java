@@ -5,7 +5,11 @@ import org.goodgallery.terminal.TerminalContext;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 public class CommandDispatcher {
 
@@ -59,6 +63,26 @@ public class CommandDispatcher {
     return result;
   }
 
+  /**
+   * Suggestions for the word at {@code wordIndex}, of which {@code partial} has been typed so far, given the words
+   * before it.
+   */
+  public List<String> complete(List<String> words, int wordIndex, String partial) {
+    if (wordIndex == 0)
+      return commands.keySet().stream().filter(label -> label.startsWith(partial.toLowerCase(Locale.ROOT))).sorted().toList();
+    Command command = commands.get(words.getFirst());
+    if (command == null)
+      return List.of();
+
+    // Words with spaces were typed in quotes and are quoted again so they tokenize the same way
+    String input = words.subList(0, wordIndex).stream()
+      .map(word -> word.chars().anyMatch(Character::isWhitespace) ? "\"" + word + "\"" : word)
+      .collect(Collectors.joining(" "));
+    TreeSet<String> candidates = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    command.complete(new CommandContext(null, input), partial, candidates);
+    return List.copyOf(candidates);
+  }
+
   public InputStream in() {
     return in;
   }
@@ -2,6 +2,7 @@ package org.goodgallery.terminal;
 
 import org.goodgallery.command.CommandDispatcher;
 import org.goodgallery.command.CommandException;
+import org.jline.reader.Candidate;
 import org.jline.reader.LineReader;
 import org.jline.reader.LineReaderBuilder;
 import org.jline.reader.impl.DefaultParser;
@@ -35,6 +36,13 @@ public class TerminalManager extends Thread implements Closeable {
           return false;
         }
       })
+      .completer((_, line, candidates) -> {
+        String partial = line.word().substring(0, line.wordCursor());
+        for (String suggestion : dispatcher.complete(line.words(), line.wordIndex(), partial))
+          candidates.add(new Candidate(suggestion.chars().anyMatch(Character::isWhitespace) ? "\"" + suggestion + "\"" : suggestion,
+            suggestion, null, null, null, null, true));
+      })
+      .option(LineReader.Option.CASE_INSENSITIVE, true)
       .build();
   }
 